@@ -0,0 +1,160 @@
+#!/bin/bash
+#
+# Compares decoding of typical provider payloads: the old String -> JsonNode tree -> Map.of(...) path
+# against ProviderJsonDecoder, which streams the response straight into our item records.
+#
+# Payloads are synthetic but shaped like real responses: a 50-track Spotify playlist page (with
+# available_markets, external ids/urls, album images, added_by, ...) and a 50-item YouTube
+# playlistItems page (with descriptions, five thumbnail sizes, contentDetails). Reports bytes
+# allocated and time per decoded page on the current thread after a warm-up.
+#
+# Usage: ./bench-json-decoding.sh [ITERATIONS]
+
+ITERATIONS=${1:-20000}
+cd "$(dirname "$0")"
+
+echo "🧪 Audiora JSON decoding benchmark ($ITERATIONS iterations per case)"
+echo "=================================================================="
+
+mvn -B -q compile || exit 1
+CP_FILE=$(mktemp)
+mvn -B -q dependency:build-classpath -Dmdep.outputFile="$CP_FILE" || exit 1
+
+BENCH_DIR=$(mktemp -d)
+cat > "$BENCH_DIR/JsonDecodingBench.java" <<'EOF'
+import com.audiora.service.ProviderJsonDecoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JsonDecodingBench {
+    static final ObjectMapper MAPPER = new ObjectMapper();
+    static final ProviderJsonDecoder DECODER = new ProviderJsonDecoder();
+    static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    static long sink;
+
+    interface Case { int run(byte[] body) throws Exception; }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = Integer.parseInt(args[0]);
+        byte[] spotify = spotifyPage().getBytes(StandardCharsets.UTF_8);
+        byte[] youtube = youtubePage().getBytes(StandardCharsets.UTF_8);
+        System.out.printf("Spotify page: %d bytes, YouTube page: %d bytes%n%n", spotify.length, youtube.length);
+        System.out.printf("%-32s %14s %14s %12s%n", "case", "alloc/page", "time/page", "pages/s");
+        run("spotify tracks, tree + maps", spotify, iterations, JsonDecodingBench::legacySpotify);
+        run("spotify tracks, streaming", spotify, iterations,
+                body -> DECODER.spotifyPlaylistTracks(DefaultDataBufferFactory.sharedInstance.wrap(body)).items().size());
+        run("youtube items, tree + maps", youtube, iterations, JsonDecodingBench::legacyYoutube);
+        run("youtube items, streaming", youtube, iterations,
+                body -> DECODER.youtubePlaylistItems(new String(body, StandardCharsets.UTF_8)).items().size());
+    }
+
+    static void run(String name, byte[] body, int iterations, Case c) throws Exception {
+        for (int i = 0; i < iterations; i++) sink += c.run(body);
+        long bytes = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink += c.run(body);
+        long nanos = System.nanoTime() - start;
+        bytes = THREADS.getCurrentThreadAllocatedBytes() - bytes;
+        System.out.printf("%-32s %11.1f KB %11.1f us %12.0f%n", name, bytes / 1024.0 / iterations,
+                nanos / 1000.0 / iterations, iterations / (nanos / 1e9));
+    }
+
+    /** The pre-decoder path: body as String, full tree, then Map.of per item. */
+    static int legacySpotify(byte[] body) throws Exception {
+        JsonNode root = MAPPER.readTree(new String(body, StandardCharsets.UTF_8));
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (JsonNode item : root.get("items")) {
+            JsonNode track = item.path("track");
+            if (track.isNull() || track.path("id").isNull()) continue;
+            List<String> artists = new ArrayList<>();
+            for (JsonNode a : track.path("artists")) artists.add(a.path("name").asText());
+            JsonNode images = track.path("album").path("images");
+            String image = images.get(images.size() - 1).path("url").asText();
+            items.add(Map.of("track", Map.of("id", track.path("id").asText(), "name", track.path("name").asText(),
+                    "artists", artists, "album", track.path("album").path("name").asText(),
+                    "durationMs", track.path("duration_ms").asLong(), "uri", track.path("uri").asText(),
+                    "image", image, "provider", "spotify")));
+        }
+        return items.size();
+    }
+
+    static int legacyYoutube(byte[] body) throws Exception {
+        JsonNode root = MAPPER.readTree(new String(body, StandardCharsets.UTF_8));
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (JsonNode n : root.get("items")) {
+            JsonNode snippet = n.path("snippet");
+            items.add(Map.of("videoId", snippet.path("resourceId").path("videoId").asText(),
+                    "position", snippet.path("position").asInt(), "title", snippet.path("title").asText(),
+                    "channelTitle", snippet.path("channelTitle").asText(),
+                    "publishedAt", snippet.path("publishedAt").asText(),
+                    "thumbnail", snippet.path("thumbnails").path("default").path("url").asText()));
+        }
+        return items.size();
+    }
+
+    static String spotifyPage() throws Exception {
+        List<String> markets = new ArrayList<>();
+        for (char a = 'A'; a <= 'Z'; a++) for (char b = 'A'; b <= 'G'; b++) markets.add("" + a + b);
+        List<Object> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> artist = Map.of("id", "artist" + i, "name", "Artist " + i, "type", "artist",
+                    "uri", "spotify:artist:" + i, "href", "https://api.spotify.com/v1/artists/" + i,
+                    "external_urls", Map.of("spotify", "https://open.spotify.com/artist/" + i));
+            List<Object> images = List.of(
+                    Map.of("url", "https://i.scdn.co/image/large" + i, "height", 640, "width", 640),
+                    Map.of("url", "https://i.scdn.co/image/medium" + i, "height", 300, "width", 300),
+                    Map.of("url", "https://i.scdn.co/image/small" + i, "height", 64, "width", 64));
+            Map<String, Object> album = new HashMap<>(Map.of("id", "album" + i, "name", "Album " + i,
+                    "album_type", "album", "images", images, "artists", List.of(artist),
+                    "available_markets", markets, "release_date", "2020-01-01", "total_tracks", 12,
+                    "uri", "spotify:album:" + i, "href", "https://api.spotify.com/v1/albums/" + i));
+            Map<String, Object> track = new HashMap<>(Map.of("id", "track" + i, "name", "Track number " + i,
+                    "artists", List.of(artist), "album", album, "duration_ms", 215000 + i,
+                    "uri", "spotify:track:" + i, "available_markets", markets, "explicit", false,
+                    "external_ids", Map.of("isrc", "USRC1" + i), "popularity", 50));
+            track.put("preview_url", "https://p.scdn.co/mp3-preview/" + i);
+            track.put("external_urls", Map.of("spotify", "https://open.spotify.com/track/" + i));
+            items.add(Map.of("added_at", "2024-05-01T10:00:00Z", "is_local", false, "track", track,
+                    "added_by", Map.of("id", "user", "type", "user", "uri", "spotify:user:user")));
+        }
+        return MAPPER.writeValueAsString(Map.of("href", "https://api.spotify.com/v1/playlists/p/tracks",
+                "items", items, "limit", 50, "offset", 0, "total", 2000,
+                "next", "https://api.spotify.com/v1/playlists/p/tracks?offset=50&limit=50"));
+    }
+
+    static String youtubePage() throws Exception {
+        List<Object> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> thumbnails = new HashMap<>();
+            for (String size : List.of("default", "medium", "high", "standard", "maxres")) {
+                thumbnails.put(size, Map.of("url", "https://i.ytimg.com/vi/v" + i + "/" + size + ".jpg",
+                        "width", 480, "height", 360));
+            }
+            Map<String, Object> snippet = new HashMap<>(Map.of("publishedAt", "2024-05-01T10:00:00Z",
+                    "channelId", "UCchannel", "title", "Video title " + i,
+                    "description", "A fairly long description of the video. ".repeat(12),
+                    "thumbnails", thumbnails, "channelTitle", "Channel", "playlistId", "PL123",
+                    "position", i, "resourceId", Map.of("kind", "youtube#video", "videoId", "v" + i)));
+            snippet.put("videoOwnerChannelTitle", "Owner");
+            items.add(Map.of("kind", "youtube#playlistItem", "etag", "etag" + i, "id", "item" + i,
+                    "snippet", snippet,
+                    "contentDetails", Map.of("videoId", "v" + i, "videoPublishedAt", "2024-01-01T00:00:00Z")));
+        }
+        return MAPPER.writeValueAsString(Map.of("kind", "youtube#playlistItemListResponse", "etag", "e",
+                "nextPageToken", "CDIQAA", "items", items,
+                "pageInfo", Map.of("totalResults", 230, "resultsPerPage", 50)));
+    }
+}
+EOF
+
+java -cp "target/classes:$(cat "$CP_FILE")" "$BENCH_DIR/JsonDecodingBench.java" "$ITERATIONS"
+rm -rf "$BENCH_DIR" "$CP_FILE"
@@ -0,0 +1,137 @@
+#!/bin/bash
+#
+# Measures the log-structured liked-track store (app.likes.store=lsm) at volumes that outgrow the heap.
+#
+# Writes LIKES likes spread over USERS users, one put at a time with the default 200 ms log sync, into a
+# fresh store under a temporary directory, and waits for flushes and compactions to settle. Then it times
+# random first pages (50 likes) and point gets, batch status checks of 5000 tracks, and reopening the
+# store. Reports write throughput, p50/p99 read latencies and the size on disk.
+#
+# Usage: ./bench-lsm-likes.sh [LIKES] [USERS]
+
+LIKES=${1:-2000000}
+USERS=${2:-10000}
+cd "$(dirname "$0")"
+
+echo "🧪 Audiora liked-track LSM benchmark ($LIKES likes over $USERS users)"
+echo "=================================================================="
+
+mvn -B -q compile || exit 1
+CP_FILE=$(mktemp)
+mvn -B -q dependency:build-classpath -Dmdep.outputFile="$CP_FILE" || exit 1
+
+BENCH_DIR=$(mktemp -d)
+cat > "$BENCH_DIR/LsmLikesBench.java" <<'EOF'
+import com.audiora.model.LikedTrack;
+import com.audiora.model.Provider;
+import com.audiora.model.TrackRef;
+import com.audiora.store.LsmLikedTrackStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LsmLikesBench {
+    static final long MEMTABLE_BYTES = 64L << 20;
+    static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    public static void main(String[] args) throws Exception {
+        int likes = Integer.parseInt(args[0]);
+        int users = Integer.parseInt(args[1]);
+        Path dir = Path.of(args[2]);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LsmLikedTrackStore store = open(registry, dir);
+
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < likes; i++) {
+            store.put(like("user" + random.nextInt(users), trackId(random), i));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("writes          %,d in %.1f s = %,.0f/s%n", likes, seconds, likes / seconds);
+
+        settle(registry);
+        System.out.printf("segments        %.0f, %,d MB on disk%n",
+                registry.get("audiora.likes.lsm.segments").gauge().value(), diskBytes(dir) >> 20);
+
+        long[] pages = new long[20_000];
+        long[] gets = new long[20_000];
+        for (int i = 0; i < pages.length; i++) {
+            String user = "user" + random.nextInt(users);
+            long t = System.nanoTime();
+            store.page(user, null, null, 51);
+            pages[i] = System.nanoTime() - t;
+            t = System.nanoTime();
+            store.get(user, user + "_SPOTIFY_" + trackId(random));
+            gets[i] = System.nanoTime() - t;
+        }
+        report("page(50)", pages);
+        report("get", gets);
+
+        List<TrackRef> probes = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) probes.add(new TrackRef(Provider.SPOTIFY, trackId(random)));
+        long[] checks = new long[2000];
+        for (int i = 0; i < checks.length; i++) {
+            String user = "user" + random.nextInt(users);
+            long t = System.nanoTime();
+            store.liked(user, probes);
+            checks[i] = System.nanoTime() - t;
+        }
+        report("status(5000)", checks);
+
+        store.destroy();
+        start = System.nanoTime();
+        open(registry, dir).destroy();
+        System.out.printf("reopen          %.0f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+
+    static LsmLikedTrackStore open(SimpleMeterRegistry registry, Path dir) throws Exception {
+        return new LsmLikedTrackStore(registry, dir.toString(), MEMTABLE_BYTES, MAX_SEGMENT_BYTES, 4, 200, 10_000);
+    }
+
+    static LikedTrack like(String user, String track, int i) {
+        LikedTrack like = new LikedTrack(user, Provider.SPOTIFY, track, "Some Title " + i, "Some Artist");
+        like.setId(user + "_SPOTIFY_" + track);
+        like.setLikedAt(Instant.ofEpochSecond(1_700_000_000L + i));
+        return like;
+    }
+
+    static String trackId(Random random) {
+        return Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+    }
+
+    /** Waits until no flush or compaction has happened for two seconds. */
+    static void settle(SimpleMeterRegistry registry) throws InterruptedException {
+        double last = -1;
+        int quiet = 0;
+        while (quiet < 4) {
+            Thread.sleep(500);
+            double done = registry.get("audiora.likes.lsm.flushes").counter().count()
+                    + registry.get("audiora.likes.lsm.compactions").counter().count();
+            quiet = done == last ? quiet + 1 : 0;
+            last = done;
+        }
+    }
+
+    static long diskBytes(Path dir) throws Exception {
+        try (var files = Files.list(dir)) {
+            return files.mapToLong(f -> f.toFile().length()).sum();
+        }
+    }
+
+    static void report(String name, long[] nanos) {
+        Arrays.sort(nanos);
+        System.out.printf("%-15s p50 %,8.1f us   p99 %,8.1f us%n", name,
+                nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3);
+    }
+}
+EOF
+
+java -Xmx1g -cp "target/classes:$(cat "$CP_FILE")" "$BENCH_DIR/LsmLikesBench.java" "$LIKES" "$USERS" "$BENCH_DIR/data" 2>&1 \
+    | grep -v -e ' INFO ' -e ' DEBUG '
+rm -rf "$BENCH_DIR" "$CP_FILE"
@@ -0,0 +1,135 @@
+#!/bin/bash
+#
+# Measures how many concurrent slow upstream calls one backend instance can hold.
+#
+# Starts a local stub standing in for Spotify (token endpoint, /v1/me and playlist tracks that
+# answer after DELAY seconds), boots the backend pointed at it, opens a session through the
+# normal OAuth callback, then fires CONCURRENCY simultaneous GET /api/spotify/playlists/{id}/tracks,
+# each for a different playlist so that the response cache cannot collapse them.
+#
+# Set VIRTUAL_THREADS=true to serve requests on virtual threads instead of the platform pool.
+#
+# Usage: [VIRTUAL_THREADS=true] ./load-test-upstream.sh [CONCURRENCY] [DELAY_SECONDS]
+
+CONCURRENCY=${1:-1000}
+DELAY=${2:-5}
+STUB_PORT=${STUB_PORT:-9099}
+BACKEND_PORT=${BACKEND_PORT:-8080}
+VIRTUAL_THREADS=${VIRTUAL_THREADS:-false}
+BACKEND="http://127.0.0.1:$BACKEND_PORT"
+
+echo "🧪 Audiora upstream load test: $CONCURRENCY concurrent calls, ${DELAY}s upstream latency, virtual threads: $VIRTUAL_THREADS"
+echo "====================================================================================="
+
+python3 - "$STUB_PORT" "$DELAY" <<'EOF' &
+import asyncio, sys
+
+PORT, DELAY = int(sys.argv[1]), float(sys.argv[2])
+BODIES = {
+    "/api/token": b'{"access_token":"stub","refresh_token":"stub","expires_in":3600,"token_type":"Bearer","scope":""}',
+    "/v1/me": b'{"id":"loadtest","display_name":"Load Test","email":"loadtest@example.com","images":[]}',
+    "/v1/playlists": b'{"items":[]}',
+}
+
+async def handle(reader, writer):
+    try:
+        while True:
+            head = await reader.readuntil(b"\r\n\r\n")
+            path = head.split(b" ", 2)[1].decode().split("?")[0]
+            length = 0
+            for line in head.split(b"\r\n"):
+                if line.lower().startswith(b"content-length:"):
+                    length = int(line.split(b":")[1])
+            if length:
+                await reader.readexactly(length)
+            if path.startswith("/v1/playlists/"):
+                await asyncio.sleep(DELAY)
+                path = "/v1/playlists"
+            body = BODIES.get(path, b"{}")
+            writer.write(b"HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: %d\r\n\r\n" % len(body) + body)
+            await writer.drain()
+    except (asyncio.IncompleteReadError, ConnectionError):
+        writer.close()
+
+async def main():
+    server = await asyncio.start_server(handle, "127.0.0.1", PORT, backlog=4096)
+    async with server:
+        await server.serve_forever()
+
+asyncio.run(main())
+EOF
+STUB_PID=$!
+
+echo "1. Starting backend against the stub on :$STUB_PORT..."
+mvn -B -q spring-boot:run -Dspring-boot.run.arguments="\
+--server.port=$BACKEND_PORT \
+--spring.threads.virtual.enabled=$VIRTUAL_THREADS \
+--app.upstream.spotifyApiBaseUrl=http://127.0.0.1:$STUB_PORT/v1 \
+--app.upstream.spotifyAccountsBaseUrl=http://127.0.0.1:$STUB_PORT \
+--app.upstream.pool.maxConnections=$CONCURRENCY \
+--app.upstream.pool.pendingAcquireMaxCount=$CONCURRENCY \
+--app.upstream.responseTimeout=$((DELAY * 4))s" > /tmp/audiora-load-test.log 2>&1 &
+BACKEND_PID=$!
+trap 'kill $STUB_PID 2>/dev/null; pkill -P $BACKEND_PID 2>/dev/null; kill $BACKEND_PID 2>/dev/null' EXIT
+
+for _ in $(seq 1 120); do
+  curl -s -o /dev/null "$BACKEND/api/health" && break
+  sleep 2
+done
+
+echo "2. Opening a session through the Spotify OAuth callback..."
+LOCATION=$(curl -s -o /dev/null -w '%{redirect_url}' "$BACKEND/api/auth/spotify/callback?code=loadtest")
+SESSION_ID=$(echo "$LOCATION" | sed -n 's/.*sessionId=\([^&#]*\).*/\1/p')
+if [[ -z $SESSION_ID ]]; then
+  echo "❌ No session created (redirect: $LOCATION). See /tmp/audiora-load-test.log"
+  exit 1
+fi
+echo "   session: $SESSION_ID"
+
+echo "3. Firing $CONCURRENCY concurrent requests..."
+python3 - "$BACKEND_PORT" "$SESSION_ID" "$CONCURRENCY" <<'EOF'
+import asyncio, json, sys, time, urllib.request
+
+PORT, SESSION, N = int(sys.argv[1]), sys.argv[2], int(sys.argv[3])
+REQUEST = "GET /api/spotify/playlists/loadtest%%d/tracks HTTP/1.1\r\nHost: 127.0.0.1\r\nX-Session-Id: %s\r\nConnection: close\r\n\r\n" % SESSION
+
+latencies = []
+
+async def one(i):
+    begin = time.monotonic()
+    reader, writer = await asyncio.open_connection("127.0.0.1", PORT)
+    writer.write((REQUEST % i).encode())
+    status = (await reader.readline()).split(b" ")[1].decode()
+    await reader.read()
+    writer.close()
+    latencies.append(time.monotonic() - begin)
+    return status
+
+def gauge(name):
+    try:
+        with urllib.request.urlopen("http://127.0.0.1:%d/actuator/metrics/%s" % (PORT, name)) as r:
+            return sum(m["value"] for m in json.load(r)["measurements"])
+    except Exception:
+        return "n/a"
+
+async def main():
+    start = time.monotonic()
+    tasks = [asyncio.ensure_future(one(i)) for i in range(N)]
+    await asyncio.sleep(1.5)
+    print("   upstream connections active mid-run: %s" % gauge("reactor.netty.connection.provider.active.connections"))
+    print("   live JVM threads mid-run:            %s" % gauge("jvm.threads.live"))
+    results = await asyncio.gather(*tasks, return_exceptions=True)
+    elapsed = time.monotonic() - start
+    counts = {}
+    for r in results:
+        key = r if isinstance(r, str) else type(r).__name__
+        counts[key] = counts.get(key, 0) + 1
+    print("   completed in %.1fs, responses: %s" % (elapsed, counts))
+    if latencies:
+        latencies.sort()
+        pct = lambda p: latencies[min(len(latencies) - 1, int(p * len(latencies)))]
+        print("   throughput %.0f req/s, latency p50 %.2fs p99 %.2fs max %.2fs"
+              % (len(latencies) / elapsed, pct(0.50), pct(0.99), latencies[-1]))
+
+asyncio.run(main())
+EOF
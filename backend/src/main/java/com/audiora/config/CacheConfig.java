@@ -0,0 +1,46 @@
+package com.audiora.config;
+
+import com.audiora.service.ProviderResponseCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Caffeine-backed caches for provider responses, each bounded by the approximate size of the responses it
+ * holds ({@link ProviderResponseCache#weigh}): a few large playlists weigh as much as many small ones.
+ * Entries live for their TTL plus the stale-while-revalidate window; {@link ProviderResponseCache} decides whether an entry is fresh or
+ * stale. Boot binds every cache registered here to Micrometer ({@code cache.gets}, {@code cache.evictions}, ...).
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    @Bean
+    public CacheManager cacheManager(@Value("${app.cache.maxBytes:67108864}") long maxBytes,
+                                     @Value("${app.cache.playlistsTtl:2m}") Duration playlistsTtl,
+                                     @Value("${app.cache.playlistItemsTtl:5m}") Duration playlistItemsTtl,
+                                     @Value("${app.cache.staleWhileRevalidate:10m}") Duration staleWindow) {
+        CaffeineCacheManager manager = new CaffeineCacheManager();
+        manager.setAllowNullValues(false);
+        register(manager, ProviderResponseCache.SPOTIFY_PLAYLISTS, maxBytes, playlistsTtl.plus(staleWindow));
+        register(manager, ProviderResponseCache.SPOTIFY_PLAYLIST_TRACKS, maxBytes, playlistItemsTtl.plus(staleWindow));
+        register(manager, ProviderResponseCache.YOUTUBE_PLAYLISTS, maxBytes, playlistsTtl.plus(staleWindow));
+        register(manager, ProviderResponseCache.YOUTUBE_PLAYLIST_ITEMS, maxBytes, playlistItemsTtl.plus(staleWindow));
+        return manager;
+    }
+
+    private static void register(CaffeineCacheManager manager, String name, long maxBytes, Duration retention) {
+        manager.registerCustomCache(name, Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(ProviderResponseCache::weigh)
+                .expireAfterWrite(retention)
+                .recordStats()
+                .build());
+    }
+}
@@ -0,0 +1,58 @@
+package com.audiora.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * Single HTTP client shared by every upstream provider call (Spotify, Google OAuth, YouTube).
+ * <p>
+ * Reactor Netty keeps one connection pool per remote host, so each provider host gets its own pool
+ * with the limits below. Pools expose their metrics under {@code reactor.netty.connection.provider.*}.
+ * Stalled responses are cut by {@code responseTimeout}, which Reactor Netty applies per request only, so
+ * idle keep-alive connections stay pooled until {@code maxIdleTime}.
+ */
+@Configuration
+public class UpstreamHttpConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider upstreamConnectionProvider(
+            @Value("${app.upstream.pool.maxConnections:100}") int maxConnections,
+            @Value("${app.upstream.pool.pendingAcquireMaxCount:500}") int pendingAcquireMaxCount,
+            @Value("${app.upstream.pool.pendingAcquireTimeout:5s}") Duration pendingAcquireTimeout,
+            @Value("${app.upstream.pool.maxIdleTime:30s}") Duration maxIdleTime,
+            @Value("${app.upstream.pool.maxLifeTime:5m}") Duration maxLifeTime,
+            @Value("${app.upstream.pool.evictInterval:30s}") Duration evictInterval) {
+        return ConnectionProvider.builder("upstream")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(evictInterval)
+                .lifo()
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public HttpClient upstreamHttpClient(ConnectionProvider upstreamConnectionProvider,
+                                         @Value("${app.upstream.connectTimeout:3s}") Duration connectTimeout,
+                                         @Value("${app.upstream.responseTimeout:10s}") Duration responseTimeout,
+                                         @Value("${app.upstream.http2:true}") boolean http2) {
+        HttpClient client = HttpClient.create(upstreamConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .keepAlive(true)
+                .compress(true)
+                .responseTimeout(responseTimeout);
+        // Negotiated via ALPN: hosts that don't speak HTTP/2 fall back to HTTP/1.1
+        return http2 ? client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11) : client;
+    }
+}
@@ -0,0 +1,24 @@
+package com.audiora.config;
+
+import com.audiora.service.UpstreamResilience;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/** {@code /actuator/upstreams}: circuit breaker and bulkhead state of each upstream service. */
+@Component
+@Endpoint(id = "upstreams")
+public class UpstreamsEndpoint {
+    private final UpstreamResilience resilience;
+
+    public UpstreamsEndpoint(UpstreamResilience resilience) {
+        this.resilience = resilience;
+    }
+
+    @ReadOperation
+    public Map<String, UpstreamResilience.Status> upstreams() {
+        return resilience.status();
+    }
+}
@@ -0,0 +1,34 @@
+package com.audiora.controller;
+
+import com.audiora.service.UpstreamThrottledException;
+import com.audiora.service.UpstreamUnavailableException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+
+/** Errors shared by all API controllers. */
+@RestControllerAdvice
+public class ApiExceptionHandler {
+
+    /** A provider call we could not make for now: 429 with the provider's (or quota's) retry time. */
+    @ExceptionHandler(UpstreamThrottledException.class)
+    public ResponseEntity<Map<String, Object>> throttled(UpstreamThrottledException e) {
+        long seconds = Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(seconds))
+                .body(Map.of("error", e.getReason(),
+                        "provider", e.getProvider().name().toLowerCase(),
+                        "retryAfterSeconds", seconds));
+    }
+
+    /** Refused by the provider's circuit breaker or bulkhead: the usual "unreachable" body, without waiting. */
+    @ExceptionHandler(UpstreamUnavailableException.class)
+    public ResponseEntity<Map<String, Object>> unavailable(UpstreamUnavailableException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(Map.of("error", e.errorCode(), "reason", e.getReason()));
+    }
+}
@@ -6,6 +6,7 @@ import com.audiora.service.YouTubeAuthService;
 import com.audiora.service.GoogleAuthService;
 import com.audiora.service.UserService;
 import com.audiora.service.JwtService;
+import com.audiora.service.ProviderResponseCache;
 import com.audiora.store.InMemoryTokenStore;
 import com.audiora.model.*;
 import com.audiora.dto.*;
@@ -14,6 +15,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
 import java.util.Map;
 import java.util.Optional;
@@ -29,6 +31,7 @@ public class AuthController {
     private final UserService userService;
     private final InMemoryTokenStore tokenStore;
     private final JwtService jwtService;
+    private final ProviderResponseCache responseCache;
 
     @Value("${spotify.clientId:}") private String spotifyClientId;
     @Value("${spotify.clientSecret:}") private String spotifyClientSecret;
@@ -41,7 +44,8 @@ public class AuthController {
 
     public AuthController(AuthLinkBuilder authLinkBuilder, SpotifyAuthService spotifyAuthService,
                          YouTubeAuthService youTubeAuthService, GoogleAuthService googleAuthService,
-                         UserService userService, InMemoryTokenStore tokenStore, JwtService jwtService) {
+                         UserService userService, InMemoryTokenStore tokenStore, JwtService jwtService,
+                         ProviderResponseCache responseCache) {
         this.authLinkBuilder = authLinkBuilder;
         this.spotifyAuthService = spotifyAuthService;
         this.youTubeAuthService = youTubeAuthService;
@@ -49,6 +53,7 @@ public class AuthController {
         this.userService = userService;
         this.tokenStore = tokenStore;
         this.jwtService = jwtService;
+        this.responseCache = responseCache;
     }
 
     @GetMapping("/spotify/login")
@@ -57,11 +62,11 @@ public class AuthController {
     }
 
     @GetMapping("/spotify/callback")
-    public ResponseEntity<?> spotifyCallback(@RequestParam(name = "code", required = false) String code,
+    public Mono<ResponseEntity<?>> spotifyCallback(@RequestParam(name = "code", required = false) String code,
                                              @RequestParam(name = "error", required = false) String error,
                                              @RequestParam(name = "state", required = false) String state) {
         if (error != null) {
-            return redirectError("spotify", error);
+            return Mono.just(redirectError("spotify", error));
         }
         String redirectUri = backendBaseUrl + "/api/auth/spotify/callback";
         return spotifyAuthService.exchangeCodeForToken(spotifyClientId, spotifyClientSecret, redirectUri, code)
@@ -87,12 +92,13 @@ public class AuthController {
 
                         String existingSession = (state != null && state.startsWith("sess_")) ? state.substring(5) : null;
                         String sessionId = tokenStore.createOrUpdate(existingSession, Provider.SPOTIFY, ti);
+                        // The session may now be linked to a different account: drop its cached playlists
+                        responseCache.invalidate(sessionId, Provider.SPOTIFY);
 
                         // Redirect with both session ID and user ID for frontend integration
                         return buildRedirect(frontendBaseUrl + "?sessionId=" + sessionId + "&userId=" + user.getId() + "#provider=spotify");
                     });
-            })
-            .block();
+            });
     }
 
     @GetMapping("/youtube/login")
@@ -101,11 +107,11 @@ public class AuthController {
     }
 
     @GetMapping("/youtube/callback")
-    public ResponseEntity<?> youtubeCallback(@RequestParam(name = "code", required = false) String code,
+    public Mono<ResponseEntity<?>> youtubeCallback(@RequestParam(name = "code", required = false) String code,
                                              @RequestParam(name = "error", required = false) String error,
                                              @RequestParam(name = "state", required = false) String state) {
         if (error != null) {
-            return redirectError("youtube", error);
+            return Mono.just(redirectError("youtube", error));
         }
         String redirectUri = backendBaseUrl + "/api/auth/youtube/callback";
         return youTubeAuthService.exchangeCodeForToken(youtubeClientId, youtubeClientSecret, redirectUri, code)
@@ -131,12 +137,13 @@ public class AuthController {
 
                         String existingSession = (state != null && state.startsWith("sess_")) ? state.substring(5) : null;
                         String sessionId = tokenStore.createOrUpdate(existingSession, Provider.YOUTUBE, ti);
+                        // The session may now be linked to a different account: drop its cached playlists
+                        responseCache.invalidate(sessionId, Provider.YOUTUBE);
 
                         // Redirect with both session ID and user ID for frontend integration
                         return buildRedirect(frontendBaseUrl + "?sessionId=" + sessionId + "&userId=" + user.getId() + "#provider=youtube");
                     });
-            })
-            .block();
+            });
     }
 
     private ResponseEntity<?> buildRedirect(String target) {
@@ -155,11 +162,11 @@ public class AuthController {
     }
 
     @GetMapping("/google/callback")
-    public ResponseEntity<?> googleCallback(@RequestParam(name = "code", required = false) String code,
+    public Mono<ResponseEntity<?>> googleCallback(@RequestParam(name = "code", required = false) String code,
                                            @RequestParam(name = "error", required = false) String error,
                                            @RequestParam(name = "state", required = false) String state) {
         if (error != null) {
-            return redirectError("google", error);
+            return Mono.just(redirectError("google", error));
         }
         String redirectUri = backendBaseUrl + "/api/auth/google/callback";
         return googleAuthService.exchangeCodeForToken(googleClientId, googleClientSecret, redirectUri, code)
@@ -189,8 +196,7 @@ public class AuthController {
                         // Redirect with both session ID and user ID for frontend integration
                         return buildRedirect(frontendBaseUrl + "?sessionId=" + sessionId + "&userId=" + user.getId() + "#provider=google");
                     });
-            })
-            .block();
+            });
     }
 
     // ============ Email/Password Authentication Endpoints ============
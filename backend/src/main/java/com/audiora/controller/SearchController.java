@@ -0,0 +1,40 @@
+package com.audiora.controller;
+
+import com.audiora.service.FederatedSearchService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/search")
+public class SearchController {
+    private final FederatedSearchService federatedSearchService;
+
+    public SearchController(FederatedSearchService federatedSearchService) {
+        this.federatedSearchService = federatedSearchService;
+    }
+
+    /**
+     * Searches every provider linked to the session at once and returns one merged ranking, with a
+     * per-provider status ({@code ok}, {@code timeout}, {@code not_linked}, ...) for partial results.
+     */
+    @GetMapping
+    public Mono<ResponseEntity<?>> search(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                          @RequestParam(name = "query") String query,
+                                          @RequestParam(name = "limit", required = false, defaultValue = "10") int limit) {
+        if (sessionId == null || sessionId.isBlank()) {
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "missing_session")));
+        }
+        limit = Math.max(1, Math.min(limit, 50));
+        return federatedSearchService.search(sessionId, query, limit)
+                .map(result -> result.noProviderLinked()
+                        ? ResponseEntity.status(401).body(Map.of("error", "invalid_session"))
+                        : ResponseEntity.ok(Map.of("items", result.items(), "providers", result.providers())));
+    }
+}
@@ -1,11 +1,12 @@
 package com.audiora.controller;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.audiora.store.InMemoryTokenStore;
 import com.audiora.model.Provider;
 import com.audiora.model.TokenInfo;
 import com.audiora.service.SpotifyApiService;
+import com.audiora.service.ProviderJsonDecoder;
+import com.audiora.service.UpstreamThrottledException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -13,10 +14,11 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.client.WebClientException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -24,159 +26,143 @@ import java.util.Map;
 public class SpotifyApiController {
     private final InMemoryTokenStore tokenStore;
     private final SpotifyApiService spotifyApiService;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ProviderJsonDecoder decoder;
 
-    public SpotifyApiController(InMemoryTokenStore tokenStore, SpotifyApiService spotifyApiService) {
+    public SpotifyApiController(InMemoryTokenStore tokenStore, SpotifyApiService spotifyApiService,
+                               ProviderJsonDecoder decoder) {
         this.tokenStore = tokenStore;
         this.spotifyApiService = spotifyApiService;
+        this.decoder = decoder;
     }
 
     @GetMapping("/playlists")
-    public ResponseEntity<?> playlists(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
+    public Mono<ResponseEntity<?>> playlists(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                             @RequestParam(name = "refresh", required = false, defaultValue = "false") boolean refresh) {
         if (sessionId == null || sessionId.isBlank()) {
-            return ResponseEntity.status(401).body(Map.of("error", "missing_session", "message", "X-Session-Id header required"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "missing_session", "message", "X-Session-Id header required")));
         }
         TokenInfo token = tokenStore.get(sessionId, Provider.SPOTIFY);
         if (token == null) {
-            return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
         }
         if (token.getExpiresAt() != null && token.getExpiresAt().isBefore(Instant.now())) {
-            return ResponseEntity.status(401).body(Map.of("error", "token_expired"));
-        }
-    String raw = spotifyApiService.getCurrentUserPlaylistsRaw(token, sessionId).block();
-        if (raw == null) {
-            return ResponseEntity.internalServerError().body(Map.of("error", "spotify_unreachable"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "token_expired")));
         }
+        return spotifyApiService.getCurrentUserPlaylistsRaw(token, sessionId, refresh)
+                .map(this::toPlaylists)
+                .defaultIfEmpty(ResponseEntity.internalServerError().body(Map.of("error", "spotify_unreachable")));
+    }
+
+    private ResponseEntity<?> toPlaylists(String raw) {
         try {
-            JsonNode root = objectMapper.readTree(raw);
-            List<Map<String, Object>> items = new ArrayList<>();
-            if (root.has("items")) {
-                for (JsonNode n : root.get("items")) {
-                    String id = n.path("id").asText();
-                    String name = n.path("name").asText();
-                    int trackCount = n.path("tracks").path("total").asInt();
-                    String image = null;
-                    JsonNode images = n.path("images");
-                    if (images.isArray() && images.size() > 0) {
-                        image = images.get(0).path("url").asText(null);
-                    }
-                    items.add(Map.of(
-                            "id", id,
-                            "name", name,
-                            "tracks", trackCount,
-                            "image", image
-                    ));
-                }
-            }
-            return ResponseEntity.ok(Map.of("items", items));
+            return ResponseEntity.ok(Map.of("items", decoder.spotifyPlaylists(raw)));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(Map.of("error", "parse_failed", "details", e.getMessage()));
         }
     }
 
     @GetMapping("/playlists/{playlistId}/tracks")
-    public ResponseEntity<?> playlistTracks(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
-                                           @PathVariable String playlistId) {
+    public Mono<ResponseEntity<?>> playlistTracks(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                           @PathVariable String playlistId,
+                                           @RequestParam(name = "offset", required = false, defaultValue = "0") int offset,
+                                           @RequestParam(name = "limit", required = false, defaultValue = "0") int limit,
+                                           @RequestParam(name = "refresh", required = false, defaultValue = "false") boolean refresh) {
         if (sessionId == null || sessionId.isBlank()) {
-            return ResponseEntity.status(401).body(Map.of("error", "missing_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "missing_session")));
         }
         TokenInfo token = tokenStore.get(sessionId, Provider.SPOTIFY);
         if (token == null) {
-            return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
         }
         if (token.getExpiresAt() != null && token.getExpiresAt().isBefore(Instant.now())) {
-            return ResponseEntity.status(401).body(Map.of("error", "token_expired"));
-        }
-        String raw = spotifyApiService.getPlaylistTracksRaw(token, sessionId, playlistId).block();
-        if (raw == null) {
-            return ResponseEntity.internalServerError().body(Map.of("error", "spotify_unreachable"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "token_expired")));
         }
-        try {
-            JsonNode root = objectMapper.readTree(raw);
-            List<Map<String, Object>> items = new ArrayList<>();
-            if (root.has("items")) {
-                for (JsonNode item : root.get("items")) {
-                    JsonNode track = item.path("track");
-                    if (track.isNull() || track.path("id").isNull()) continue;
+        return spotifyApiService.getPlaylistTracksRaw(token, sessionId, playlistId, offset, limit, refresh)
+                .map(this::toPlaylistTracks)
+                .defaultIfEmpty(ResponseEntity.internalServerError().body(Map.of("error", "spotify_unreachable")));
+    }
 
-                    String id = track.path("id").asText();
-                    String name = track.path("name").asText();
-                    List<String> artists = new ArrayList<>();
-                    for (JsonNode a : track.path("artists")) {
-                        artists.add(a.path("name").asText());
-                    }
-                    String album = track.path("album").path("name").asText();
-                    long durationMs = track.path("duration_ms").asLong();
-                    String uri = track.path("uri").asText();
-                    String image = null;
-                    JsonNode images = track.path("album").path("images");
-                    if (images.isArray() && images.size() > 0) {
-                        image = images.get(images.size()-1).path("url").asText();
-                    }
+    /** The service already returns the final JSON document. */
+    private ResponseEntity<?> toPlaylistTracks(String raw) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(raw);
+    }
 
-                    items.add(Map.of(
-                            "track", Map.of(
-                                    "id", id,
-                                    "name", name,
-                                    "artists", artists,
-                                    "album", album,
-                                    "durationMs", durationMs,
-                                    "uri", uri,
-                                    "image", image,
-                                    "provider", "spotify"
-                            )
-                    ));
-                }
-            }
-            return ResponseEntity.ok(Map.of("items", items));
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body(Map.of("error", "parse_failed", "details", e.getMessage()));
+    /**
+     * Same items as {@code /playlists/{playlistId}/tracks}, one per NDJSON line, written as
+     * soon as their page has been read. A failure after the first item ends the stream with an
+     * {@code {"error": ...}} item, since the status has already been sent.
+     */
+    @GetMapping(value = "/playlists/{playlistId}/tracks/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Flux<Object>> streamPlaylistTracks(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                                             @PathVariable String playlistId,
+                                                             @RequestParam(name = "offset", required = false, defaultValue = "0") int offset,
+                                                             @RequestParam(name = "limit", required = false, defaultValue = "0") int limit) {
+        return playlistTracksStream(sessionId, playlistId, offset, limit);
+    }
+
+    /** Server-Sent Events variant, for clients that ask for {@code text/event-stream}. */
+    @GetMapping(value = "/playlists/{playlistId}/tracks/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<Object>> streamPlaylistTracksEvents(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                                                   @PathVariable String playlistId,
+                                                                   @RequestParam(name = "offset", required = false, defaultValue = "0") int offset,
+                                                                   @RequestParam(name = "limit", required = false, defaultValue = "0") int limit) {
+        return playlistTracksStream(sessionId, playlistId, offset, limit);
+    }
+
+    private ResponseEntity<Flux<Object>> playlistTracksStream(String sessionId, String playlistId, int offset, int limit) {
+        if (sessionId == null || sessionId.isBlank()) {
+            return ResponseEntity.status(401).body(Flux.<Object>just(Map.of("error", "missing_session")));
+        }
+        TokenInfo token = tokenStore.get(sessionId, Provider.SPOTIFY);
+        if (token == null) {
+            return ResponseEntity.status(401).body(Flux.<Object>just(Map.of("error", "invalid_session")));
         }
+        if (token.getExpiresAt() != null && token.getExpiresAt().isBefore(Instant.now())) {
+            return ResponseEntity.status(401).body(Flux.<Object>just(Map.of("error", "token_expired")));
+        }
+        Flux<Object> tracks = spotifyApiService.streamPlaylistTracks(token, sessionId, playlistId, offset, limit)
+                .cast(Object.class)
+                .onErrorResume(e -> Flux.<Object>just(Map.of("error", e instanceof UpstreamThrottledException t
+                        ? t.getReason() : "spotify_unreachable")));
+        return ResponseEntity.ok(tracks);
+    }
+
+    /** Catalog details of one track; concurrent lookups are batched with other users' into one upstream call. */
+    @GetMapping("/tracks/{trackId}")
+    public Mono<ResponseEntity<?>> trackDetails(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                            @PathVariable String trackId) {
+        if (sessionId == null || sessionId.isBlank()) {
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "missing_session")));
+        }
+        TokenInfo token = tokenStore.get(sessionId, Provider.SPOTIFY);
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
+        return spotifyApiService.getTrackDetails(token, sessionId, trackId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.status(404).body(Map.of("error", "not_found")))
+                .onErrorResume(WebClientException.class,
+                        e -> Mono.just(ResponseEntity.internalServerError().body(Map.of("error", "spotify_unreachable"))));
     }
 
     @GetMapping("/search")
-    public ResponseEntity<?> search(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+    public Mono<ResponseEntity<?>> search(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
                                     @RequestParam(name = "query") String query,
                                     @RequestParam(name = "limit", required = false, defaultValue = "10") int limit) {
         if (sessionId == null || sessionId.isBlank()) {
-            return ResponseEntity.status(401).body(Map.of("error", "missing_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "missing_session")));
         }
         TokenInfo token = tokenStore.get(sessionId, Provider.SPOTIFY);
         if (token == null) {
-            return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
         }
         if (limit > 50) limit = 50;
-    String raw = spotifyApiService.searchTracksRaw(token, sessionId, query, limit).block();
-        if (raw == null) return ResponseEntity.internalServerError().body(Map.of("error", "spotify_unreachable"));
+        return spotifyApiService.searchTracksRaw(token, sessionId, query, limit)
+                .map(this::toSearchResults)
+                .defaultIfEmpty(ResponseEntity.internalServerError().body(Map.of("error", "spotify_unreachable")));
+    }
+
+    private ResponseEntity<?> toSearchResults(String raw) {
         try {
-            JsonNode root = objectMapper.readTree(raw);
-            JsonNode tracks = root.path("tracks").path("items");
-            List<Map<String, Object>> items = new ArrayList<>();
-            if (tracks.isArray()) {
-                for (JsonNode t : tracks) {
-                    String id = t.path("id").asText();
-                    String name = t.path("name").asText();
-                    List<String> artists = new ArrayList<>();
-                    for (JsonNode a : t.path("artists")) artists.add(a.path("name").asText());
-                    String album = t.path("album").path("name").asText();
-                    long durationMs = t.path("duration_ms").asLong();
-                    String uri = t.path("uri").asText();
-                    String image = null;
-                    JsonNode images = t.path("album").path("images");
-                    if (images.isArray() && images.size() > 0) image = images.get(images.size()-1).path("url").asText();
-                    items.add(Map.of(
-                            "id", id,
-                            "name", name,
-                            "artists", artists,
-                            "album", album,
-                            "durationMs", durationMs,
-                            "uri", uri,
-                "image", image,
-                "provider", "spotify"
-                    ));
-                }
-            }
-            return ResponseEntity.ok(Map.of("items", items));
+            return ResponseEntity.ok(Map.of("items", decoder.spotifySearchTracks(raw)));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(Map.of("error", "parse_failed", "details", e.getMessage()));
         }
@@ -7,6 +7,7 @@ import com.audiora.store.InMemoryTokenStore;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -29,99 +30,98 @@ public class SpotifyPlaybackController {
     }
 
     @GetMapping("/state")
-    public ResponseEntity<?> state(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
+    public Mono<ResponseEntity<?>> state(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
         TokenInfo token = requireToken(sessionId);
-        if (token == null) return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
-    String raw = spotifyApiService.getPlaybackStateRaw(token, sessionId).block();
-        if (raw == null) return ResponseEntity.internalServerError().body(Map.of("error", "spotify_unreachable"));
-        return ResponseEntity.ok(raw);
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
+        return spotifyApiService.getPlaybackStateRaw(token, sessionId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.internalServerError().body(Map.of("error", "spotify_unreachable")));
     }
 
     @PostMapping(value = "/play", consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> playWithBody(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+    public Mono<ResponseEntity<?>> playWithBody(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
                                           @RequestBody(required = false) String body) {
         return play(sessionId, body, null);
     }
 
     @PostMapping("/play")
-    public ResponseEntity<?> play(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+    public Mono<ResponseEntity<?>> play(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
                                   @RequestBody(required = false) String body,
                                   @RequestParam(name = "deviceId", required = false) String deviceId) {
         TokenInfo token = requireToken(sessionId);
-        if (token == null) return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
         // If a deviceId explicitly provided and body has no context, inject an empty body so Spotify targets device
         if (deviceId != null && (body == null || body.isBlank())) {
             body = "{}"; // minimal body allowed
         }
-        Integer code = spotifyApiService.resumeOrStartPlayback(token, sessionId, body).block();
-        return ResponseEntity.status(code == null ? 500 : code).body(Map.of("status", code));
+        return statusResponse(spotifyApiService.resumeOrStartPlayback(token, sessionId, body));
     }
 
     @PostMapping("/pause")
-    public ResponseEntity<?> pause(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
+    public Mono<ResponseEntity<?>> pause(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
         TokenInfo token = requireToken(sessionId);
-        if (token == null) return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
-    Integer code = spotifyApiService.pausePlayback(token, sessionId).block();
-        return ResponseEntity.status(code == null ? 500 : code).body(Map.of("status", code));
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
+        return statusResponse(spotifyApiService.pausePlayback(token, sessionId));
     }
 
     @PostMapping("/next")
-    public ResponseEntity<?> next(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
+    public Mono<ResponseEntity<?>> next(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
         TokenInfo token = requireToken(sessionId);
-        if (token == null) return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
-    Integer code = spotifyApiService.nextTrack(token, sessionId).block();
-        return ResponseEntity.status(code == null ? 500 : code).body(Map.of("status", code));
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
+        return statusResponse(spotifyApiService.nextTrack(token, sessionId));
     }
 
     @PostMapping("/previous")
-    public ResponseEntity<?> previous(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
+    public Mono<ResponseEntity<?>> previous(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
         TokenInfo token = requireToken(sessionId);
-        if (token == null) return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
-    Integer code = spotifyApiService.previousTrack(token, sessionId).block();
-        return ResponseEntity.status(code == null ? 500 : code).body(Map.of("status", code));
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
+        return statusResponse(spotifyApiService.previousTrack(token, sessionId));
+    }
+
+    private static Mono<ResponseEntity<?>> statusResponse(Mono<Integer> call) {
+        return call.map(code -> ResponseEntity.status(code).body(Map.of("status", code)));
     }
 
     private static final Pattern SPOTIFY_TRACK_ID = Pattern.compile("^[0-9A-Za-z]{22}$");
 
     @PostMapping(path = "/play/track", consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> playTrack(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+    public Mono<ResponseEntity<?>> playTrack(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
                                        @RequestBody Map<String, Object> body,
                                        @RequestParam(name = "deviceId", required = false) String deviceId) {
         TokenInfo token = requireToken(sessionId);
-        if (token == null) return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
-        if (body == null) return ResponseEntity.badRequest().body(Map.of("error", "missing_body"));
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
+        if (body == null) return Mono.just(ResponseEntity.badRequest().body(Map.of("error", "missing_body")));
         Object raw = body.get("uri");
         if (raw == null) raw = body.get("id");
-        if (raw == null) return ResponseEntity.badRequest().body(Map.of("error", "missing_uri_or_id"));
+        if (raw == null) return Mono.just(ResponseEntity.badRequest().body(Map.of("error", "missing_uri_or_id")));
         String value = raw.toString();
         String uri = value.startsWith("spotify:track:") ? value : (SPOTIFY_TRACK_ID.matcher(value).matches() ? "spotify:track:" + value : null);
-        if (uri == null) return ResponseEntity.badRequest().body(Map.of("error", "invalid_track_reference"));
+        if (uri == null) return Mono.just(ResponseEntity.badRequest().body(Map.of("error", "invalid_track_reference")));
         Long positionMs = null;
         if (body.containsKey("positionMs")) {
             try { positionMs = Long.parseLong(body.get("positionMs").toString()); } catch (NumberFormatException ignored) {}
         }
         String json = positionMs == null ? "{\"uris\":[\"" + uri + "\"]}" : "{\"uris\":[\"" + uri + "\"],\"position_ms\":" + positionMs + "}";
-        if (deviceId != null) {
-            // Pre-transfer playback if needed
-            spotifyApiService.transferPlayback(token, sessionId, deviceId, false).block();
-        }
-        Integer code = spotifyApiService.resumeOrStartPlayback(token, sessionId, json).block();
-        return ResponseEntity.status(code == null ? 500 : code).body(Map.of(
-                "status", code,
-                "uri", uri
-        ));
+        // Pre-transfer playback if needed
+        Mono<Integer> transfer = deviceId != null
+                ? spotifyApiService.transferPlayback(token, sessionId, deviceId, false)
+                : Mono.empty();
+        return transfer.then(spotifyApiService.resumeOrStartPlayback(token, sessionId, json))
+                .map(code -> ResponseEntity.status(code).body(Map.of(
+                        "status", code,
+                        "uri", uri
+                )));
     }
 
     @PostMapping("/transfer")
-    public ResponseEntity<?> transfer(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+    public Mono<ResponseEntity<?>> transfer(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
                                       @RequestBody Map<String, Object> body) {
         TokenInfo token = requireToken(sessionId);
-        if (token == null) return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
         Object did = body.get("deviceId");
-        if (did == null) return ResponseEntity.badRequest().body(Map.of("error", "missing_device_id"));
+        if (did == null) return Mono.just(ResponseEntity.badRequest().body(Map.of("error", "missing_device_id")));
         boolean play = Boolean.TRUE.equals(body.get("play"));
-        Integer code = spotifyApiService.transferPlayback(token, sessionId, did.toString(), play).block();
-        return ResponseEntity.status(code == null ? 500 : code).body(Map.of("status", code));
+        return statusResponse(spotifyApiService.transferPlayback(token, sessionId, did.toString(), play));
     }
 
     @GetMapping("/access-token")
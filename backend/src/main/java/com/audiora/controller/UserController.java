@@ -1,16 +1,27 @@
 package com.audiora.controller;
 
+import com.audiora.dto.LikedTracksPage;
 import com.audiora.model.LikedTrack;
 import com.audiora.model.Provider;
+import com.audiora.model.TrackRef;
 import com.audiora.model.User;
 import com.audiora.service.LikedTracksService;
+import com.audiora.service.LikedTracksTransferService;
+import com.audiora.service.LikedTracksTransferService.Format;
 import com.audiora.service.UserService;
 import com.audiora.service.GoogleAuthService;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 
@@ -21,11 +32,14 @@ public class UserController {
     private final UserService userService;
     private final LikedTracksService likedTracksService;
     private final GoogleAuthService googleAuthService;
+    private final LikedTracksTransferService likedTracksTransferService;
 
-    public UserController(UserService userService, LikedTracksService likedTracksService, GoogleAuthService googleAuthService) {
+    public UserController(UserService userService, LikedTracksService likedTracksService, GoogleAuthService googleAuthService,
+                          LikedTracksTransferService likedTracksTransferService) {
         this.userService = userService;
         this.likedTracksService = likedTracksService;
         this.googleAuthService = googleAuthService;
+        this.likedTracksTransferService = likedTracksTransferService;
     }
 
     /**
@@ -41,15 +55,14 @@ public class UserController {
      * Validate user token and get user info
      */
     @PostMapping("/validate")
-    public ResponseEntity<User> validateUserToken(@RequestBody Map<String, String> request) {
+    public Mono<ResponseEntity<User>> validateUserToken(@RequestBody Map<String, String> request) {
         String accessToken = request.get("accessToken");
         if (accessToken == null) {
-            return ResponseEntity.badRequest().build();
+            return Mono.just(ResponseEntity.badRequest().build());
         }
 
-        try {
-            GoogleAuthService.GoogleUserInfo userInfo = googleAuthService.getUserInfo(accessToken).block();
-            if (userInfo != null) {
+        return googleAuthService.getUserInfo(accessToken)
+            .map(userInfo -> {
                 User user = userService.createOrUpdateUser(
                     userInfo.getId(),
                     userInfo.getEmail(),
@@ -60,37 +73,56 @@ public class UserController {
                     userInfo.isVerified_email()
                 );
                 return ResponseEntity.ok(user);
-            }
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-        }
+            })
+            .defaultIfEmpty(ResponseEntity.status(HttpStatus.UNAUTHORIZED).build())
+            .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.UNAUTHORIZED).build()));
     }
 
     /**
      * Get user's liked tracks
      */
     @GetMapping("/{userId}/liked-tracks")
-    public ResponseEntity<List<LikedTrack>> getUserLikedTracks(@PathVariable String userId) {
+    public ResponseEntity<?> getUserLikedTracks(
+            @PathVariable String userId,
+            @RequestParam(name = "provider", required = false) Provider provider,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "limit", required = false) Integer limit) {
         if (!userService.userExists(userId)) {
             return ResponseEntity.notFound().build();
         }
-        List<LikedTrack> likedTracks = likedTracksService.getUserLikedTracks(userId);
-        return ResponseEntity.ok(likedTracks);
+        return likedTracks(userId, provider, cursor, limit);
     }
 
     /**
      * Get user's liked tracks by provider
      */
     @GetMapping("/{userId}/liked-tracks/{provider}")
-    public ResponseEntity<List<LikedTrack>> getUserLikedTracksByProvider(
+    public ResponseEntity<?> getUserLikedTracksByProvider(
             @PathVariable String userId,
-            @PathVariable Provider provider) {
+            @PathVariable Provider provider,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "limit", required = false) Integer limit) {
         if (!userService.userExists(userId)) {
             return ResponseEntity.notFound().build();
         }
-        List<LikedTrack> likedTracks = likedTracksService.getUserLikedTracksByProvider(userId, provider);
-        return ResponseEntity.ok(likedTracks);
+        return likedTracks(userId, provider, cursor, limit);
+    }
+
+    /**
+     * The whole list as a bare array, as before, unless {@code cursor} or {@code limit} is given:
+     * then one {@link LikedTracksPage} at a time.
+     */
+    private ResponseEntity<?> likedTracks(String userId, Provider provider, String cursor, Integer limit) {
+        if (cursor == null && limit == null) {
+            return ResponseEntity.ok(provider == null
+                    ? likedTracksService.getUserLikedTracks(userId)
+                    : likedTracksService.getUserLikedTracksByProvider(userId, provider));
+        }
+        try {
+            return ResponseEntity.ok(likedTracksService.getUserLikedTracksPage(userId, provider, cursor, limit == null ? 0 : limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_cursor"));
+        }
     }
 
     /**
@@ -147,6 +179,28 @@ public class UserController {
         return ResponseEntity.ok(Map.of("isLiked", isLiked));
     }
 
+    /**
+     * Check many tracks at once (e.g. a whole playlist): {@code liked} holds one flag per requested track, in order
+     */
+    @PostMapping("/{userId}/liked-tracks/status")
+    public ResponseEntity<?> checkTracksLiked(
+            @PathVariable String userId,
+            @RequestBody LikeStatusRequest request) {
+        if (!userService.userExists(userId)) {
+            return ResponseEntity.notFound().build();
+        }
+        List<TrackRef> tracks = request.getTracks();
+        if (tracks == null || tracks.stream().anyMatch(t -> t == null || t.provider() == null || t.trackId() == null)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_tracks"));
+        }
+
+        try {
+            return ResponseEntity.ok(Map.of("liked", likedTracksService.areTracksLiked(userId, tracks)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "too_many_tracks"));
+        }
+    }
+
     /**
      * Import liked tracks (for syncing from client-side storage)
      */
@@ -163,13 +217,75 @@ public class UserController {
     }
 
     /**
-     * Export liked tracks
+     * Streaming import of NDJSON (one liked track object per line) or CSV (header row naming at least provider
+     * and trackId) for large migrations. Returns the final counts; progress shows them while it runs.
+     */
+    @PostMapping(value = "/{userId}/liked-tracks/import", consumes = {"application/x-ndjson", "text/csv"})
+    public ResponseEntity<?> importLikedTracksStream(
+            @PathVariable String userId,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            InputStream body) {
+        if (!userService.userExists(userId)) {
+            return ResponseEntity.notFound().build();
+        }
+        Format format = MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.parseMediaType("text/csv"))
+                ? Format.CSV : Format.NDJSON;
+
+        try {
+            return ResponseEntity.ok(likedTracksTransferService.importLikedTracks(userId, format, body));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "import_in_progress"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_header"));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "unreadable_body"));
+        }
+    }
+
+    /**
+     * Counts of the user's running or most recent streaming import
+     */
+    @GetMapping("/{userId}/liked-tracks/import/progress")
+    public ResponseEntity<?> getImportProgress(@PathVariable String userId) {
+        if (!userService.userExists(userId)) {
+            return ResponseEntity.notFound().build();
+        }
+        LikedTracksTransferService.ImportProgress progress = likedTracksTransferService.getImportProgress(userId);
+        return progress == null
+                ? ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "no_import"))
+                : ResponseEntity.ok(progress);
+    }
+
+    /**
+     * Export liked tracks. {@code format=ndjson} or {@code format=csv} streams them straight from the store,
+     * most recent first, for any number of likes.
      */
     @GetMapping("/{userId}/liked-tracks/export")
-    public ResponseEntity<List<LikedTrack>> exportLikedTracks(@PathVariable String userId) {
+    public ResponseEntity<?> exportLikedTracks(
+            @PathVariable String userId,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            @RequestParam(name = "format", required = false) String format,
+            HttpServletResponse response) throws IOException {
         if (!userService.userExists(userId)) {
             return ResponseEntity.notFound().build();
         }
+        if (format != null) {
+            Format streamed;
+            try {
+                streamed = Format.valueOf(format.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "invalid_format"));
+            }
+            String extension = streamed == Format.CSV ? "csv" : "ndjson";
+            response.setContentType(streamed == Format.CSV ? "text/csv;charset=UTF-8" : "application/x-ndjson");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"liked-tracks." + extension + "\"");
+            likedTracksTransferService.exportLikedTracks(userId, streamed, response.getOutputStream());
+            return null;
+        }
+        if (cursor != null || limit != null) {
+            return likedTracks(userId, null, cursor, limit);
+        }
 
         List<LikedTrack> tracks = likedTracksService.exportUserLikedTracks(userId);
         return ResponseEntity.ok(tracks);
@@ -220,4 +336,11 @@ public class UserController {
         public String getExternalUrl() { return externalUrl; }
         public void setExternalUrl(String externalUrl) { this.externalUrl = externalUrl; }
     }
+
+    public static class LikeStatusRequest {
+        private List<TrackRef> tracks;
+
+        public List<TrackRef> getTracks() { return tracks; }
+        public void setTracks(List<TrackRef> tracks) { this.tracks = tracks; }
+    }
 }
@@ -1,11 +1,13 @@
 package com.audiora.controller;
 
+import com.audiora.dto.VideoItem;
 import com.audiora.model.Provider;
 import com.audiora.model.TokenInfo;
 import com.audiora.service.YouTubeApiService;
+import com.audiora.service.ProviderJsonDecoder;
+import com.audiora.service.UpstreamThrottledException;
 import com.audiora.store.InMemoryTokenStore;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -13,9 +15,11 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.client.WebClientException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -24,146 +28,156 @@ import java.util.Map;
 public class YouTubeApiController {
     private final InMemoryTokenStore tokenStore;
     private final YouTubeApiService youTubeApiService;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ProviderJsonDecoder decoder;
 
-    public YouTubeApiController(InMemoryTokenStore tokenStore, YouTubeApiService youTubeApiService) {
+    public YouTubeApiController(InMemoryTokenStore tokenStore, YouTubeApiService youTubeApiService,
+                               ProviderJsonDecoder decoder) {
         this.tokenStore = tokenStore;
         this.youTubeApiService = youTubeApiService;
+        this.decoder = decoder;
     }
 
     @GetMapping("/playlists")
-    public ResponseEntity<?> playlists(@RequestHeader(name = "X-Session-Id", required = false) String sessionId) {
+    public Mono<ResponseEntity<?>> playlists(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                             @RequestParam(name = "refresh", required = false, defaultValue = "false") boolean refresh) {
         if (sessionId == null || sessionId.isBlank()) {
-            return ResponseEntity.status(401).body(Map.of("error", "missing_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "missing_session")));
         }
         TokenInfo token = tokenStore.get(sessionId, Provider.YOUTUBE);
         if (token == null) {
-            return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
         }
         if (token.getExpiresAt() != null && token.getExpiresAt().isBefore(Instant.now())) {
-            return ResponseEntity.status(401).body(Map.of("error", "token_expired"));
-        }
-        String raw = youTubeApiService.getPlaylistsRaw(token).block();
-        if (raw == null) {
-            return ResponseEntity.internalServerError().body(Map.of("error", "youtube_unreachable"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "token_expired")));
         }
+        return youTubeApiService.getPlaylistsRaw(token, sessionId, refresh)
+                .map(this::toPlaylists)
+                .defaultIfEmpty(ResponseEntity.internalServerError().body(Map.of("error", "youtube_unreachable")));
+    }
+
+    private ResponseEntity<?> toPlaylists(String raw) {
         try {
-            JsonNode root = objectMapper.readTree(raw);
-            List<Map<String, Object>> items = new ArrayList<>();
-            if (root.has("items")) {
-                for (JsonNode n : root.get("items")) {
-                    String id = n.path("id").asText();
-                    JsonNode snippet = n.path("snippet");
-                    String title = snippet.path("title").asText();
-                    int count = n.path("contentDetails").path("itemCount").asInt();
-                    String thumb = null;
-                    JsonNode thumbs = snippet.path("thumbnails");
-                    if (thumbs.has("default")) {
-                        thumb = thumbs.path("default").path("url").asText(null);
-                    } else if (thumbs.has("medium")) {
-                        thumb = thumbs.path("medium").path("url").asText(null);
-                    }
-                    items.add(Map.of(
-                            "id", id,
-                            "name", title,
-                            "tracks", count,
-                            "image", thumb
-                    ));
-                }
-            }
-            return ResponseEntity.ok(Map.of("items", items));
+            return ResponseEntity.ok(Map.of("items", decoder.youtubePlaylists(raw)));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(Map.of("error", "parse_failed", "details", e.getMessage()));
         }
     }
 
     @GetMapping("/playlists/{playlistId}/items")
-    public ResponseEntity<?> playlistItems(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
-                                           @PathVariable String playlistId) {
+    public Mono<ResponseEntity<?>> playlistItems(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                           @PathVariable String playlistId,
+                                           @RequestParam(name = "offset", required = false, defaultValue = "0") int offset,
+                                           @RequestParam(name = "limit", required = false, defaultValue = "0") int limit,
+                                           @RequestParam(name = "refresh", required = false, defaultValue = "false") boolean refresh,
+                                           @RequestParam(name = "enrich", required = false, defaultValue = "false") boolean enrich) {
         if (sessionId == null || sessionId.isBlank()) {
-            return ResponseEntity.status(401).body(Map.of("error", "missing_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "missing_session")));
         }
         TokenInfo token = tokenStore.get(sessionId, Provider.YOUTUBE);
         if (token == null) {
-            return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
         }
         if (token.getExpiresAt() != null && token.getExpiresAt().isBefore(Instant.now())) {
-            return ResponseEntity.status(401).body(Map.of("error", "token_expired"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "token_expired")));
         }
-        String raw = youTubeApiService.getPlaylistItemsRaw(token, playlistId).block();
-        if (raw == null) {
-            return ResponseEntity.internalServerError().body(Map.of("error", "youtube_unreachable"));
+        return youTubeApiService.getPlaylistItemsRaw(token, sessionId, playlistId, offset, limit, refresh, enrich)
+                .map(this::toPlaylistItems)
+                .defaultIfEmpty(ResponseEntity.internalServerError().body(Map.of("error", "youtube_unreachable")));
+    }
+
+    /** The service already returns the final JSON document. */
+    private ResponseEntity<?> toPlaylistItems(String raw) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(raw);
+    }
+
+    /**
+     * Same items as {@code /playlists/{playlistId}/items}, one per NDJSON line, written as
+     * soon as their page has been read. A failure after the first item ends the stream with an
+     * {@code {"error": ...}} item, since the status has already been sent.
+     */
+    @GetMapping(value = "/playlists/{playlistId}/items/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Flux<Object>> streamPlaylistItems(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                                            @PathVariable String playlistId,
+                                                            @RequestParam(name = "offset", required = false, defaultValue = "0") int offset,
+                                                            @RequestParam(name = "limit", required = false, defaultValue = "0") int limit) {
+        return playlistItemsStream(sessionId, playlistId, offset, limit);
+    }
+
+    /** Server-Sent Events variant, for clients that ask for {@code text/event-stream}. */
+    @GetMapping(value = "/playlists/{playlistId}/items/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<Object>> streamPlaylistItemsEvents(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                                                  @PathVariable String playlistId,
+                                                                  @RequestParam(name = "offset", required = false, defaultValue = "0") int offset,
+                                                                  @RequestParam(name = "limit", required = false, defaultValue = "0") int limit) {
+        return playlistItemsStream(sessionId, playlistId, offset, limit);
+    }
+
+    private ResponseEntity<Flux<Object>> playlistItemsStream(String sessionId, String playlistId, int offset, int limit) {
+        if (sessionId == null || sessionId.isBlank()) {
+            return ResponseEntity.status(401).body(Flux.<Object>just(Map.of("error", "missing_session")));
         }
-        try {
-            JsonNode root = objectMapper.readTree(raw);
-            List<Map<String, Object>> items = new ArrayList<>();
-            if (root.has("items")) {
-                for (JsonNode n : root.get("items")) {
-                    JsonNode snippet = n.path("snippet");
-                    String videoId = snippet.path("resourceId").path("videoId").asText();
-                    int position = snippet.path("position").asInt();
-                    String title = snippet.path("title").asText();
-                    String channelTitle = snippet.path("channelTitle").asText();
-                    String publishedAt = snippet.path("publishedAt").asText();
-                    String thumb = null;
-                    JsonNode thumbs = snippet.path("thumbnails");
-                    if (thumbs.has("default")) {
-                        thumb = thumbs.path("default").path("url").asText(null);
-                    } else if (thumbs.has("medium")) {
-                        thumb = thumbs.path("medium").path("url").asText(null);
-                    }
-                    items.add(Map.of(
-                            "videoId", videoId,
-                            "position", position,
-                            "title", title,
-                            "channelTitle", channelTitle,
-                            "publishedAt", publishedAt,
-                            "thumbnail", thumb
-                    ));
-                }
-            }
-            return ResponseEntity.ok(Map.of("items", items));
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body(Map.of("error", "parse_failed", "details", e.getMessage()));
+        TokenInfo token = tokenStore.get(sessionId, Provider.YOUTUBE);
+        if (token == null) {
+            return ResponseEntity.status(401).body(Flux.<Object>just(Map.of("error", "invalid_session")));
+        }
+        if (token.getExpiresAt() != null && token.getExpiresAt().isBefore(Instant.now())) {
+            return ResponseEntity.status(401).body(Flux.<Object>just(Map.of("error", "token_expired")));
+        }
+        Flux<Object> items = youTubeApiService.streamPlaylistItems(token, sessionId, playlistId, offset, limit)
+                .cast(Object.class)
+                .onErrorResume(e -> Flux.<Object>just(Map.of("error", e instanceof UpstreamThrottledException t
+                        ? t.getReason() : "youtube_unreachable")));
+        return ResponseEntity.ok(items);
+    }
+
+    /** Catalog details of one video; concurrent lookups are batched with other users' into one upstream call. */
+    @GetMapping("/videos/{videoId}")
+    public Mono<ResponseEntity<?>> videoDetails(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+                                            @PathVariable String videoId) {
+        if (sessionId == null || sessionId.isBlank()) {
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "missing_session")));
         }
+        TokenInfo token = tokenStore.get(sessionId, Provider.YOUTUBE);
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
+        return youTubeApiService.getVideoDetails(token, sessionId, videoId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.status(404).body(Map.of("error", "not_found")))
+                .onErrorResume(WebClientException.class,
+                        e -> Mono.just(ResponseEntity.internalServerError().body(Map.of("error", "youtube_unreachable"))));
     }
 
     @GetMapping("/search")
-    public ResponseEntity<?> search(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
+    public Mono<ResponseEntity<?>> search(@RequestHeader(name = "X-Session-Id", required = false) String sessionId,
                                     @RequestParam(name = "query") String query,
-                                    @RequestParam(name = "limit", required = false, defaultValue = "10") int limit) {
+                                    @RequestParam(name = "limit", required = false, defaultValue = "10") int limit,
+                                    @RequestParam(name = "enrich", required = false, defaultValue = "false") boolean enrich) {
         if (sessionId == null || sessionId.isBlank()) {
-            return ResponseEntity.status(401).body(Map.of("error", "missing_session"));
+            return Mono.just(ResponseEntity.status(401).body(Map.of("error", "missing_session")));
         }
         TokenInfo token = tokenStore.get(sessionId, Provider.YOUTUBE);
-        if (token == null) return ResponseEntity.status(401).body(Map.of("error", "invalid_session"));
-        String raw = youTubeApiService.searchVideosRaw(token, query, limit).block();
-        if (raw == null) return ResponseEntity.internalServerError().body(Map.of("error", "youtube_unreachable"));
+        if (token == null) return Mono.just(ResponseEntity.status(401).body(Map.of("error", "invalid_session")));
+        return youTubeApiService.searchVideosRaw(token, sessionId, query, limit)
+                .flatMap(raw -> enrich ? toEnrichedSearchResults(token, sessionId, raw) : Mono.just(toSearchResults(raw)))
+                .defaultIfEmpty(ResponseEntity.internalServerError().body(Map.of("error", "youtube_unreachable")));
+    }
+
+    private ResponseEntity<?> toSearchResults(String raw) {
         try {
-            JsonNode root = objectMapper.readTree(raw);
-            List<Map<String,Object>> items = new ArrayList<>();
-            if (root.has("items")) {
-                for (JsonNode n : root.get("items")) {
-                    JsonNode snippet = n.path("snippet");
-                    String videoId = n.path("id").path("videoId").asText();
-                    String title = snippet.path("title").asText();
-                    String channel = snippet.path("channelTitle").asText();
-                    String thumb = null;
-                    JsonNode thumbs = snippet.path("thumbnails");
-                    if (thumbs.has("default")) thumb = thumbs.path("default").path("url").asText(null);
-                    else if (thumbs.has("medium")) thumb = thumbs.path("medium").path("url").asText(null);
-                    items.add(Map.of(
-                "videoId", videoId,
-                "title", title,
-                "channel", channel,
-                "thumbnail", thumb,
-                "provider", "youtube"
-                    ));
-                }
-            }
-            return ResponseEntity.ok(Map.of("items", items));
+            return ResponseEntity.ok(Map.of("items", decoder.youtubeSearchVideos(raw)));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(Map.of("error", "parse_failed", "details", e.getMessage()));
         }
     }
+
+    /** Search results with duration, view count and embeddability; items stay bare when the lookup fails. */
+    private Mono<ResponseEntity<?>> toEnrichedSearchResults(TokenInfo token, String sessionId, String raw) {
+        List<VideoItem> items;
+        try {
+            items = decoder.youtubeSearchVideos(raw);
+        } catch (Exception e) {
+            return Mono.just(ResponseEntity.internalServerError().body(Map.of("error", "parse_failed", "details", e.getMessage())));
+        }
+        return youTubeApiService.withDetails(token, sessionId, items, VideoItem::videoId, VideoItem::withDetails)
+                .map(enriched -> ResponseEntity.ok(Map.of("items", enriched)));
+    }
 }
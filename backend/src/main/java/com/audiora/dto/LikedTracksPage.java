@@ -0,0 +1,8 @@
+package com.audiora.dto;
+
+import com.audiora.model.LikedTrack;
+
+import java.util.List;
+
+/** A page of a user's likes, most recent first; pass {@code nextCursor} back for the next one (null on the last page). */
+public record LikedTracksPage(List<LikedTrack> items, String nextCursor) {}
@@ -0,0 +1,6 @@
+package com.audiora.dto;
+
+import java.util.List;
+
+/** A run of playlist entries starting at {@code offset}, out of {@code total}. */
+public record PlaylistPage<T>(List<T> items, int total, int offset) {}
@@ -0,0 +1,4 @@
+package com.audiora.dto;
+
+/** A playlist in a user's playlist listing, for either provider. */
+public record PlaylistSummary(String id, String name, int tracks, String image) {}
@@ -0,0 +1,4 @@
+package com.audiora.dto;
+
+/** One entry of a Spotify playlist. */
+public record PlaylistTrackItem(TrackItem track) {}
@@ -0,0 +1,13 @@
+package com.audiora.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/** One entry of a YouTube playlist; {@code details} only when enrichment was asked for. */
+public record PlaylistVideoItem(String videoId, int position, String title, String channelTitle,
+                                String publishedAt, String thumbnail,
+                                @JsonInclude(JsonInclude.Include.NON_NULL) VideoDetails details) {
+
+    public PlaylistVideoItem withDetails(VideoDetails details) {
+        return new PlaylistVideoItem(videoId, position, title, channelTitle, publishedAt, thumbnail, details);
+    }
+}
@@ -0,0 +1,4 @@
+package com.audiora.dto;
+
+/** Catalog details of a Spotify track, from {@code /v1/tracks}. */
+public record TrackDetails(String id, long durationMs, int popularity, boolean explicit, String isrc) {}
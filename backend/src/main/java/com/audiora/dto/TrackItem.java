@@ -0,0 +1,7 @@
+package com.audiora.dto;
+
+import java.util.List;
+
+/** A Spotify track as returned by our search and playlist endpoints. */
+public record TrackItem(String id, String name, List<String> artists, String album, long durationMs,
+                        String uri, String image, String provider) {}
@@ -0,0 +1,7 @@
+package com.audiora.dto;
+
+/**
+ * Details of a YouTube video from {@code videos.list}: {@code duration} as YouTube gives it (ISO 8601,
+ * e.g. {@code PT3M25S}) and in seconds, 0 for live streams.
+ */
+public record VideoDetails(String videoId, String duration, long durationSeconds, long viewCount, boolean embeddable) {}
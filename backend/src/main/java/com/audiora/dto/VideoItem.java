@@ -0,0 +1,12 @@
+package com.audiora.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/** A YouTube video as returned by our search endpoints; {@code details} only when enrichment was asked for. */
+public record VideoItem(String videoId, String title, String channel, String thumbnail, String provider,
+                        @JsonInclude(JsonInclude.Include.NON_NULL) VideoDetails details) {
+
+    public VideoItem withDetails(VideoDetails details) {
+        return new VideoItem(videoId, title, channel, thumbnail, provider, details);
+    }
+}
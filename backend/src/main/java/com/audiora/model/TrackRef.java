@@ -0,0 +1,4 @@
+package com.audiora.model;
+
+/** A track as a provider knows it, e.g. one entry of a batch like-status request. */
+public record TrackRef(Provider provider, String trackId) {}
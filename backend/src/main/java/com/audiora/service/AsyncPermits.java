@@ -0,0 +1,112 @@
+package com.audiora.service;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A non-blocking counting semaphore: {@link #run} subscribes to a call once a permit is free and
+ * releases it when the call terminates or is cancelled. Waiters are served in arrival order. The limit
+ * can be changed at any time; lowering it takes effect as calls in flight complete. With a queue cap, a
+ * call arriving when that many are already waiting fails at once with the supplied error.
+ */
+final class AsyncPermits {
+    private int max;
+    private int inUse;
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+    private final int maxWaiting;
+    private final Supplier<? extends RuntimeException> queueFull;
+
+    AsyncPermits(int max) {
+        this(max, Integer.MAX_VALUE, null);
+    }
+
+    AsyncPermits(int max, int maxWaiting, Supplier<? extends RuntimeException> queueFull) {
+        this.max = Math.max(1, max);
+        this.maxWaiting = Math.max(0, maxWaiting);
+        this.queueFull = queueFull;
+    }
+
+    <T> Mono<T> run(Mono<T> call) {
+        return Mono.usingWhen(acquire(), permit -> call, permit -> Mono.fromRunnable(permit::release));
+    }
+
+    synchronized int waiting() {
+        return waiting.size();
+    }
+
+    synchronized int limit() {
+        return max;
+    }
+
+    synchronized int inUse() {
+        return inUse;
+    }
+
+    void setLimit(int limit) {
+        Deque<Waiter> granted = new ArrayDeque<>();
+        synchronized (this) {
+            max = Math.max(1, limit);
+            while (inUse < max && !waiting.isEmpty()) {
+                inUse++;
+                granted.add(waiting.pollFirst());
+            }
+        }
+        granted.forEach(w -> w.sink().success(w.permit()));
+    }
+
+    private Mono<Permit> acquire() {
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(sink, new Permit(this));
+            boolean granted;
+            boolean rejected = false;
+            synchronized (this) {
+                granted = inUse < max;
+                if (granted) inUse++;
+                else if (waiting.size() >= maxWaiting) rejected = true;
+                else waiting.addLast(waiter);
+            }
+            if (rejected) {
+                sink.error(queueFull.get());
+                return;
+            }
+            sink.onCancel(() -> {
+                synchronized (this) {
+                    if (waiting.remove(waiter)) return;
+                }
+                // Granted, possibly after the subscriber went away: hand the permit on
+                waiter.permit().release();
+            });
+            if (granted) sink.success(waiter.permit());
+        });
+    }
+
+    private void release() {
+        Waiter next = null;
+        synchronized (this) {
+            if (inUse > max || waiting.isEmpty()) inUse--;
+            else next = waiting.pollFirst();
+        }
+        if (next != null) next.sink().success(next.permit());
+    }
+
+    private record Waiter(MonoSink<Permit> sink, Permit permit) {}
+
+    /** One acquired permit; releasing it more than once has no effect. */
+    static final class Permit {
+        private final AsyncPermits owner;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(AsyncPermits owner) {
+            this.owner = owner;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) owner.release();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.audiora.service;
+
+import com.audiora.dto.TrackItem;
+import com.audiora.dto.VideoItem;
+import com.audiora.model.Provider;
+import com.audiora.model.TokenInfo;
+import com.audiora.store.InMemoryTokenStore;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Searches Spotify and YouTube concurrently and merges both result lists into one ranking.
+ * <p>
+ * Each provider runs under its own deadline; a provider that is slow, failing or not linked to the
+ * session contributes no items and its status says why, so the response takes about as long as the
+ * slower provider within its deadline. Lists are merged with reciprocal rank fusion; when a Spotify track
+ * and a YouTube video are the same song (same artist and title once decorations like "(Official Video)"
+ * are removed), the lower-ranked one is folded into the other's entry under {@code alsoOn}.
+ */
+@Service
+public class FederatedSearchService {
+    private static final int RRF_K = 60;
+    private static final Pattern BRACKETED = Pattern.compile("\\([^)]*\\)|\\[[^]]*]");
+    private static final Pattern FEATURING = Pattern.compile("\\s(feat\\.?|ft\\.?|featuring)\\s[^-]*");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern CHANNEL_SUFFIX = Pattern.compile("(\\s-\\stopic|vevo|\\sofficial)$");
+    private static final List<String> NOISE = List.of("official", "video", "audio", "lyrics", "lyric", "music", "hd", "hq", "4k");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Result of one provider's leg: its status ({@code ok}, {@code timeout}, ...) and mapped items. */
+    record Leg(Provider provider, String status, List<?> items) {}
+
+    /** Merged items plus a status per provider. */
+    public record Result(List<Map<String, Object>> items, Map<String, String> providers) {
+        public boolean noProviderLinked() {
+            return providers.values().stream().allMatch("not_linked"::equals);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RawMapper {
+        List<?> map(String raw) throws Exception;
+    }
+
+    private final InMemoryTokenStore tokenStore;
+    private final SpotifyApiService spotifyApiService;
+    private final YouTubeApiService youTubeApiService;
+    private final ProviderJsonDecoder decoder;
+    private final MeterRegistry meterRegistry;
+    // Outcome counters by provider and status, registered on first use
+    private final Map<Provider, Map<String, Counter>> legCounters = new EnumMap<>(Provider.class);
+    private final Duration spotifyTimeout;
+    private final Duration youtubeTimeout;
+
+    public FederatedSearchService(InMemoryTokenStore tokenStore, SpotifyApiService spotifyApiService,
+                                  YouTubeApiService youTubeApiService, ProviderJsonDecoder decoder, MeterRegistry meterRegistry,
+                                  @Value("${app.search.spotifyTimeout:2s}") Duration spotifyTimeout,
+                                  @Value("${app.search.youtubeTimeout:2s}") Duration youtubeTimeout) {
+        this.tokenStore = tokenStore;
+        this.spotifyApiService = spotifyApiService;
+        this.youTubeApiService = youTubeApiService;
+        this.decoder = decoder;
+        this.meterRegistry = meterRegistry;
+        this.spotifyTimeout = spotifyTimeout;
+        this.youtubeTimeout = youtubeTimeout;
+        for (Provider provider : Provider.values()) legCounters.put(provider, new ConcurrentHashMap<>());
+    }
+
+    public Mono<Result> search(String sessionId, String query, int limit) {
+        Mono<Leg> spotify = leg(Provider.SPOTIFY, sessionId, spotifyTimeout,
+                token -> spotifyApiService.searchTracksRaw(token, sessionId, query, Math.min(limit, 50)),
+                decoder::spotifySearchTracks);
+        Mono<Leg> youtube = leg(Provider.YOUTUBE, sessionId, youtubeTimeout,
+                token -> youTubeApiService.searchVideosRaw(token, sessionId, query, limit),
+                decoder::youtubeSearchVideos);
+        return Mono.zip(spotify, youtube).map(legs -> {
+            Map<String, String> providers = new LinkedHashMap<>();
+            providers.put("spotify", legs.getT1().status());
+            providers.put("youtube", legs.getT2().status());
+            return new Result(merge(List.of(legs.getT1(), legs.getT2()), limit), providers);
+        });
+    }
+
+    private Mono<Leg> leg(Provider provider, String sessionId, Duration deadline,
+                          Function<TokenInfo, Mono<String>> call, RawMapper rawMapper) {
+        TokenInfo token = tokenStore.get(sessionId, provider);
+        if (token == null) return Mono.just(count(new Leg(provider, "not_linked", List.of())));
+        // A timed-out search keeps loading into the search cache, so a retry is likely to be instant
+        return call.apply(token)
+                .map(raw -> {
+                    try {
+                        return new Leg(provider, "ok", rawMapper.map(raw));
+                    } catch (Exception e) {
+                        return new Leg(provider, "parse_failed", List.of());
+                    }
+                })
+                .timeout(deadline, Mono.just(new Leg(provider, "timeout", List.of())))
+                .defaultIfEmpty(new Leg(provider, "unreachable", List.of()))
+                .onErrorResume(e -> Mono.just(new Leg(provider,
+                        e instanceof UpstreamThrottledException t ? t.getReason()
+                                : e instanceof UpstreamUnavailableException u ? u.getReason() : "error", List.of())))
+                .map(this::count);
+    }
+
+    private Leg count(Leg leg) {
+        legCounters.get(leg.provider()).computeIfAbsent(leg.status(), status -> Counter.builder("audiora.search.federated")
+                .description("Provider legs of federated searches, by outcome")
+                .tag("provider", leg.provider().name().toLowerCase())
+                .tag("outcome", status)
+                .register(meterRegistry))
+                .increment();
+        return leg;
+    }
+
+    private static final class Ranked {
+        final Object item;
+        final Provider provider;
+        final List<Object> alsoOn = new ArrayList<>();
+        double score;
+
+        Ranked(Object item, Provider provider, double score) {
+            this.item = item;
+            this.provider = provider;
+            this.score = score;
+        }
+    }
+
+    /** Reciprocal rank fusion over the provider lists, folding cross-provider matches into one entry. */
+    static List<Map<String, Object>> merge(List<Leg> legs, int limit) {
+        Map<String, Ranked> byMatchKey = new LinkedHashMap<>();
+        List<Ranked> ranked = new ArrayList<>();
+        int longest = legs.stream().mapToInt(l -> l.items().size()).max().orElse(0);
+        // Interleave by rank so that equal scores keep a fair provider order under the stable sort
+        for (int rank = 0; rank < longest; rank++) {
+            for (Leg leg : legs) {
+                if (rank >= leg.items().size()) continue;
+                Object item = leg.items().get(rank);
+                double score = 1.0 / (RRF_K + rank + 1);
+                String key = matchKey(item);
+                Ranked existing = key.isEmpty() ? null : byMatchKey.get(key);
+                if (existing != null && existing.provider != leg.provider()) {
+                    existing.score += score;
+                    existing.alsoOn.add(item);
+                    continue;
+                }
+                Ranked entry = new Ranked(item, leg.provider(), score);
+                ranked.add(entry);
+                if (!key.isEmpty()) byMatchKey.putIfAbsent(key, entry);
+            }
+        }
+        ranked.sort(Comparator.comparingDouble((Ranked r) -> r.score).reversed());
+        List<Map<String, Object>> items = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (Ranked r : ranked.subList(0, Math.min(limit, ranked.size()))) {
+            Map<String, Object> out = MAPPER.convertValue(r.item, new TypeReference<LinkedHashMap<String, Object>>() {});
+            out.put("score", r.score);
+            if (!r.alsoOn.isEmpty()) out.put("alsoOn", r.alsoOn);
+            items.add(out);
+        }
+        return items;
+    }
+
+    /** Order-insensitive "artist + title" fingerprint used to spot the same song on both providers. */
+    static String matchKey(Object item) {
+        String text;
+        if (item instanceof TrackItem track) {
+            String artist = track.artists().isEmpty() ? "" : track.artists().get(0);
+            text = artist + " " + track.name();
+        } else if (item instanceof VideoItem video) {
+            // "Artist - Title" uploads carry the artist; otherwise the channel usually is the artist
+            if (video.title().contains(" - ")) {
+                text = video.title();
+            } else {
+                String channel = SearchResultCache.normalize(video.channel());
+                text = CHANNEL_SUFFIX.matcher(channel).replaceAll("") + " " + video.title();
+            }
+        } else {
+            return "";
+        }
+        String folded = SearchResultCache.normalize(text);
+        folded = BRACKETED.matcher(folded).replaceAll(" ");
+        folded = FEATURING.matcher(folded).replaceAll(" ");
+        TreeSet<String> tokens = new TreeSet<>(Arrays.asList(NON_WORD.split(folded)));
+        tokens.removeAll(NOISE);
+        tokens.remove("");
+        return String.join(" ", tokens);
+    }
+}
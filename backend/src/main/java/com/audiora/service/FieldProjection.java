@@ -0,0 +1,56 @@
+package com.audiora.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.util.UriBuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asks providers for only the fields we decode ({@link UpstreamEndpoint}), and meters response sizes
+ * per endpoint as {@code audiora.upstream.response.bytes{endpoint,projected}} so the saving shows when
+ * {@code app.upstream.fieldProjection} is switched off and on. Sizes are counted after decompression.
+ */
+@Component
+public class FieldProjection {
+    private final boolean enabled;
+    private final MeterRegistry meterRegistry;
+
+    public FieldProjection(MeterRegistry meterRegistry,
+                           @Value("${app.upstream.fieldProjection:true}") boolean enabled) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+    }
+
+    /** Adds the endpoint's {@code part} and, when projecting, {@code fields} query parameters. */
+    public UriBuilder apply(UriBuilder uriBuilder, UpstreamEndpoint endpoint) {
+        if (endpoint.part() != null) uriBuilder.queryParam("part", enabled ? endpoint.projectedPart() : endpoint.part());
+        if (enabled && endpoint.fields() != null) uriBuilder.queryParam("fields", endpoint.fields());
+        return uriBuilder;
+    }
+
+    /** Records the body size of every response whose request carries {@link UpstreamEndpoint#ATTRIBUTE}. */
+    public ExchangeFilterFunction meter() {
+        return (request, next) -> next.exchange(request).map(response -> {
+            if (!(request.attribute(UpstreamEndpoint.ATTRIBUTE).orElse(null) instanceof UpstreamEndpoint endpoint)) {
+                return response;
+            }
+            DistributionSummary size = DistributionSummary.builder("audiora.upstream.response.bytes")
+                    .description("Upstream response body sizes, by endpoint and whether fields were projected")
+                    .baseUnit("bytes")
+                    .tag("endpoint", endpoint.metricName())
+                    .tag("projected", String.valueOf(enabled && (endpoint.fields() != null
+                            || endpoint.part() != null && !endpoint.part().equals(endpoint.projectedPart()))))
+                    .register(meterRegistry);
+            AtomicLong bytes = new AtomicLong();
+            return response.mutate()
+                    .body(body -> body
+                            .doOnNext(buffer -> bytes.addAndGet(buffer.readableByteCount()))
+                            .doOnComplete(() -> size.record(bytes.get())))
+                    .build();
+        });
+    }
+}
@@ -8,11 +8,11 @@ import reactor.core.publisher.Mono;
 @Service
 public class GoogleAuthService {
     private final WebClient webClient;
+    private final WebClient apiClient;
 
-    public GoogleAuthService() {
-        this.webClient = WebClient.builder()
-                .baseUrl("https://oauth2.googleapis.com")
-                .build();
+    public GoogleAuthService(UpstreamClients upstreamClients) {
+        this.webClient = upstreamClients.googleOauth();
+        this.apiClient = upstreamClients.googleApis();
     }
 
     /**
@@ -35,8 +35,7 @@ public class GoogleAuthService {
      * Get user info from Google using access token
      */
     public Mono<GoogleUserInfo> getUserInfo(String accessToken) {
-        return WebClient.create("https://www.googleapis.com")
-                .get()
+        return apiClient.get()
                 .uri("/oauth2/v2/userinfo")
                 .header("Authorization", "Bearer " + accessToken)
                 .retrieve()
@@ -62,8 +61,7 @@ public class GoogleAuthService {
      * Verify access token validity
      */
     public Mono<TokenInfo> verifyToken(String accessToken) {
-        return WebClient.create("https://oauth2.googleapis.com")
-                .get()
+        return webClient.get()
                 .uri("/tokeninfo?access_token=" + accessToken)
                 .retrieve()
                 .bodyToMono(TokenInfo.class);
@@ -1,17 +1,41 @@
 package com.audiora.service;
 
+import com.audiora.dto.LikedTracksPage;
 import com.audiora.model.LikedTrack;
 import com.audiora.model.Provider;
+import com.audiora.model.TrackRef;
+import com.audiora.store.LikedTrackStore;
+import com.audiora.store.LikedTrackStore.Position;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
+/** Users' liked tracks, kept in the configured {@link LikedTrackStore}. */
 @Service
 public class LikedTracksService {
-    private final ConcurrentHashMap<String, LikedTrack> likedTracks = new ConcurrentHashMap<>();
+    private final LikedTrackStore store;
+    private final int pageSize;
+    private final int maxPageSize;
+    private final int maxStatusBatch;
+
+    public LikedTracksService(LikedTrackStore store,
+                              @Value("${app.likes.pageSize:100}") int pageSize,
+                              @Value("${app.likes.maxPageSize:1000}") int maxPageSize,
+                              @Value("${app.likes.maxStatusBatch:5000}") int maxStatusBatch) {
+        this.store = store;
+        this.pageSize = pageSize;
+        this.maxPageSize = maxPageSize;
+        this.maxStatusBatch = maxStatusBatch;
+    }
 
     /**
      * Like a track for a user
@@ -25,7 +49,7 @@ public class LikedTracksService {
         likedTrack.setImageUrl(imageUrl);
         likedTrack.setExternalUrl(externalUrl);
 
-        likedTracks.put(id, likedTrack);
+        store.put(likedTrack);
         return likedTrack;
     }
 
@@ -33,55 +57,92 @@ public class LikedTracksService {
      * Unlike a track for a user
      */
     public boolean unlikeTrack(String userId, Provider provider, String trackId) {
-        String id = generateId(userId, provider, trackId);
-        return likedTracks.remove(id) != null;
+        return store.remove(userId, generateId(userId, provider, trackId)) != null;
     }
 
     /**
      * Check if a track is liked by a user
      */
     public boolean isTrackLiked(String userId, Provider provider, String trackId) {
-        String id = generateId(userId, provider, trackId);
-        return likedTracks.containsKey(id);
+        return store.get(userId, generateId(userId, provider, trackId)) != null;
+    }
+
+    /**
+     * Check many tracks at once: one flag per track, in order. Answered from the store's per-user membership
+     * table, so a probe is a hash lookup rather than an id string and a map lookup.
+     *
+     * @throws IllegalArgumentException if there are more than {@code app.likes.maxStatusBatch} tracks
+     */
+    public boolean[] areTracksLiked(String userId, List<TrackRef> tracks) {
+        if (tracks.size() > maxStatusBatch) {
+            throw new IllegalArgumentException("at most " + maxStatusBatch + " tracks per status check");
+        }
+        return store.liked(userId, tracks);
     }
 
     /**
      * Get all liked tracks for a user
      */
     public List<LikedTrack> getUserLikedTracks(String userId) {
-        return likedTracks.values().stream()
-                .filter(track -> userId.equals(track.getUserId()))
-                .sorted((a, b) -> b.getLikedAt().compareTo(a.getLikedAt())) // Most recent first
-                .collect(Collectors.toList());
+        return store.page(userId, null, null, Integer.MAX_VALUE); // Most recent first
     }
 
     /**
      * Get liked tracks for a user from a specific provider
      */
     public List<LikedTrack> getUserLikedTracksByProvider(String userId, Provider provider) {
-        return likedTracks.values().stream()
-                .filter(track -> userId.equals(track.getUserId()) && provider.equals(track.getProvider()))
-                .sorted((a, b) -> b.getLikedAt().compareTo(a.getLikedAt()))
-                .collect(Collectors.toList());
+        return store.page(userId, provider, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * One page of a user's likes, most recent first, optionally of a single provider. {@code cursor} is the
+     * previous page's {@code nextCursor}, or null for the first page; {@code limit} falls back to
+     * {@code app.likes.pageSize} and is capped at {@code app.likes.maxPageSize}. A page is read from the
+     * store's ordering starting after the cursor, so it costs the page size whatever the length of the list.
+     *
+     * @throws IllegalArgumentException if the cursor was not issued by this service
+     */
+    public LikedTracksPage getUserLikedTracksPage(String userId, Provider provider, String cursor, int limit) {
+        Position after = cursor == null || cursor.isEmpty() ? null : decodeCursor(cursor);
+        int size = limit > 0 ? Math.min(limit, maxPageSize) : pageSize;
+        List<LikedTrack> items = store.page(userId, provider, after, size + 1);
+        if (items.size() <= size) return new LikedTracksPage(items, null);
+        items = items.subList(0, size);
+        return new LikedTracksPage(items, encodeCursor(Position.of(items.get(size - 1))));
     }
 
     /**
      * Get a specific liked track
      */
     public Optional<LikedTrack> getLikedTrack(String userId, Provider provider, String trackId) {
-        String id = generateId(userId, provider, trackId);
-        return Optional.ofNullable(likedTracks.get(id));
+        return Optional.ofNullable(store.get(userId, generateId(userId, provider, trackId)));
     }
 
     /**
      * Import liked tracks for a user (for syncing from client-side storage)
      */
     public void importLikedTracks(String userId, List<LikedTrack> tracks) {
+        importLikedTracksBatch(userId, tracks);
+    }
+
+    /**
+     * Stores one batch of imported likes with a single store call and returns how many were written. Safe to
+     * repeat: ids follow from (user, provider, trackId), a like without {@code likedAt} keeps the one already
+     * stored, and likes identical to the stored ones are not rewritten.
+     */
+    public int importLikedTracksBatch(String userId, List<LikedTrack> tracks) {
+        List<LikedTrack> changed = new ArrayList<>(tracks.size());
         for (LikedTrack track : tracks) {
             track.setUserId(userId);
             track.setId(generateId(userId, track.getProvider(), track.getTrackId()));
-            likedTracks.put(track.getId(), track);
+            LikedTrack existing = store.get(userId, track.getId());
+            if (track.getLikedAt() == null) {
+                track.setLikedAt(existing != null ? existing.getLikedAt() : Instant.now());
+            }
+            if (existing == null || !sameLike(existing, track)) changed.add(track);
         }
+        store.putAll(changed);
+        return changed.size();
     }
 
     /**
@@ -91,23 +152,80 @@ public class LikedTracksService {
         return getUserLikedTracks(userId);
     }
 
+    /**
+     * All of a user's likes in listing order, read from the store a page at a time as the iterator advances,
+     * so an export holds one page in memory however many likes there are.
+     */
+    public Iterator<LikedTrack> iterateUserLikedTracks(String userId) {
+        return new Iterator<>() {
+            private List<LikedTrack> page = store.page(userId, null, null, maxPageSize);
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                if (index < page.size()) return true;
+                if (page.size() < maxPageSize) return false;
+                page = store.page(userId, null, Position.of(page.get(page.size() - 1)), maxPageSize);
+                index = 0;
+                return !page.isEmpty();
+            }
+
+            @Override
+            public LikedTrack next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.get(index++);
+            }
+        };
+    }
+
     /**
      * Get count of liked tracks for a user
      */
     public long getUserLikedTracksCount(String userId) {
-        return likedTracks.values().stream()
-                .filter(track -> userId.equals(track.getUserId()))
-                .count();
+        return store.count(userId);
     }
 
     /**
      * Clear all liked tracks for a user
      */
     public void clearUserLikedTracks(String userId) {
-        likedTracks.entrySet().removeIf(entry -> userId.equals(entry.getValue().getUserId()));
+        store.clear(userId);
     }
 
     private String generateId(String userId, Provider provider, String trackId) {
         return userId + "_" + provider + "_" + trackId;
     }
+
+    private static boolean sameLike(LikedTrack a, LikedTrack b) {
+        return Objects.equals(a.getLikedAt(), b.getLikedAt())
+                && Objects.equals(a.getTitle(), b.getTitle())
+                && Objects.equals(a.getArtist(), b.getArtist())
+                && Objects.equals(a.getAlbum(), b.getAlbum())
+                && Objects.equals(a.getImageUrl(), b.getImageUrl())
+                && Objects.equals(a.getExternalUrl(), b.getExternalUrl());
+    }
+
+    /** Opaque to clients: the position of the last like returned, as {@code seconds.nanos:id}. */
+    private static String encodeCursor(Position position) {
+        Instant likedAt = position.likedAt();
+        String at = likedAt == null ? "-" : likedAt.getEpochSecond() + "." + likedAt.getNano();
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((at + ":" + position.id()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Position decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int colon = raw.indexOf(':');
+            String at = raw.substring(0, colon);
+            Instant likedAt = null;
+            if (!at.equals("-")) {
+                int dot = at.indexOf('.');
+                likedAt = Instant.ofEpochSecond(Long.parseLong(at.substring(0, dot)), Long.parseLong(at.substring(dot + 1)));
+            }
+            return new Position(likedAt, raw.substring(colon + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid cursor", e);
+        }
+    }
 }
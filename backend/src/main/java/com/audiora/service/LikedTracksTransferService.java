@@ -0,0 +1,507 @@
+package com.audiora.service;
+
+import com.audiora.model.LikedTrack;
+import com.audiora.model.Provider;
+import com.audiora.model.TrackRef;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk import and export of liked tracks as NDJSON (one {@link LikedTrack} object per line) or CSV (a header
+ * row naming the columns, at least {@code provider} and {@code trackId}).
+ * <p>
+ * Imports never hold the whole body: it is split into records as it is read, parsed, validated and
+ * deduplicated in chunks of {@code app.likes.import.batchSize} on a small worker pool, and committed chunk by
+ * chunk, in input order, through {@link LikedTracksService#importLikedTracksBatch}; the last occurrence of a
+ * track wins. Re-running an import leaves the likes as they were. Exports walk the store's ordering a page
+ * at a time. No more than {@value #MAX_RECORD_CHARS} characters of a line are held: a longer NDJSON or CSV line
+ * is rejected as too long, and a CSV record whose quoted field runs past that is rejected as unterminated;
+ * reading resumes on the line after it.
+ */
+@Service
+public class LikedTracksTransferService implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(LikedTracksTransferService.class);
+
+    private static final List<String> CSV_COLUMNS = List.of(
+            "provider", "trackId", "title", "artist", "album", "imageUrl", "externalUrl", "likedAt");
+
+    // Far more than any real track's fields; past it an open quote is taken to be a stray one
+    private static final int MAX_RECORD_CHARS = 64 * 1024;
+
+    public enum Format { NDJSON, CSV }
+
+    /** Counts of one user's import, updated while it runs. */
+    public static final class ImportProgress {
+        private final Instant startedAt = Instant.now();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong imported = new AtomicLong();
+        private final AtomicLong unchanged = new AtomicLong();
+        private final AtomicLong duplicates = new AtomicLong();
+        private final AtomicLong invalid = new AtomicLong();
+        private final List<String> errors = new ArrayList<>();
+        private final int maxErrors;
+        private volatile boolean done;
+
+        ImportProgress(int maxErrors) {
+            this.maxErrors = maxErrors;
+        }
+
+        public Instant getStartedAt() { return startedAt; }
+        public long getRead() { return read.get(); }
+        public long getImported() { return imported.get(); }
+        public long getUnchanged() { return unchanged.get(); }
+        public long getDuplicates() { return duplicates.get(); }
+        public long getInvalid() { return invalid.get(); }
+        public boolean isDone() { return done; }
+
+        /** The first {@code app.likes.import.maxErrors} problems, by line. */
+        public List<String> getErrors() {
+            synchronized (errors) {
+                return List.copyOf(errors);
+            }
+        }
+
+        void reject(long line, String reason) {
+            invalid.incrementAndGet();
+            synchronized (errors) {
+                if (errors.size() < maxErrors) errors.add("line " + line + ": " + reason);
+            }
+        }
+    }
+
+    /** One record of the body and the line it starts on; {@code problem} is set when it can't be a record. */
+    private record Line(long number, String text, String problem) {
+        Line(long number, String text) {
+            this(number, text, null);
+        }
+    }
+
+    private final LikedTracksService likedTracksService;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final int parallelism;
+    private final int maxErrors;
+    private final ExecutorService workers;
+    // Running imports never expire; finished ones are kept for progressTtl after they finish
+    private final Cache<String, ImportProgress> imports;
+
+    public LikedTracksTransferService(LikedTracksService likedTracksService,
+                                      ObjectMapper objectMapper,
+                                      @Value("${app.likes.import.batchSize:1000}") int batchSize,
+                                      @Value("${app.likes.import.parallelism:4}") int parallelism,
+                                      @Value("${app.likes.import.maxErrors:100}") int maxErrors,
+                                      @Value("${app.likes.import.progressTtl:1h}") Duration progressTtl) {
+        this.likedTracksService = likedTracksService;
+        this.objectMapper = objectMapper;
+        this.batchSize = Math.max(1, batchSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.maxErrors = maxErrors;
+        long finishedTtl = progressTtl.toNanos();
+        this.imports = Caffeine.newBuilder()
+                .expireAfter(new Expiry<String, ImportProgress>() {
+                    @Override
+                    public long expireAfterCreate(String userId, ImportProgress progress, long now) {
+                        return progress.isDone() ? finishedTtl : Long.MAX_VALUE;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String userId, ImportProgress progress, long now, long remaining) {
+                        return expireAfterCreate(userId, progress, now);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String userId, ImportProgress progress, long now, long remaining) {
+                        return remaining;
+                    }
+                })
+                .build();
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "likes-import-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Imports the body into the user's likes and returns the final counts.
+     *
+     * @throws IllegalStateException if an import for this user is still running
+     * @throws IllegalArgumentException if a CSV header lacks {@code provider} or {@code trackId}
+     * @throws IOException if the body can't be read
+     */
+    public ImportProgress importLikedTracks(String userId, Format format, InputStream body) throws IOException {
+        ImportProgress progress = new ImportProgress(maxErrors);
+        if (imports.asMap().compute(userId, (user, current) -> current != null && !current.isDone() ? current : progress) != progress) {
+            throw new IllegalStateException("an import is already running for this user");
+        }
+        long started = System.nanoTime();
+        Deque<Future<List<LikedTrack>>> inFlight = new ArrayDeque<>();
+        Set<TrackRef> seen = new HashSet<>();
+        try (Reader in = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+            LineReader reader = new LineReader(in);
+            long[] lineNumber = {0};
+            CsvRecords csv = format == Format.CSV ? new CsvRecords(reader) : null;
+            Map<String, Integer> columns = csv != null ? csvHeader(csv) : null;
+            List<Line> chunk = new ArrayList<>(batchSize);
+            Line line;
+            while ((line = csv != null ? csv.next() : nextNdjsonRecord(reader, lineNumber)) != null) {
+                progress.read.incrementAndGet();
+                chunk.add(line);
+                if (chunk.size() < batchSize) continue;
+                List<Line> lines = chunk;
+                inFlight.add(workers.submit(() -> parseChunk(lines, columns, progress)));
+                chunk = new ArrayList<>(batchSize);
+                // Bounds what is buffered, and keeps commits in input order
+                if (inFlight.size() >= parallelism) commit(userId, await(inFlight.removeFirst()), seen, progress);
+            }
+            if (!chunk.isEmpty()) {
+                List<Line> lines = chunk;
+                inFlight.add(workers.submit(() -> parseChunk(lines, columns, progress)));
+            }
+            while (!inFlight.isEmpty()) commit(userId, await(inFlight.removeFirst()), seen, progress);
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+            progress.done = true;
+            // Re-put so the entry's expiry starts now
+            imports.asMap().replace(userId, progress, progress);
+        }
+        log.info("Imported liked tracks for user {}: {} read, {} written, {} unchanged, {} duplicates, {} invalid in {} ms",
+                userId, progress.getRead(), progress.getImported(), progress.getUnchanged(), progress.getDuplicates(),
+                progress.getInvalid(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return progress;
+    }
+
+    /** The user's running import, or the last one if it finished less than {@code progressTtl} ago. */
+    public ImportProgress getImportProgress(String userId) {
+        return imports.getIfPresent(userId);
+    }
+
+    /** Writes all of the user's likes, most recent first, with constant memory. */
+    public void exportLikedTracks(String userId, Format format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        if (format == Format.CSV) writer.write(String.join(",", CSV_COLUMNS) + "\n");
+        for (Iterator<LikedTrack> tracks = likedTracksService.iterateUserLikedTracks(userId); tracks.hasNext(); ) {
+            LikedTrack track = tracks.next();
+            if (format == Format.NDJSON) {
+                writer.write(objectMapper.writeValueAsString(track));
+            } else {
+                writer.write(csvRow(track));
+            }
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+    // ---------------------------------------------------------------- import pipeline
+
+    private void commit(String userId, List<LikedTrack> tracks, Set<TrackRef> seen, ImportProgress progress) {
+        for (LikedTrack track : tracks) {
+            // An earlier chunk's copy is overwritten by this one
+            if (!seen.add(new TrackRef(track.getProvider(), track.getTrackId()))) progress.duplicates.incrementAndGet();
+        }
+        int written = likedTracksService.importLikedTracksBatch(userId, tracks);
+        progress.imported.addAndGet(written);
+        progress.unchanged.addAndGet(tracks.size() - written);
+    }
+
+    /** Parses and validates one chunk, keeping the last of any track it repeats. Runs on a worker. */
+    private List<LikedTrack> parseChunk(List<Line> lines, Map<String, Integer> columns, ImportProgress progress) {
+        Map<TrackRef, LikedTrack> tracks = new LinkedHashMap<>();
+        for (Line line : lines) {
+            if (line.problem() != null) {
+                progress.reject(line.number(), line.problem());
+                continue;
+            }
+            LikedTrack track;
+            try {
+                track = columns == null ? objectMapper.readValue(line.text(), LikedTrack.class) : fromCsv(line.text(), columns);
+            } catch (JsonProcessingException e) {
+                progress.reject(line.number(), e.getOriginalMessage());
+                continue;
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                progress.reject(line.number(), e.getMessage());
+                continue;
+            }
+            String problem = validate(track);
+            if (problem != null) {
+                progress.reject(line.number(), problem);
+                continue;
+            }
+            TrackRef ref = new TrackRef(track.getProvider(), track.getTrackId());
+            if (tracks.remove(ref) != null) progress.duplicates.incrementAndGet();
+            tracks.put(ref, track);
+        }
+        return new ArrayList<>(tracks.values());
+    }
+
+    private static String validate(LikedTrack track) {
+        if (track == null) return "empty record";
+        if (track.getProvider() == null) return "missing provider";
+        if (track.getTrackId() == null || track.getTrackId().isBlank()) return "missing trackId";
+        if (track.getTrackId().length() > 256) return "trackId too long";
+        return null;
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("import interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // ---------------------------------------------------------------- NDJSON
+
+    private static Line nextNdjsonRecord(LineReader reader, long[] lineNumber) throws IOException {
+        String text;
+        while ((text = reader.readLine()) != null) {
+            lineNumber[0]++;
+            if (text.length() > MAX_RECORD_CHARS) return new Line(lineNumber[0], null, "line too long");
+            if (!text.isBlank()) return new Line(lineNumber[0], text);
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------- CSV
+
+    /** Column name (lower case) to index, from the header row. */
+    private static Map<String, Integer> csvHeader(CsvRecords csv) throws IOException {
+        Line header = csv.next();
+        Map<String, Integer> columns = new HashMap<>();
+        if (header != null && header.problem() == null) {
+            List<String> names = csvFields(header.text());
+            for (int i = 0; i < names.size(); i++) columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        if (!columns.containsKey("provider") || !columns.containsKey("trackid")) {
+            throw new IllegalArgumentException("CSV header must name provider and trackId");
+        }
+        return columns;
+    }
+
+    /**
+     * Splits the body into records, joining lines while a quoted field is still open. A record that would
+     * grow past {@link #MAX_RECORD_CHARS}, or reach the end of the body, with its quote still open is
+     * returned as a problem, and the lines it swallowed after the first are read again as records.
+     */
+    private static final class CsvRecords {
+        private final LineReader reader;
+        private final Deque<String> pushedBack = new ArrayDeque<>();
+        private long lineNumber;
+
+        CsvRecords(LineReader reader) {
+            this.reader = reader;
+        }
+
+        Line next() throws IOException {
+            String text;
+            do {
+                text = readLine();
+                if (text == null) return null;
+            } while (text.isBlank());
+            long start = lineNumber;
+            if (text.length() > MAX_RECORD_CHARS) return new Line(start, null, "line too long");
+            int quotes = quotes(text);
+            if (quotes % 2 == 0) return new Line(start, text);
+            List<String> joined = new ArrayList<>();
+            int length = text.length();
+            while (quotes % 2 != 0) {
+                String next = readLine();
+                if (next == null || length + 1 + next.length() > MAX_RECORD_CHARS) {
+                    if (next != null) joined.add(next);
+                    for (int i = joined.size() - 1; i >= 0; i--) pushedBack.addFirst(joined.get(i));
+                    lineNumber = start;
+                    return new Line(start, null, "unterminated quoted field");
+                }
+                joined.add(next);
+                length += 1 + next.length();
+                quotes += quotes(next);
+            }
+            StringBuilder record = new StringBuilder(length).append(text);
+            for (String line : joined) record.append('\n').append(line);
+            return new Line(start, record.toString());
+        }
+
+        private String readLine() throws IOException {
+            String text = pushedBack.isEmpty() ? reader.readLine() : pushedBack.removeFirst();
+            if (text != null) lineNumber++;
+            return text;
+        }
+
+        private static int quotes(String text) {
+            int count = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '"') count++;
+            }
+            return count;
+        }
+    }
+
+    // ---------------------------------------------------------------- Lines
+
+    /**
+     * Splits the body into lines as {@code BufferedReader.readLine} does, but holds at most
+     * {@value #MAX_RECORD_CHARS} + 1 characters of one: the rest of a longer line is skipped, so callers see a
+     * line longer than the cap and can reject it without the whole of it being buffered.
+     */
+    private static final class LineReader {
+        private final Reader in;
+        private final char[] buffer = new char[1 << 16];
+        private int position;
+        private int limit;
+        private boolean skipLf;
+
+        LineReader(Reader in) {
+            this.in = in;
+        }
+
+        /** The next line without its terminator, cut to {@value #MAX_RECORD_CHARS} + 1 characters; null at the end. */
+        String readLine() throws IOException {
+            StringBuilder line = null;
+            while (true) {
+                if (position == limit) {
+                    int read = in.read(buffer, 0, buffer.length);
+                    if (read <= 0) return line == null ? null : line.toString();
+                    position = 0;
+                    limit = read;
+                }
+                if (skipLf) {
+                    skipLf = false;
+                    if (buffer[position] == '\n') {
+                        position++;
+                        continue;
+                    }
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '\n' && buffer[position] != '\r') position++;
+                if (line == null) line = new StringBuilder(Math.min(position - start, MAX_RECORD_CHARS + 1));
+                line.append(buffer, start, Math.min(position - start, MAX_RECORD_CHARS + 1 - line.length()));
+                if (position < limit) {
+                    skipLf = buffer[position++] == '\r';
+                    return line.toString();
+                }
+            }
+        }
+    }
+
+    /** RFC 4180 fields: comma separated, optionally quoted, {@code ""} for a quote inside quotes. */
+    private static List<String> csvFields(String record) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c != '\r') {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static LikedTrack fromCsv(String record, Map<String, Integer> columns) {
+        List<String> fields = csvFields(record);
+        LikedTrack track = new LikedTrack();
+        String provider = field(fields, columns, "provider");
+        track.setProvider(provider == null ? null : Provider.valueOf(provider.trim().toUpperCase(Locale.ROOT)));
+        track.setTrackId(field(fields, columns, "trackid"));
+        track.setTitle(field(fields, columns, "title"));
+        track.setArtist(field(fields, columns, "artist"));
+        track.setAlbum(field(fields, columns, "album"));
+        track.setImageUrl(field(fields, columns, "imageurl"));
+        track.setExternalUrl(field(fields, columns, "externalurl"));
+        String likedAt = field(fields, columns, "likedat");
+        track.setLikedAt(likedAt == null ? null : Instant.parse(likedAt.trim()));
+        return track;
+    }
+
+    /** The named field, or null when the column is absent or the field empty. */
+    private static String field(List<String> fields, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= fields.size() || fields.get(index).isEmpty()) return null;
+        return fields.get(index);
+    }
+
+    private static String csvRow(LikedTrack track) {
+        List<String> values = new ArrayList<>(CSV_COLUMNS.size());
+        values.add(track.getProvider() == null ? null : track.getProvider().name());
+        values.add(track.getTrackId());
+        values.add(track.getTitle());
+        values.add(track.getArtist());
+        values.add(track.getAlbum());
+        values.add(track.getImageUrl());
+        values.add(track.getExternalUrl());
+        values.add(track.getLikedAt() == null ? null : track.getLikedAt().toString());
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) row.append(',');
+            String value = values.get(i);
+            if (value == null) continue;
+            boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+            row.append(quote ? '"' + value.replace("\"", "\"\"") + '"' : value);
+        }
+        return row.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package com.audiora.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Gathers single-key lookups from all concurrent requests into batched upstream calls: the first lookup
+ * opens a window, and the batch is sent when the window closes or {@code maxBatch} distinct keys are
+ * waiting, whichever comes first. Each caller then gets its own key's value, or nothing when the
+ * provider did not return it. The batch is made with the context (token, session) of its first caller;
+ * should the provider refuse that caller's credentials (401/403), the other callers' keys are retried in
+ * calls of their own, one per context, so one caller's expired or revoked token fails only that caller.
+ * Other failures (outage, throttling) are shared by everyone and not retried.
+ * <p>
+ * Meters {@code audiora.batch.fill{batcher}}, distinct keys per call over {@code maxBatch}, and
+ * {@code audiora.batch.lookups{batcher}}, lookups submitted.
+ */
+final class MicroBatcher<K, C, V> {
+
+    @FunctionalInterface
+    interface BatchLoader<K, C, V> {
+        Mono<Map<K, V>> load(List<K> keys, C context);
+    }
+
+    private record Pending<K, C, V>(K key, C context, MonoSink<V> sink) {}
+
+    private final Duration window;
+    private final int maxBatch;
+    private final BatchLoader<K, C, V> loader;
+    private final DistributionSummary fill;
+    private final Counter lookups;
+    private List<Pending<K, C, V>> pending = new ArrayList<>();
+    private final LinkedHashSet<K> pendingKeys = new LinkedHashSet<>();
+    private Disposable timer;
+    // Identifies the current window, so a timer that fires after its batch was already sent does nothing
+    private long windowId;
+
+    MicroBatcher(String name, Duration window, int maxBatch, BatchLoader<K, C, V> loader, MeterRegistry meterRegistry) {
+        this.window = window;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.loader = loader;
+        this.fill = DistributionSummary.builder("audiora.batch.fill")
+                .description("Distinct keys per batched upstream call, as a fraction of the maximum batch")
+                .tag("batcher", name)
+                .register(meterRegistry);
+        this.lookups = Counter.builder("audiora.batch.lookups")
+                .description("Single-key lookups submitted for batching")
+                .tag("batcher", name)
+                .register(meterRegistry);
+    }
+
+    /** The value for {@code key}, loaded in a batch with whatever other keys arrive meanwhile. */
+    Mono<V> load(K key, C context) {
+        return Mono.create(sink -> {
+            lookups.increment();
+            List<Pending<K, C, V>> full = null;
+            Disposable dueTimer = null;
+            synchronized (this) {
+                pending.add(new Pending<>(key, context, sink));
+                pendingKeys.add(key);
+                if (pendingKeys.size() >= maxBatch) {
+                    full = take();
+                    dueTimer = timer;
+                    timer = null;
+                } else if (pending.size() == 1) {
+                    // Scheduled under the lock: every window that opens has its timer
+                    long id = windowId;
+                    timer = Mono.delay(window).subscribe(tick -> flushDue(id));
+                }
+            }
+            if (dueTimer != null) dueTimer.dispose();
+            if (full != null) send(full);
+        });
+    }
+
+    private void flushDue(long id) {
+        List<Pending<K, C, V>> due;
+        synchronized (this) {
+            // Its window filled up and was sent already; a newer window has its own timer
+            if (id != windowId) return;
+            timer = null;
+            if (pending.isEmpty()) return;
+            due = take();
+        }
+        send(due);
+    }
+
+    private List<Pending<K, C, V>> take() {
+        List<Pending<K, C, V>> batch = pending;
+        pending = new ArrayList<>();
+        pendingKeys.clear();
+        windowId++;
+        return batch;
+    }
+
+    private void send(List<Pending<K, C, V>> batch) {
+        send(batch, batch.get(0).context(), true);
+    }
+
+    private void send(List<Pending<K, C, V>> batch, C context, boolean shared) {
+        List<K> keys = new ArrayList<>(new LinkedHashSet<>(batch.stream().map(Pending::key).toList()));
+        if (shared) fill.record((double) keys.size() / maxBatch);
+        Mono.defer(() -> loader.load(keys, context))
+                .defaultIfEmpty(Map.of())
+                .subscribe(values -> batch.forEach(p -> {
+                            V value = values.get(p.key());
+                            if (value != null) p.sink().success(value);
+                            else p.sink().success();
+                        }),
+                        e -> {
+                            if (shared && refusedCredentials(e)) retrySeparately(batch, context, e);
+                            else batch.forEach(p -> p.sink().error(e));
+                        });
+    }
+
+    private static boolean refusedCredentials(Throwable e) {
+        return e instanceof WebClientResponseException r
+                && (r.getStatusCode().value() == 401 || r.getStatusCode().value() == 403);
+    }
+
+    /** The batch failed with {@code failedContext}: fail its callers, retry everyone else with their own. */
+    private void retrySeparately(List<Pending<K, C, V>> batch, C failedContext, Throwable e) {
+        Map<C, List<Pending<K, C, V>>> byContext = new LinkedHashMap<>();
+        for (Pending<K, C, V> p : batch) byContext.computeIfAbsent(p.context(), c -> new ArrayList<>()).add(p);
+        byContext.forEach((context, callers) -> {
+            if (Objects.equals(context, failedContext)) callers.forEach(p -> p.sink().error(e));
+            else send(callers, context, false);
+        });
+    }
+}
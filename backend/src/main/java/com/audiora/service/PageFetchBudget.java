@@ -0,0 +1,58 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Bounds how many playlist pages are fetched at once, per session and provider and per provider overall,
+ * so that one user paging through a huge playlist neither hogs the upstream pool nor trips rate limits.
+ * Waiting for a permit does not block a thread.
+ */
+@Service
+public class PageFetchBudget {
+
+    record Key(String sessionId, Provider provider) {}
+
+    private final Cache<Key, AsyncPermits> perSession;
+    private final Map<Provider, AsyncPermits> perProvider = new EnumMap<>(Provider.class);
+    private final int perSessionConcurrency;
+
+    public PageFetchBudget(MeterRegistry meterRegistry,
+                           @Value("${app.pagination.perUserConcurrency:4}") int perSessionConcurrency,
+                           @Value("${app.pagination.perProviderConcurrency:64}") int perProviderConcurrency) {
+        this.perSessionConcurrency = perSessionConcurrency;
+        this.perSession = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+        for (Provider provider : Provider.values()) {
+            AsyncPermits permits = new AsyncPermits(perProviderConcurrency);
+            perProvider.put(provider, permits);
+            Gauge.builder("audiora.pagination.pages.waiting", permits, AsyncPermits::waiting)
+                    .description("Playlist page fetches waiting for the provider-wide budget")
+                    .tag("provider", provider.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+    }
+
+    /** How many pages one session may have in flight per provider; use as the fan-out concurrency. */
+    public int perSessionConcurrency() {
+        return perSessionConcurrency;
+    }
+
+    /** Subscribes to {@code page} once both the session's and the provider's budget have room. */
+    public <T> Mono<T> run(String sessionId, Provider provider, Mono<T> page) {
+        Mono<T> bounded = perProvider.get(provider).run(page);
+        if (sessionId == null) return bounded;
+        return perSession.get(new Key(sessionId, provider), k -> new AsyncPermits(perSessionConcurrency)).run(bounded);
+    }
+}
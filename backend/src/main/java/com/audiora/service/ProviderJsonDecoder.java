@@ -0,0 +1,454 @@
+package com.audiora.service;
+
+import com.audiora.dto.PlaylistSummary;
+import com.audiora.dto.PlaylistTrackItem;
+import com.audiora.dto.PlaylistVideoItem;
+import com.audiora.dto.TrackDetails;
+import com.audiora.dto.TrackItem;
+import com.audiora.dto.VideoDetails;
+import com.audiora.dto.VideoItem;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes Spotify and YouTube responses straight into our item records with a streaming
+ * {@link JsonParser}: fields we don't return are skipped token by token, so no {@code JsonNode} tree or
+ * intermediate maps are built. Reads either a cached body or the response {@link DataBuffer} itself.
+ */
+@Component
+public class ProviderJsonDecoder {
+
+    /** One upstream page: its items plus what is needed to find the next one. */
+    public record Page<T>(List<T> items, int total, String nextPageToken) {}
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        T read(JsonParser p) throws IOException;
+    }
+
+    private final JsonFactory factory = new JsonFactory();
+
+    public List<PlaylistSummary> spotifyPlaylists(String raw) throws IOException {
+        return decode(raw, p -> page(p, this::spotifyPlaylist).items());
+    }
+
+    /** {@code snapshot_id} of every playlist in a {@code /me/playlists} listing, by playlist id. */
+    public Map<String, String> spotifySnapshotIds(String raw) throws IOException {
+        return decode(raw, p -> {
+            Map<String, String> snapshots = new LinkedHashMap<>();
+            page(p, item -> {
+                String id = null;
+                String snapshotId = null;
+                while (nextField(item)) {
+                    switch (item.currentName()) {
+                        case "id" -> id = item.getValueAsString();
+                        case "snapshot_id" -> snapshotId = item.getValueAsString();
+                        default -> item.skipChildren();
+                    }
+                }
+                if (id != null && snapshotId != null) snapshots.put(id, snapshotId);
+                return null;
+            });
+            return snapshots;
+        });
+    }
+
+    /** A {@code /playlists/{id}/tracks} page; entries without a track id (local files, removed tracks) are dropped. */
+    public Page<PlaylistTrackItem> spotifyPlaylistTracks(DataBuffer buffer) throws IOException {
+        return decode(buffer, p -> page(p, item -> {
+            TrackItem track = null;
+            while (nextField(item)) {
+                if ("track".equals(item.currentName()) && enterObject(item)) {
+                    track = spotifyTrack(item);
+                } else {
+                    item.skipChildren();
+                }
+            }
+            return track == null || track.id() == null ? null : new PlaylistTrackItem(track);
+        }));
+    }
+
+    public List<TrackItem> spotifySearchTracks(String raw) throws IOException {
+        return decode(raw, p -> {
+            List<TrackItem> tracks = List.of();
+            if (p.nextToken() != JsonToken.START_OBJECT) return tracks;
+            while (nextField(p)) {
+                if ("tracks".equals(p.currentName()) && enterObject(p)) {
+                    tracks = readPageFields(p, this::spotifyTrack).items();
+                } else {
+                    p.skipChildren();
+                }
+            }
+            return tracks;
+        });
+    }
+
+    /** A {@code /tracks?ids=} response; ids Spotify doesn't know (returned as null) are left out. */
+    public List<TrackDetails> spotifyTrackDetails(String raw) throws IOException {
+        return decode(raw, p -> {
+            List<TrackDetails> tracks = new ArrayList<>();
+            if (p.nextToken() != JsonToken.START_OBJECT) return tracks;
+            while (nextField(p)) {
+                if ("tracks".equals(p.currentName())) readArray(p, tracks, this::spotifyTrackDetails);
+                else p.skipChildren();
+            }
+            return tracks;
+        });
+    }
+
+    public List<PlaylistSummary> youtubePlaylists(String raw) throws IOException {
+        return decode(raw, p -> page(p, this::youtubePlaylist).items());
+    }
+
+    /** A {@code playlistItems} page. */
+    public Page<PlaylistVideoItem> youtubePlaylistItems(String raw) throws IOException {
+        return decode(raw, p -> page(p, this::youtubePlaylistItem));
+    }
+
+    /** A {@code videos.list} response with {@code contentDetails}, {@code statistics} and {@code status}. */
+    public List<VideoDetails> youtubeVideoDetails(String raw) throws IOException {
+        return decode(raw, p -> page(p, this::youtubeVideoDetails).items());
+    }
+
+    public List<VideoItem> youtubeSearchVideos(String raw) throws IOException {
+        return decode(raw, p -> page(p, this::youtubeVideo).items());
+    }
+
+    private <T> T decode(String raw, Reader<T> reader) throws IOException {
+        try (JsonParser p = factory.createParser(raw)) {
+            return reader.read(p);
+        }
+    }
+
+    /** Decodes and releases {@code buffer}. */
+    private <T> T decode(DataBuffer buffer, Reader<T> reader) throws IOException {
+        try (JsonParser p = factory.createParser(buffer.asInputStream(true))) {
+            return reader.read(p);
+        }
+    }
+
+    /** Reads a top-level {@code {"items": [...], "total": n, "nextPageToken": ...}} object. */
+    private <T> Page<T> page(JsonParser p, Reader<T> item) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) return new Page<>(List.of(), 0, null);
+        return readPageFields(p, item);
+    }
+
+    private <T> Page<T> readPageFields(JsonParser p, Reader<T> item) throws IOException {
+        List<T> items = new ArrayList<>();
+        int total = -1;
+        String next = null;
+        while (nextField(p)) {
+            switch (p.currentName()) {
+                case "items" -> readArray(p, items, item);
+                case "total" -> total = p.getValueAsInt(-1);
+                case "nextPageToken" -> next = p.getValueAsString();
+                case "pageInfo" -> {
+                    if (enterObject(p)) {
+                        while (nextField(p)) {
+                            if ("totalResults".equals(p.currentName())) total = p.getValueAsInt(-1);
+                            else p.skipChildren();
+                        }
+                    }
+                }
+                default -> p.skipChildren();
+            }
+        }
+        return new Page<>(items, total < 0 ? items.size() : total, next);
+    }
+
+    /** Advances to the value of the next field of the current object; false at its end. */
+    private static boolean nextField(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.FIELD_NAME) return false;
+        p.nextToken();
+        return true;
+    }
+
+    /** True when the current value is an object to read; anything else is skipped. */
+    private static boolean enterObject(JsonParser p) throws IOException {
+        if (p.currentToken() == JsonToken.START_OBJECT) return true;
+        p.skipChildren();
+        return false;
+    }
+
+    /** Reads each object of the array at the current token with {@code reader}, keeping non-null results. */
+    private static <T> void readArray(JsonParser p, List<T> out, Reader<T> reader) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            T value = reader.read(p);
+            if (value != null) out.add(value);
+        }
+    }
+
+    private static String text(JsonParser p) throws IOException {
+        String value = p.getValueAsString();
+        return value == null ? "" : value;
+    }
+
+    private TrackItem spotifyTrack(JsonParser p) throws IOException {
+        String id = null;
+        String name = "";
+        String album = "";
+        String uri = "";
+        String image = null;
+        long durationMs = 0;
+        List<String> artists = new ArrayList<>();
+        while (nextField(p)) {
+            switch (p.currentName()) {
+                case "id" -> id = p.getValueAsString();
+                case "name" -> name = text(p);
+                case "uri" -> uri = text(p);
+                case "duration_ms" -> durationMs = p.getValueAsLong();
+                case "artists" -> readArray(p, artists, a -> {
+                    String artist = "";
+                    while (nextField(a)) {
+                        if ("name".equals(a.currentName())) artist = text(a);
+                        else a.skipChildren();
+                    }
+                    return artist;
+                });
+                case "album" -> {
+                    if (!enterObject(p)) break;
+                    while (nextField(p)) {
+                        switch (p.currentName()) {
+                            case "name" -> album = text(p);
+                            // Album images are largest first; the list shows the smallest
+                            case "images" -> {
+                                List<String> urls = imageUrls(p);
+                                if (!urls.isEmpty()) image = urls.get(urls.size() - 1);
+                            }
+                            default -> p.skipChildren();
+                        }
+                    }
+                }
+                default -> p.skipChildren();
+            }
+        }
+        return new TrackItem(id, name, artists, album, durationMs, uri, image, "spotify");
+    }
+
+    private TrackDetails spotifyTrackDetails(JsonParser p) throws IOException {
+        String id = null;
+        long durationMs = 0;
+        int popularity = 0;
+        boolean explicit = false;
+        String isrc = null;
+        while (nextField(p)) {
+            switch (p.currentName()) {
+                case "id" -> id = p.getValueAsString();
+                case "duration_ms" -> durationMs = p.getValueAsLong();
+                case "popularity" -> popularity = p.getValueAsInt();
+                case "explicit" -> explicit = p.getValueAsBoolean();
+                case "external_ids" -> {
+                    if (!enterObject(p)) break;
+                    while (nextField(p)) {
+                        if ("isrc".equals(p.currentName())) isrc = p.getValueAsString();
+                        else p.skipChildren();
+                    }
+                }
+                default -> p.skipChildren();
+            }
+        }
+        return id == null ? null : new TrackDetails(id, durationMs, popularity, explicit, isrc);
+    }
+
+    private PlaylistSummary spotifyPlaylist(JsonParser p) throws IOException {
+        String id = "";
+        String name = "";
+        int tracks = 0;
+        String image = null;
+        while (nextField(p)) {
+            switch (p.currentName()) {
+                case "id" -> id = text(p);
+                case "name" -> name = text(p);
+                case "tracks" -> {
+                    if (enterObject(p)) {
+                        while (nextField(p)) {
+                            if ("total".equals(p.currentName())) tracks = p.getValueAsInt();
+                            else p.skipChildren();
+                        }
+                    }
+                }
+                case "images" -> {
+                    List<String> urls = imageUrls(p);
+                    if (!urls.isEmpty()) image = urls.get(0);
+                }
+                default -> p.skipChildren();
+            }
+        }
+        return new PlaylistSummary(id, name, tracks, image);
+    }
+
+    private List<String> imageUrls(JsonParser p) throws IOException {
+        List<String> urls = new ArrayList<>();
+        readArray(p, urls, image -> {
+            String url = null;
+            while (nextField(image)) {
+                if ("url".equals(image.currentName())) url = image.getValueAsString();
+                else image.skipChildren();
+            }
+            return url;
+        });
+        return urls;
+    }
+
+    /** Snippet fields shared by YouTube playlists, playlist items and search results. */
+    private static final class Snippet {
+        String title = "";
+        String channelTitle = "";
+        String publishedAt = "";
+        int position;
+        String videoId = "";
+        String thumbnail;
+    }
+
+    private Snippet snippet(JsonParser p) throws IOException {
+        Snippet s = new Snippet();
+        if (!enterObject(p)) return s;
+        while (nextField(p)) {
+            switch (p.currentName()) {
+                case "title" -> s.title = text(p);
+                case "channelTitle" -> s.channelTitle = text(p);
+                case "publishedAt" -> s.publishedAt = text(p);
+                case "position" -> s.position = p.getValueAsInt();
+                case "resourceId" -> s.videoId = videoId(p);
+                case "thumbnails" -> s.thumbnail = thumbnail(p);
+                default -> p.skipChildren();
+            }
+        }
+        return s;
+    }
+
+    /** The {@code videoId} of a {@code resourceId}/{@code id} object. */
+    private String videoId(JsonParser p) throws IOException {
+        String videoId = "";
+        if (!enterObject(p)) return videoId;
+        while (nextField(p)) {
+            if ("videoId".equals(p.currentName())) videoId = text(p);
+            else p.skipChildren();
+        }
+        return videoId;
+    }
+
+    /** The {@code default} thumbnail URL, else the {@code medium} one. */
+    private String thumbnail(JsonParser p) throws IOException {
+        String preferred = null;
+        String fallback = null;
+        if (!enterObject(p)) return null;
+        while (nextField(p)) {
+            String size = p.currentName();
+            if (!"default".equals(size) && !"medium".equals(size)) {
+                p.skipChildren();
+                continue;
+            }
+            if (!enterObject(p)) continue;
+            String url = null;
+            while (nextField(p)) {
+                if ("url".equals(p.currentName())) url = p.getValueAsString();
+                else p.skipChildren();
+            }
+            if ("default".equals(size)) preferred = url;
+            else fallback = url;
+        }
+        return preferred != null ? preferred : fallback;
+    }
+
+    private PlaylistSummary youtubePlaylist(JsonParser p) throws IOException {
+        String id = "";
+        Snippet snippet = new Snippet();
+        int count = 0;
+        while (nextField(p)) {
+            switch (p.currentName()) {
+                case "id" -> id = text(p);
+                case "snippet" -> snippet = snippet(p);
+                case "contentDetails" -> {
+                    if (enterObject(p)) {
+                        while (nextField(p)) {
+                            if ("itemCount".equals(p.currentName())) count = p.getValueAsInt();
+                            else p.skipChildren();
+                        }
+                    }
+                }
+                default -> p.skipChildren();
+            }
+        }
+        return new PlaylistSummary(id, snippet.title, count, snippet.thumbnail);
+    }
+
+    private PlaylistVideoItem youtubePlaylistItem(JsonParser p) throws IOException {
+        Snippet snippet = new Snippet();
+        while (nextField(p)) {
+            if ("snippet".equals(p.currentName())) snippet = snippet(p);
+            else p.skipChildren();
+        }
+        return new PlaylistVideoItem(snippet.videoId, snippet.position, snippet.title, snippet.channelTitle,
+                snippet.publishedAt, snippet.thumbnail, null);
+    }
+
+    private VideoItem youtubeVideo(JsonParser p) throws IOException {
+        String videoId = "";
+        Snippet snippet = new Snippet();
+        while (nextField(p)) {
+            switch (p.currentName()) {
+                case "id" -> videoId = videoId(p);
+                case "snippet" -> snippet = snippet(p);
+                default -> p.skipChildren();
+            }
+        }
+        return new VideoItem(videoId, snippet.title, snippet.channelTitle, snippet.thumbnail, "youtube", null);
+    }
+
+    private VideoDetails youtubeVideoDetails(JsonParser p) throws IOException {
+        String videoId = null;
+        String duration = "";
+        long viewCount = 0;
+        boolean embeddable = false;
+        while (nextField(p)) {
+            String part = p.currentName();
+            if ("id".equals(part)) {
+                videoId = p.getValueAsString();
+                continue;
+            }
+            if (!("contentDetails".equals(part) || "statistics".equals(part) || "status".equals(part)) || !enterObject(p)) {
+                p.skipChildren();
+                continue;
+            }
+            while (nextField(p)) {
+                switch (p.currentName()) {
+                    case "duration" -> duration = text(p);
+                    case "viewCount" -> viewCount = p.getValueAsLong();
+                    case "embeddable" -> embeddable = p.getValueAsBoolean();
+                    default -> p.skipChildren();
+                }
+            }
+        }
+        return videoId == null ? null : new VideoDetails(videoId, duration, seconds(duration), viewCount, embeddable);
+    }
+
+    /** Seconds in an ISO 8601 duration such as {@code PT1H2M3S}; 0 when absent or unreadable. */
+    private static long seconds(String isoDuration) {
+        if (isoDuration.isEmpty()) return 0;
+        try {
+            return Duration.parse(isoDuration).toSeconds();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Per-session cache of raw provider responses (playlists and playlist contents).
+ * <p>
+ * An entry younger than its cache's TTL is served as is. An older entry, still inside the
+ * stale-while-revalidate window, is served immediately while a background reload replaces it.
+ * Concurrent misses for the same key share one upstream call. Entries are scoped to the session, so
+ * one user's playlists are never served to another; {@link #invalidate(String, Provider)} drops a
+ * session's entries when its provider account changes.
+ */
+@Service
+public class ProviderResponseCache {
+    private static final Logger log = LoggerFactory.getLogger(ProviderResponseCache.class);
+
+    public static final String SPOTIFY_PLAYLISTS = "spotifyPlaylists";
+    public static final String SPOTIFY_PLAYLIST_TRACKS = "spotifyPlaylistTracks";
+    public static final String YOUTUBE_PLAYLISTS = "youtubePlaylists";
+    public static final String YOUTUBE_PLAYLIST_ITEMS = "youtubePlaylistItems";
+
+    private static final Map<String, Provider> CACHE_PROVIDERS = Map.of(
+            SPOTIFY_PLAYLISTS, Provider.SPOTIFY,
+            SPOTIFY_PLAYLIST_TRACKS, Provider.SPOTIFY,
+            YOUTUBE_PLAYLISTS, Provider.YOUTUBE,
+            YOUTUBE_PLAYLIST_ITEMS, Provider.YOUTUBE);
+
+    /** Cache key: the session the response belongs to and the resource it describes. */
+    record Key(String sessionId, String resource) {}
+
+    private record Entry(String body, long loadedAt) {}
+
+    private record FlightKey(String cacheName, Key key) {}
+
+    private final CacheManager cacheManager;
+    private final Map<String, Long> ttlNanos;
+    private final Map<FlightKey, Mono<String>> inFlight = new ConcurrentHashMap<>();
+    private final Counter staleServed;
+    private final Counter coalescedLoads;
+    private final Counter throttledServed;
+
+    public ProviderResponseCache(CacheManager cacheManager, MeterRegistry meterRegistry,
+                                 @Value("${app.cache.playlistsTtl:2m}") Duration playlistsTtl,
+                                 @Value("${app.cache.playlistItemsTtl:5m}") Duration playlistItemsTtl) {
+        this.cacheManager = cacheManager;
+        this.ttlNanos = Map.of(
+                SPOTIFY_PLAYLISTS, playlistsTtl.toNanos(),
+                SPOTIFY_PLAYLIST_TRACKS, playlistItemsTtl.toNanos(),
+                YOUTUBE_PLAYLISTS, playlistsTtl.toNanos(),
+                YOUTUBE_PLAYLIST_ITEMS, playlistItemsTtl.toNanos());
+        this.staleServed = Counter.builder("audiora.cache.stale")
+                .description("Stale provider responses served while a reload runs in the background")
+                .register(meterRegistry);
+        this.coalescedLoads = Counter.builder("audiora.cache.loads.coalesced")
+                .description("Cache misses that joined an upstream load already in flight")
+                .register(meterRegistry);
+        this.throttledServed = Counter.builder("audiora.cache.throttled")
+                .description("Cached provider responses served because the provider was rate limited or out of quota")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached response for {@code resource} in the session, loading it through {@code loader}
+     * when absent. {@code refresh} bypasses the cached entry and replaces it with a fresh load, unless the
+     * load is throttled ({@link UpstreamThrottledException}), in which case the entry is served.
+     * Failed loads are not cached.
+     */
+    public Mono<String> get(String cacheName, String sessionId, String resource, boolean refresh,
+                            Supplier<Mono<String>> loader) {
+        if (sessionId == null) return loader.get();
+        Cache cache = cache(cacheName);
+        Key key = new Key(sessionId, resource);
+        Entry entry = cache.get(key, Entry.class);
+        if (!refresh && entry != null) {
+            if (System.nanoTime() - entry.loadedAt() < ttlNanos.get(cacheName)) {
+                return Mono.just(entry.body());
+            }
+            staleServed.increment();
+            load(cacheName, cache, key, loader).subscribe(
+                    body -> {},
+                    e -> log.debug("Background reload of {} {} failed: {}", cacheName, resource, e.toString()));
+            return Mono.just(entry.body());
+        }
+        if (entry == null) return load(cacheName, cache, key, loader);
+        // A refresh the provider won't serve right now gets the copy we have
+        return load(cacheName, cache, key, loader).onErrorResume(UpstreamThrottledException.class, e -> {
+            throttledServed.increment();
+            return Mono.just(entry.body());
+        });
+    }
+
+    /** Drops every cached response of the session for the provider. */
+    public void invalidate(String sessionId, Provider provider) {
+        if (sessionId == null) return;
+        CACHE_PROVIDERS.forEach((name, p) -> {
+            if (p != provider) return;
+            Object nativeCache = cache(name).getNativeCache();
+            if (nativeCache instanceof com.github.benmanes.caffeine.cache.Cache<?, ?> caffeine) {
+                caffeine.asMap().keySet().removeIf(k -> k instanceof Key key && key.sessionId().equals(sessionId));
+            }
+        });
+    }
+
+    private Mono<String> load(String cacheName, Cache cache, Key key, Supplier<Mono<String>> loader) {
+        boolean[] leader = new boolean[1];
+        Mono<String> flight = inFlight.computeIfAbsent(new FlightKey(cacheName, key), k -> {
+            leader[0] = true;
+            return Mono.defer(loader)
+                    .doOnNext(body -> cache.put(key, new Entry(body, System.nanoTime())))
+                    .doFinally(signal -> inFlight.remove(k))
+                    .cache();
+        });
+        if (!leader[0]) coalescedLoads.increment();
+        return flight;
+    }
+
+    private Cache cache(String cacheName) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache == null) throw new IllegalArgumentException("Unknown cache " + cacheName);
+        return cache;
+    }
+
+    /** Approximate heap size of a cache entry, in bytes, for the caches' {@code maximumWeight}. */
+    public static int weigh(Object key, Object value) {
+        int bytes = 64;
+        if (key instanceof Key k) bytes += 2 * (k.sessionId().length() + k.resource().length());
+        if (value instanceof Entry e) bytes += 2 * e.body().length();
+        return bytes;
+    }
+}
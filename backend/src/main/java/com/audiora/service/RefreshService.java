@@ -3,6 +3,9 @@ package com.audiora.service;
 import com.audiora.model.OAuthTokenResponse;
 import com.audiora.model.Provider;
 import com.audiora.model.TokenInfo;
+import com.audiora.store.InMemoryTokenStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
@@ -11,26 +14,97 @@ import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
 import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Refreshes OAuth access tokens.
+ * <p>
+ * Refreshes are single-flight per (session, provider): concurrent callers that find the same token
+ * expired share one upstream call, and the result is written back to the token store once, replacing
+ * only the token it was refreshed from.
+ */
 @Service
 public class RefreshService {
 
-    private final WebClient spotifyAccounts = WebClient.create("https://accounts.spotify.com");
-    private final WebClient googleOauth = WebClient.create("https://oauth2.googleapis.com");
+    private record FlightKey(String owner, Provider provider) {}
+
+    private final WebClient spotifyAccounts;
+    private final WebClient googleOauth;
+    private final InMemoryTokenStore tokenStore;
+    private final Map<FlightKey, Mono<TokenInfo>> inFlight = new ConcurrentHashMap<>();
 
     @Value("${spotify.clientId:}") private String spotifyClientId;
     @Value("${spotify.clientSecret:}") private String spotifyClientSecret;
     @Value("${youtube.clientId:}") private String youtubeClientId;
     @Value("${youtube.clientSecret:}") private String youtubeClientSecret;
 
-    public Mono<TokenInfo> refresh(Provider provider, TokenInfo existing) {
+    private final Counter inlineRefreshes;
+    private final Counter scheduledRefreshes;
+    private final Counter coalescedRefreshes;
+
+    public RefreshService(UpstreamClients upstreamClients, InMemoryTokenStore tokenStore, MeterRegistry meterRegistry) {
+        this.spotifyAccounts = upstreamClients.spotifyAccounts();
+        this.googleOauth = upstreamClients.googleOauth();
+        this.tokenStore = tokenStore;
+        this.inlineRefreshes = refreshCounter(meterRegistry, "inline");
+        this.scheduledRefreshes = refreshCounter(meterRegistry, "scheduled");
+        this.coalescedRefreshes = Counter.builder("audiora.token.refresh.coalesced")
+                .description("Refresh requests that joined an in-flight refresh of the same session token")
+                .register(meterRegistry);
+    }
+
+    private static Counter refreshCounter(MeterRegistry registry, String trigger) {
+        return Counter.builder("audiora.token.refreshes")
+                .description("OAuth token refreshes sent upstream, by what triggered them")
+                .tag("trigger", trigger)
+                .register(registry);
+    }
+
+    /**
+     * Refreshes a token on the request path, i.e. because a caller found it expired. When
+     * {@code sessionId} is given the new token is stored for that session.
+     */
+    public Mono<TokenInfo> refresh(String sessionId, Provider provider, TokenInfo existing) {
+        return singleFlight(sessionId, provider, existing, inlineRefreshes);
+    }
+
+    /**
+     * Refreshes a session's token ahead of its expiry from the background scheduler.
+     */
+    public Mono<TokenInfo> refreshAhead(String sessionId, Provider provider, TokenInfo existing) {
+        return singleFlight(sessionId, provider, existing, scheduledRefreshes);
+    }
+
+    private Mono<TokenInfo> singleFlight(String sessionId, Provider provider, TokenInfo existing, Counter trigger) {
         if (existing == null || existing.getRefreshToken() == null) return Mono.empty();
-        if (provider == Provider.SPOTIFY) {
-            return refreshSpotify(existing.getRefreshToken());
-        } else if (provider == Provider.YOUTUBE) {
-            return refreshYouTube(existing.getRefreshToken());
-        }
-        return Mono.empty();
+        if (provider != Provider.SPOTIFY && provider != Provider.YOUTUBE) return Mono.empty();
+        FlightKey key = new FlightKey(sessionId != null ? sessionId : existing.getRefreshToken(), provider);
+        return Mono.defer(() -> {
+            // Another caller may already have replaced the stale token we were handed
+            TokenInfo current = sessionId != null ? tokenStore.peek(sessionId, provider) : null;
+            if (current != null && current != existing && !current.isExpired()) {
+                coalescedRefreshes.increment();
+                return Mono.just(current);
+            }
+            boolean[] leader = new boolean[1];
+            Mono<TokenInfo> flight = inFlight.computeIfAbsent(key, k -> {
+                leader[0] = true;
+                trigger.increment();
+                return upstreamRefresh(provider, existing.getRefreshToken())
+                        .doOnNext(t -> {
+                            if (sessionId != null) tokenStore.replace(sessionId, provider, existing, t);
+                        })
+                        .doFinally(signal -> inFlight.remove(k))
+                        .cache();
+            });
+            if (!leader[0]) coalescedRefreshes.increment();
+            return flight;
+        });
+    }
+
+    private Mono<TokenInfo> upstreamRefresh(Provider provider, String refreshToken) {
+        return provider == Provider.SPOTIFY ? refreshSpotify(refreshToken) : refreshYouTube(refreshToken);
     }
 
     private Mono<TokenInfo> refreshSpotify(String refreshToken) {
@@ -0,0 +1,106 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Remembers, per session and upstream resource, the last body downloaded together with its validator,
+ * so the next fetch can be made conditional.
+ * <p>
+ * For YouTube the validator is the response {@code ETag}, replayed as {@code If-None-Match}; a 304
+ * answer is served from the stored body. For Spotify it is the playlist {@code snapshot_id}: the
+ * playlists listing reports the current snapshot of every playlist, and a track list whose snapshot
+ * has been seen unchanged since it was downloaded is served from the stored body without a request.
+ * Outlives {@link ProviderResponseCache} entries so that revalidations after expiry stay cheap. Both maps
+ * are bounded by the approximate heap size of their entries rather than a count, as bodies range from a
+ * few hundred bytes to megabytes.
+ */
+@Service
+public class ResponseValidatorStore {
+
+    record Key(String sessionId, String resource) {}
+
+    /** A stored body, the validator it was downloaded with and when it was last known to be current. */
+    public record Stored(String validator, String body, long validatedAt) {}
+
+    /** A playlist snapshot id as reported by the listing, and when it was seen. */
+    public record Snapshot(String snapshotId, long observedAt) {}
+
+    private final Cache<Key, Stored> bodies;
+    private final Cache<Key, Snapshot> snapshots;
+    private final MeterRegistry meterRegistry;
+
+    public ResponseValidatorStore(MeterRegistry meterRegistry,
+                                  @Value("${app.validators.maxBytes:134217728}") long maxBytes,
+                                  @Value("${app.validators.snapshotMaxBytes:8388608}") long snapshotMaxBytes,
+                                  @Value("${app.validators.ttl:24h}") Duration ttl) {
+        this.meterRegistry = meterRegistry;
+        this.bodies = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, Stored stored) -> weight(key) + 2 * (stored.validator().length() + stored.body().length()))
+                .expireAfterAccess(ttl)
+                .recordStats()
+                .build();
+        this.snapshots = Caffeine.newBuilder()
+                .maximumWeight(snapshotMaxBytes)
+                .weigher((Key key, Snapshot snapshot) -> weight(key) + 2 * snapshot.snapshotId().length())
+                .expireAfterWrite(ttl)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, bodies, "upstreamValidators");
+    }
+
+    public Stored get(String sessionId, String resource) {
+        return sessionId == null ? null : bodies.getIfPresent(new Key(sessionId, resource));
+    }
+
+    public void put(String sessionId, String resource, String validator, String body) {
+        if (sessionId == null || validator == null || body == null) return;
+        bodies.put(new Key(sessionId, resource), new Stored(validator, body, System.nanoTime()));
+    }
+
+    /** Records that {@code stored} is still current as of {@code validatedAt} and counts the saved download. */
+    public void revalidated(String sessionId, String resource, Stored stored, long validatedAt, Provider provider) {
+        bodies.put(new Key(sessionId, resource), new Stored(stored.validator(), stored.body(), validatedAt));
+        result(provider, "not_modified").increment();
+        Counter.builder("audiora.upstream.bytes.saved")
+                .description("Response bytes not downloaded thanks to a matching validator")
+                .tag("provider", provider.name().toLowerCase())
+                .register(meterRegistry)
+                .increment(stored.body().length());
+    }
+
+    /** Counts a conditional fetch that had to download the full body. */
+    public void modified(Provider provider) {
+        result(provider, "modified").increment();
+    }
+
+    public Snapshot snapshot(String sessionId, String playlistId) {
+        return sessionId == null ? null : snapshots.getIfPresent(new Key(sessionId, playlistId));
+    }
+
+    public void recordSnapshot(String sessionId, String playlistId, String snapshotId) {
+        if (sessionId == null || snapshotId == null || snapshotId.isEmpty()) return;
+        snapshots.put(new Key(sessionId, playlistId), new Snapshot(snapshotId, System.nanoTime()));
+    }
+
+    /** Approximate heap size of a key plus the entry around it, in bytes. */
+    private static int weight(Key key) {
+        return 96 + 2 * (key.sessionId().length() + key.resource().length());
+    }
+
+    private Counter result(Provider provider, String result) {
+        return Counter.builder("audiora.upstream.conditional")
+                .description("Upstream fetches made with a stored validator, by outcome")
+                .tag("provider", provider.name().toLowerCase())
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,107 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Shared cache of raw search responses, keyed on provider, result scope, normalized query and limit.
+ * <p>
+ * Queries are NFKC-normalized, case-folded and whitespace-collapsed, so "Daft  Punk" and "daft punk"
+ * share an entry. The scope is whatever the results depend on besides the query: nothing for YouTube,
+ * the market for Spotify; results are shared between all users with the same scope. Identical
+ * concurrent searches make a single upstream call, and failed calls are not cached. Results are also kept
+ * for {@code staleTtl}, to be served when the provider throttles us (rate limit or YouTube quota).
+ * Per-provider stats are exposed as {@code cache.*{cache=spotifySearch|youtubeSearch}} plus
+ * {@code audiora.search.cache.hit.ratio{provider}}.
+ */
+@Service
+public class SearchResultCache {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+", Pattern.UNICODE_CHARACTER_CLASS);
+
+    record Key(String scope, String query, int limit) {}
+
+    private final Map<Provider, AsyncCache<Key, String>> caches = new EnumMap<>(Provider.class);
+    private final Map<Provider, Cache<Key, String>> staleCopies = new EnumMap<>(Provider.class);
+    private final long maxEntries;
+    private final Duration staleTtl;
+    private final Counter throttledServed;
+
+    public SearchResultCache(MeterRegistry meterRegistry,
+                             @Value("${app.searchCache.maxEntries:20000}") long maxEntries,
+                             @Value("${app.searchCache.spotifyTtl:10m}") Duration spotifyTtl,
+                             @Value("${app.searchCache.youtubeTtl:30m}") Duration youtubeTtl,
+                             @Value("${app.searchCache.staleTtl:24h}") Duration staleTtl) {
+        this.maxEntries = maxEntries;
+        this.staleTtl = staleTtl;
+        this.throttledServed = Counter.builder("audiora.search.cache.throttled")
+                .description("Expired search results served because the provider was rate limited or out of quota")
+                .register(meterRegistry);
+        register(meterRegistry, Provider.SPOTIFY, "spotifySearch", spotifyTtl);
+        register(meterRegistry, Provider.YOUTUBE, "youtubeSearch", youtubeTtl);
+    }
+
+    /** Unicode-normalizes, case-folds and collapses whitespace. */
+    public static String normalize(String query) {
+        if (query == null) return "";
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC);
+        // Upper then lower folds case more fully than lower alone (e.g. "ß" -> "ss")
+        normalized = normalized.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+        return WHITESPACE.matcher(normalized).replaceAll(" ").strip();
+    }
+
+    /**
+     * Returns the cached response for the normalized query, calling {@code loader} on a miss with the query
+     * as the caller wrote it: normalization only picks the entry, the provider still ranks the original
+     * (accents, punctuation, case). Concurrent callers for the same key share one load. When the load is throttled,
+     * an expired result for the key is served if one is still kept.
+     */
+    public Mono<String> get(Provider provider, String scope, String query, int limit, Function<String, Mono<String>> loader) {
+        AsyncCache<Key, String> cache = caches.get(provider);
+        Cache<Key, String> stale = staleCopies.get(provider);
+        Key key = new Key(scope == null ? "" : scope, normalize(query), limit);
+        // suppressCancel: one caller going away must not cancel the load other callers wait on
+        return Mono.fromFuture(cache.get(key, (k, executor) -> loader.apply(query)
+                        .doOnNext(body -> stale.put(k, body))
+                        .toFuture()), true)
+                .onErrorResume(UpstreamThrottledException.class, e -> {
+                    String body = stale.getIfPresent(key);
+                    if (body == null) return Mono.error(e);
+                    throttledServed.increment();
+                    return Mono.just(body);
+                });
+    }
+
+    private void register(MeterRegistry meterRegistry, Provider provider, String name, Duration ttl) {
+        AsyncCache<Key, String> cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        caches.put(provider, cache);
+        staleCopies.put(provider, Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(staleTtl)
+                .build());
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        Gauge.builder("audiora.search.cache.hit.ratio", cache, c -> c.synchronous().stats().hitRate())
+                .tag("provider", provider.name().toLowerCase())
+                .register(meterRegistry);
+    }
+}
@@ -1,110 +1,352 @@
 package com.audiora.service;
 
+import com.audiora.dto.PlaylistPage;
+import com.audiora.dto.PlaylistTrackItem;
+import com.audiora.dto.TrackDetails;
 import com.audiora.model.TokenInfo;
 import com.audiora.model.Provider;
 import com.audiora.store.InMemoryTokenStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
 @Service
 public class SpotifyApiService {
-    private final WebClient api = WebClient.create("https://api.spotify.com/v1");
+    private static final Logger log = LoggerFactory.getLogger(SpotifyApiService.class);
+    private static final int PAGE_SIZE = 50;
+    private static final Pattern CATALOG_ID = Pattern.compile("[A-Za-z0-9]{1,64}");
+
+    private final WebClient api;
     private final RefreshService refreshService;
     private final InMemoryTokenStore tokenStore;
+    private final ProviderResponseCache responseCache;
+    private final ResponseValidatorStore validators;
+    private final SearchResultCache searchCache;
+    private final PageFetchBudget pageBudget;
+    private final ProviderJsonDecoder decoder;
+    private final FieldProjection fieldProjection;
+    private final int maxPlaylistItems;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AsyncCache<String, String> markets;
+    private final AsyncCache<String, TrackDetails> trackDetails;
+    private final MicroBatcher<String, Caller, TrackDetails> trackBatcher;
 
-    public SpotifyApiService(RefreshService refreshService, InMemoryTokenStore tokenStore) {
+    /** Whose token a batched call is made with. */
+    private record Caller(TokenInfo token, String sessionId) {}
+
+    public SpotifyApiService(UpstreamClients upstreamClients, RefreshService refreshService, InMemoryTokenStore tokenStore,
+                             ProviderResponseCache responseCache, ResponseValidatorStore validators,
+                             SearchResultCache searchCache, PageFetchBudget pageBudget, ProviderJsonDecoder decoder,
+                             FieldProjection fieldProjection, MeterRegistry meterRegistry,
+                             @Value("${app.sessions.idleTtl:7d}") Duration sessionIdleTtl,
+                             @Value("${app.pagination.maxItems:10000}") int maxPlaylistItems,
+                             @Value("${app.batching.window:5ms}") Duration batchWindow,
+                             @Value("${app.batching.maxBatch:50}") int maxBatch,
+                             @Value("${app.batching.metadataMaxEntries:100000}") long metadataMaxEntries,
+                             @Value("${app.batching.metadataTtl:6h}") Duration metadataTtl) {
+        this.api = upstreamClients.spotifyApi();
         this.refreshService = refreshService;
         this.tokenStore = tokenStore;
+        this.responseCache = responseCache;
+        this.validators = validators;
+        this.searchCache = searchCache;
+        this.pageBudget = pageBudget;
+        this.decoder = decoder;
+        this.fieldProjection = fieldProjection;
+        this.maxPlaylistItems = maxPlaylistItems;
+        this.markets = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(sessionIdleTtl)
+                .buildAsync();
+        this.trackDetails = Caffeine.newBuilder()
+                .maximumSize(metadataMaxEntries)
+                .expireAfterWrite(metadataTtl)
+                .buildAsync();
+        // /tracks takes at most 50 ids
+        this.trackBatcher = new MicroBatcher<>("spotifyTracks", batchWindow, Math.min(maxBatch, 50),
+                this::fetchTrackDetails, meterRegistry);
     }
 
     private Mono<TokenInfo> ensureValid(TokenInfo token, String sessionId) {
         if (token == null) return Mono.empty();
         if (!token.isExpired()) return Mono.just(token);
-        return refreshService.refresh(Provider.SPOTIFY, token)
-                .doOnNext(t -> tokenStore.update(sessionId, Provider.SPOTIFY, t));
+        return refreshService.refresh(sessionId, Provider.SPOTIFY, token);
     }
 
-    public Mono<String> getCurrentUserPlaylistsRaw(TokenInfo token, String sessionId) {
-        return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.get()
-                .uri(uriBuilder -> uriBuilder.path("/me/playlists").queryParam("limit", 50).build())
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
-                .retrieve()
-                .bodyToMono(String.class));
+    /** Cached per session; {@code refresh} bypasses the cached copy. */
+    public Mono<String> getCurrentUserPlaylistsRaw(TokenInfo token, String sessionId, boolean refresh) {
+        return responseCache.get(ProviderResponseCache.SPOTIFY_PLAYLISTS, sessionId, "me", refresh,
+                () -> ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.get()
+                        .uri(uriBuilder -> uriBuilder.path("/me/playlists").queryParam("limit", 50).build())
+                        .attributes(UpstreamEndpoint.SPOTIFY_PLAYLISTS.attributes(sessionId))
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
+                        .retrieve()
+                        .bodyToMono(String.class)
+                        .doOnNext(raw -> recordSnapshots(sessionId, raw))));
     }
 
-    public Mono<String> getPlaylistTracksRaw(TokenInfo token, String sessionId, String playlistId) {
-        return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.get()
-                .uri(uriBuilder -> uriBuilder.path("/playlists/{playlistId}/tracks")
-                        .queryParam("limit", 50)
+    /**
+     * All tracks of the playlist, or the window of {@code limit} tracks from {@code offset} when
+     * {@code limit} is positive, as the JSON of a {@link PlaylistPage} of {@link PlaylistTrackItem}s,
+     * ready to be returned as is.
+     * After the first page reports {@code total}, the remaining pages are fetched concurrently within the
+     * {@link PageFetchBudget}. Cached per session, playlist and window; {@code refresh} bypasses the
+     * cached copy. Once the tracks have been downloaded, they are only fetched again after the playlists
+     * listing reports a new {@code snapshot_id} for the playlist (or when the listing has not been
+     * re-read since), or while Spotify is rate limiting us.
+     */
+    public Mono<String> getPlaylistTracksRaw(TokenInfo token, String sessionId, String playlistId,
+                                             int offset, int limit, boolean refresh) {
+        int start = Math.max(0, offset);
+        int end = start + (limit > 0 ? Math.min(limit, maxPlaylistItems) : maxPlaylistItems);
+        String cacheKey = limit > 0 ? playlistId + "@" + start + "+" + (end - start) : playlistId;
+        String resource = "playlistTracks:" + cacheKey;
+        return responseCache.get(ProviderResponseCache.SPOTIFY_PLAYLIST_TRACKS, sessionId, cacheKey, refresh, () -> {
+            ResponseValidatorStore.Snapshot snapshot = validators.snapshot(sessionId, playlistId);
+            ResponseValidatorStore.Stored stored = validators.get(sessionId, resource);
+            if (!refresh && snapshot != null && stored != null && snapshot.snapshotId().equals(stored.validator())
+                    && snapshot.observedAt() - stored.validatedAt() > 0) {
+                // The listing has seen this playlist unchanged since we downloaded its tracks
+                validators.revalidated(sessionId, resource, stored, snapshot.observedAt(), Provider.SPOTIFY);
+                return Mono.just(stored.body());
+            }
+            return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token))
+                    .flatMap(t -> fetchTracks(t, sessionId, playlistId, start, end))
+                    .doOnNext(raw -> {
+                        if (stored != null) validators.modified(Provider.SPOTIFY);
+                        validators.put(sessionId, resource, snapshot != null ? snapshot.snapshotId() : null, raw);
+                    })
+                    .onErrorResume(UpstreamThrottledException.class,
+                            e -> stored != null ? Mono.just(stored.body()) : Mono.error(e));
+        });
+    }
+
+    /**
+     * Streams the tracks of the playlist (or of the window, when {@code limit} is positive) as their pages
+     * arrive, without caching. Pages are fetched ahead only as far as the {@link PageFetchBudget} allows
+     * and are handed on in order, so memory stays bounded by a few pages whatever the playlist size.
+     */
+    public Flux<PlaylistTrackItem> streamPlaylistTracks(TokenInfo token, String sessionId, String playlistId, int offset, int limit) {
+        int start = Math.max(0, offset);
+        int end = start + (limit > 0 ? Math.min(limit, maxPlaylistItems) : maxPlaylistItems);
+        return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token))
+                .flatMapMany(t -> trackPages(t, sessionId, playlistId, start, end))
+                .concatMapIterable(ProviderJsonDecoder.Page::items, 1);
+    }
+
+    private Mono<String> fetchTracks(TokenInfo t, String sessionId, String playlistId, int start, int end) {
+        return trackPages(t, sessionId, playlistId, start, end)
+                .collectList()
+                .flatMap(pages -> Mono.fromCallable(() -> {
+                    List<PlaylistTrackItem> items = new ArrayList<>();
+                    for (ProviderJsonDecoder.Page<PlaylistTrackItem> page : pages) items.addAll(page.items());
+                    return objectMapper.writeValueAsString(new PlaylistPage<>(items, pages.get(0).total(), start));
+                }));
+    }
+
+    /** Reads the first page for {@code total}, then the rest of {@code [start, end)} in parallel, in order. */
+    private Flux<ProviderJsonDecoder.Page<PlaylistTrackItem>> trackPages(TokenInfo t, String sessionId, String playlistId, int start, int end) {
+        return tracksPage(t, sessionId, playlistId, start, Math.min(PAGE_SIZE, end - start)).flatMapMany(first -> {
+            int last = Math.min(end, first.total());
+            List<Integer> offsets = new ArrayList<>();
+            for (int o = start + PAGE_SIZE; o < last; o += PAGE_SIZE) offsets.add(o);
+            Flux<ProviderJsonDecoder.Page<PlaylistTrackItem>> rest = Flux.fromIterable(offsets)
+                    .flatMapSequential(o -> tracksPage(t, sessionId, playlistId, o, Math.min(PAGE_SIZE, last - o)),
+                            pageBudget.perSessionConcurrency(), 1);
+            return Flux.concat(Mono.just(first), rest);
+        });
+    }
+
+    /** One page, decoded from the response buffers without an intermediate String or tree. */
+    private Mono<ProviderJsonDecoder.Page<PlaylistTrackItem>> tracksPage(TokenInfo t, String sessionId, String playlistId,
+                                                                         int offset, int limit) {
+        return pageBudget.run(sessionId, Provider.SPOTIFY, api.get()
+                .uri(uriBuilder -> fieldProjection.apply(uriBuilder.path("/playlists/{playlistId}/tracks"),
+                                UpstreamEndpoint.SPOTIFY_PLAYLIST_TRACKS)
+                        .queryParam("offset", offset)
+                        .queryParam("limit", limit)
                         .build(playlistId))
+                .attributes(UpstreamEndpoint.SPOTIFY_PLAYLIST_TRACKS.attributes(sessionId))
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
                 .retrieve()
-                .bodyToMono(String.class));
+                .bodyToMono(DataBuffer.class)
+                .handle((buffer, sink) -> {
+                    try {
+                        sink.next(decoder.spotifyPlaylistTracks(buffer));
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                }));
+    }
+
+    /** Remembers the {@code snapshot_id} the playlists listing reports for each playlist. */
+    private void recordSnapshots(String sessionId, String raw) {
+        if (sessionId == null) return;
+        try {
+            decoder.spotifySnapshotIds(raw).forEach((playlistId, snapshotId) ->
+                    validators.recordSnapshot(sessionId, playlistId, snapshotId));
+        } catch (Exception e) {
+            log.debug("Could not read playlist snapshots: {}", e.toString());
+        }
     }
 
     public Mono<String> getPlaybackStateRaw(TokenInfo token, String sessionId) {
         return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.get()
                 .uri("/me/player")
+                .attributes(UpstreamEndpoint.SPOTIFY_PLAYER.attributes(sessionId))
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
                 .retrieve()
                 .bodyToMono(String.class));
     }
 
+    /**
+     * The status code of a player command: 429 when throttled, -1 when Spotify could not be reached. An open
+     * circuit or full bulkhead is passed on, to be answered as {@code spotify_unreachable}.
+     */
+    private static Mono<Integer> commandStatus(Mono<Integer> command) {
+        return command.onErrorResume(ex -> !(ex instanceof UpstreamUnavailableException),
+                ex -> Mono.just(ex instanceof UpstreamThrottledException ? 429 : -1));
+    }
+
     public Mono<Integer> resumeOrStartPlayback(TokenInfo token, String sessionId, String jsonBody) {
         return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> {
-            WebClient.RequestBodySpec spec = api.put().uri("/me/player/play").header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken());
+            WebClient.RequestBodySpec spec = api.put().uri("/me/player/play")
+                    .attributes(UpstreamEndpoint.SPOTIFY_PLAYER.attributes(sessionId))
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken());
             if (jsonBody != null) spec = (WebClient.RequestBodySpec) spec.bodyValue(jsonBody);
-            return spec.exchangeToMono(resp -> resp.toBodilessEntity().map(e -> resp.statusCode().value()))
-                    .onErrorResume(ex -> Mono.just(-1));
+            return commandStatus(spec.exchangeToMono(resp -> resp.toBodilessEntity().map(e -> resp.statusCode().value())));
         });
     }
 
     public Mono<Integer> pausePlayback(TokenInfo token, String sessionId) {
     return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.put()
         .uri("/me/player/pause")
+        .attributes(UpstreamEndpoint.SPOTIFY_PLAYER.attributes(sessionId))
         .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
         .exchangeToMono(resp -> resp.toBodilessEntity().map(e -> resp.statusCode().value()))
-        .onErrorResume(ex -> Mono.just(-1)));
+        .transform(SpotifyApiService::commandStatus));
     }
 
     public Mono<Integer> nextTrack(TokenInfo token, String sessionId) {
     return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.post()
         .uri("/me/player/next")
+        .attributes(UpstreamEndpoint.SPOTIFY_PLAYER.attributes(sessionId))
         .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
         .exchangeToMono(resp -> resp.toBodilessEntity().map(e -> resp.statusCode().value()))
-        .onErrorResume(ex -> Mono.just(-1)));
+        .transform(SpotifyApiService::commandStatus));
     }
 
     public Mono<Integer> previousTrack(TokenInfo token, String sessionId) {
     return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.post()
         .uri("/me/player/previous")
+        .attributes(UpstreamEndpoint.SPOTIFY_PLAYER.attributes(sessionId))
         .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
         .exchangeToMono(resp -> resp.toBodilessEntity().map(e -> resp.statusCode().value()))
-        .onErrorResume(ex -> Mono.just(-1)));
+        .transform(SpotifyApiService::commandStatus));
     }
 
+    /**
+     * Searches in the user's market, so that results can be shared through the {@link SearchResultCache}
+     * with every user of the same market. Falls back to a per-session entry when the market is unknown.
+     */
     public Mono<String> searchTracksRaw(TokenInfo token, String sessionId, String query, int limit) {
-    return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.get()
-        .uri(uriBuilder -> uriBuilder.path("/search")
-            .queryParam("type", "track")
-            .queryParam("q", query)
-            .queryParam("limit", limit)
-            .build())
-        .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
-        .retrieve()
-        .bodyToMono(String.class));
+        return market(token, sessionId).flatMap(market -> searchCache.get(Provider.SPOTIFY,
+                market.isEmpty() ? "session:" + sessionId : "market:" + market, query, limit,
+                q -> ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.get()
+                        .uri(uriBuilder -> {
+                            uriBuilder.path("/search")
+                                    .queryParam("type", "track")
+                                    .queryParam("q", q)
+                                    .queryParam("limit", limit);
+                            if (!market.isEmpty()) uriBuilder.queryParam("market", market);
+                            return uriBuilder.build();
+                        })
+                        .attributes(UpstreamEndpoint.SPOTIFY_SEARCH.attributes(sessionId))
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
+                        .retrieve()
+                        .bodyToMono(String.class))));
+    }
+
+    /**
+     * Catalog details of one track, empty when Spotify doesn't know the id. Lookups from all sessions are
+     * gathered into {@code /tracks?ids=} calls ({@link MicroBatcher}), and results are cached for
+     * {@code app.batching.metadataTtl}.
+     */
+    public Mono<TrackDetails> getTrackDetails(TokenInfo token, String sessionId, String trackId) {
+        // Ids are joined into a shared request, so a malformed one must not get that far
+        if (!CATALOG_ID.matcher(trackId).matches()) return Mono.empty();
+        return Mono.fromFuture(trackDetails.get(trackId, (id, executor) -> ensureValid(token, sessionId)
+                .switchIfEmpty(Mono.just(token))
+                .flatMap(t -> trackBatcher.load(id, new Caller(t, sessionId)))
+                .toFuture()), true);
+    }
+
+    private Mono<Map<String, TrackDetails>> fetchTrackDetails(List<String> ids, Caller caller) {
+        return api.get()
+                .uri(uriBuilder -> uriBuilder.path("/tracks").queryParam("ids", String.join(",", ids)).build())
+                .attributes(UpstreamEndpoint.SPOTIFY_TRACKS.attributes(caller.sessionId()))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + caller.token().getAccessToken())
+                .retrieve()
+                .bodyToMono(String.class)
+                .handle((raw, sink) -> {
+                    try {
+                        Map<String, TrackDetails> byId = new HashMap<>();
+                        for (TrackDetails details : decoder.spotifyTrackDetails(raw)) byId.put(details.id(), details);
+                        sink.next(byId);
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                });
+    }
+
+    /** The session user's country from {@code /v1/me}, looked up once per session; empty when unknown. */
+    private Mono<String> market(TokenInfo token, String sessionId) {
+        if (sessionId == null) return Mono.just("");
+        return Mono.fromFuture(markets.get(sessionId, (k, executor) -> ensureValid(token, sessionId)
+                        .switchIfEmpty(Mono.just(token))
+                        .flatMap(t -> api.get()
+                                .uri("/me")
+                                .attributes(UpstreamEndpoint.SPOTIFY_ME.attributes(sessionId))
+                                .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
+                                .retrieve()
+                                .bodyToMono(JsonNode.class))
+                        .map(me -> me.path("country").asText(""))
+                        .toFuture()), true)
+                .defaultIfEmpty("")
+                .onErrorResume(e -> {
+                    log.debug("Could not resolve Spotify market: {}", e.toString());
+                    return Mono.just("");
+                });
     }
 
     public Mono<Integer> transferPlayback(TokenInfo token, String sessionId, String deviceId, boolean play) {
         String body = "{\"device_ids\":[\"" + deviceId + "\"],\"play\":" + play + "}";
         return ensureValid(token, sessionId).switchIfEmpty(Mono.just(token)).flatMap(t -> api.put()
             .uri("/me/player")
+            .attributes(UpstreamEndpoint.SPOTIFY_PLAYER.attributes(sessionId))
             .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
             .header(HttpHeaders.CONTENT_TYPE, "application/json")
             .bodyValue(body)
             .exchangeToMono(resp -> resp.toBodilessEntity().map(e -> resp.statusCode().value()))
-            .onErrorResume(ex -> Mono.just(-1)));
+            .transform(SpotifyApiService::commandStatus));
     }
 }
@@ -10,8 +10,13 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 @Service
 public class SpotifyAuthService {
-    private final WebClient authClient = WebClient.create("https://accounts.spotify.com");
-    private final WebClient apiClient = WebClient.create("https://api.spotify.com");
+    private final WebClient authClient;
+    private final WebClient apiClient;
+
+    public SpotifyAuthService(UpstreamClients upstreamClients) {
+        this.authClient = upstreamClients.spotifyAccounts();
+        this.apiClient = upstreamClients.spotifyApi();
+    }
 
     public Mono<OAuthTokenResponse> exchangeCodeForToken(String clientId, String clientSecret, String redirectUri, String code) {
         return authClient.post()
@@ -28,7 +33,7 @@ public class SpotifyAuthService {
 
     public Mono<SpotifyUserInfo> getUserInfo(String accessToken) {
         return apiClient.get()
-                .uri("/v1/me")
+                .uri("/me")
                 .header("Authorization", "Bearer " + accessToken)
                 .retrieve()
                 .bodyToMono(SpotifyUserInfo.class);
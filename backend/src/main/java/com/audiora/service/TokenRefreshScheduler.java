@@ -0,0 +1,178 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+import com.audiora.model.TokenInfo;
+import com.audiora.store.InMemoryTokenStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Refreshes stored OAuth tokens shortly before they expire so that user requests rarely have to wait
+ * for an inline refresh in {@code ensureValid}.
+ * <p>
+ * Every scan picks the tokens whose expiry falls within {@code app.tokenRefresh.lead} (minus a stable
+ * per-session jitter, so sessions created together do not refresh together) and refreshes them with at
+ * most {@code app.tokenRefresh.concurrency} calls in flight. Sessions idle for longer than
+ * {@code app.tokenRefresh.maxIdle} are left alone; they refresh inline if the user ever comes back.
+ * <p>
+ * A token whose refresh fails is retried after {@code app.tokenRefresh.failureBackoff}, doubling with every
+ * further failure up to {@code failureBackoffMax}. One the provider rejects with {@code invalid_grant} (revoked
+ * or expired grant) is not refreshed in the background again; a new sign-in replaces it.
+ */
+@Service
+public class TokenRefreshScheduler {
+    private static final Logger log = LoggerFactory.getLogger(TokenRefreshScheduler.class);
+
+    private record Candidate(String sessionId, Provider provider, TokenInfo token) {}
+
+    private record FailureKey(String sessionId, Provider provider) {}
+
+    /** A token whose refresh failed, and when it may be tried again ({@link Instant#MAX}: never). */
+    private record Failure(TokenInfo token, int attempts, Instant retryAt) {}
+
+    private final InMemoryTokenStore tokenStore;
+    private final RefreshService refreshService;
+    private final AtomicBoolean running = new AtomicBoolean();
+    // Only touched by one scan and its refreshes at a time, see running
+    private final Map<FailureKey, Failure> failed = new ConcurrentHashMap<>();
+
+    private final boolean enabled;
+    private final Duration lead;
+    private final Duration jitter;
+    private final Duration maxIdle;
+    private final int concurrency;
+    private final Duration failureBackoff;
+    private final Duration failureBackoffMax;
+
+    private final Counter skippedIdle;
+    private final Counter skippedFailing;
+    private final Counter failures;
+
+    public TokenRefreshScheduler(InMemoryTokenStore tokenStore, RefreshService refreshService, MeterRegistry meterRegistry,
+                                 @Value("${app.tokenRefresh.enabled:true}") boolean enabled,
+                                 @Value("${app.tokenRefresh.lead:5m}") Duration lead,
+                                 @Value("${app.tokenRefresh.jitter:1m}") Duration jitter,
+                                 @Value("${app.tokenRefresh.maxIdle:2h}") Duration maxIdle,
+                                 @Value("${app.tokenRefresh.concurrency:8}") int concurrency,
+                                 @Value("${app.tokenRefresh.failureBackoff:1m}") Duration failureBackoff,
+                                 @Value("${app.tokenRefresh.failureBackoffMax:1h}") Duration failureBackoffMax) {
+        this.tokenStore = tokenStore;
+        this.refreshService = refreshService;
+        this.enabled = enabled;
+        this.lead = lead;
+        this.jitter = jitter;
+        this.maxIdle = maxIdle;
+        this.concurrency = Math.max(1, concurrency);
+        this.failureBackoff = failureBackoff;
+        this.failureBackoffMax = failureBackoffMax;
+        this.skippedIdle = Counter.builder("audiora.token.refresh.skipped")
+                .description("Expiring tokens not refreshed ahead of time because their session was idle")
+                .register(meterRegistry);
+        this.skippedFailing = Counter.builder("audiora.token.refresh.backoff")
+                .description("Expiring tokens not refreshed ahead of time because their last refresh failed")
+                .register(meterRegistry);
+        this.failures = Counter.builder("audiora.token.refresh.failures")
+                .description("Background token refreshes that failed")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${app.tokenRefresh.scanIntervalMs:30000}")
+    public void refreshExpiring() {
+        if (!enabled || !running.compareAndSet(false, true)) return;
+        List<Candidate> due = new ArrayList<>();
+        Set<FailureKey> stillFailing = new HashSet<>();
+        Instant now = Instant.now();
+        tokenStore.forEachToken((sessionId, provider, token, idle) -> {
+            if (provider == Provider.GOOGLE || token.getRefreshToken() == null || token.getExpiresAt() == null) return;
+            Instant refreshAt = token.getExpiresAt().minus(lead).minus(jitterFor(sessionId, provider));
+            if (now.isBefore(refreshAt)) return;
+            if (idle.compareTo(maxIdle) > 0) {
+                skippedIdle.increment();
+                return;
+            }
+            FailureKey key = new FailureKey(sessionId, provider);
+            Failure failure = failed.get(key);
+            // A failure only holds back the token that failed, not one a new sign-in stored since
+            if (failure != null && failure.token() == token) {
+                stillFailing.add(key);
+                if (now.isBefore(failure.retryAt())) {
+                    skippedFailing.increment();
+                    return;
+                }
+            }
+            due.add(new Candidate(sessionId, provider, token));
+        });
+        failed.keySet().retainAll(stillFailing);
+        if (due.isEmpty()) {
+            running.set(false);
+            return;
+        }
+        log.debug("Refreshing {} expiring tokens ahead of time", due.size());
+        Flux.fromIterable(due)
+                .flatMap(this::refresh, concurrency)
+                .doFinally(signal -> running.set(false))
+                .subscribe();
+    }
+
+    private Mono<TokenInfo> refresh(Candidate candidate) {
+        FailureKey key = new FailureKey(candidate.sessionId(), candidate.provider());
+        return refreshService.refreshAhead(candidate.sessionId(), candidate.provider(), candidate.token())
+                .doOnSuccess(token -> failed.remove(key))
+                .onErrorResume(ex -> {
+                    failures.increment();
+                    Failure previous = failed.get(key);
+                    int attempts = previous != null && previous.token() == candidate.token() ? previous.attempts() + 1 : 1;
+                    if (invalidGrant(ex)) {
+                        failed.put(key, new Failure(candidate.token(), attempts, Instant.MAX));
+                        log.warn("Background {} token refresh was refused (invalid_grant); not retrying until the user signs in again",
+                                candidate.provider());
+                    } else {
+                        Duration delay = backoff(attempts);
+                        failed.put(key, new Failure(candidate.token(), attempts, Instant.now().plus(delay)));
+                        log.warn("Background {} token refresh failed ({} in a row), retrying in {}: {}",
+                                candidate.provider(), attempts, delay, ex.getMessage());
+                    }
+                    return Mono.empty();
+                });
+    }
+
+    private Duration backoff(int attempts) {
+        Duration delay = failureBackoff.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return delay.compareTo(failureBackoffMax) > 0 ? failureBackoffMax : delay;
+    }
+
+    /** The provider rejected the refresh token itself (RFC 6749 §5.2): retrying can't help. */
+    private static boolean invalidGrant(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof WebClientResponseException response && response.getStatusCode().value() == 400
+                    && response.getResponseBodyAsString().contains("invalid_grant")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Duration jitterFor(String sessionId, Provider provider) {
+        long bound = jitter.toMillis();
+        if (bound <= 0) return Duration.ZERO;
+        return Duration.ofMillis(Math.floorMod((long) (sessionId.hashCode() * 31 + provider.ordinal()), bound));
+    }
+}
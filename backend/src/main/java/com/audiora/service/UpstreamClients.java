@@ -0,0 +1,78 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+
+/**
+ * {@link WebClient}s for each upstream provider, all sharing the pooled {@code upstreamHttpClient}.
+ * Base URLs are configurable so a local stub can stand in for a provider. Calls to the Spotify Web API and
+ * the YouTube Data API go through the {@link UpstreamScheduler}; token and user-info endpoints do not.
+ * Every client is guarded by its service's bulkhead and circuit breaker ({@link UpstreamResilience}); slow
+ * interactive GETs to the two APIs may be hedged ({@link UpstreamHedging}). The scheduler comes first, so
+ * waiting on our own rate limits neither holds a bulkhead slot nor counts as a slow call.
+ */
+@Component
+public class UpstreamClients {
+    private final WebClient spotifyApi;
+    private final WebClient spotifyAccounts;
+    private final WebClient googleOauth;
+    private final WebClient googleApis;
+    private final WebClient youtubeData;
+
+    public UpstreamClients(WebClient.Builder webClientBuilder, HttpClient upstreamHttpClient, FieldProjection fieldProjection,
+                           UpstreamScheduler scheduler, UpstreamResilience resilience,
+                           UpstreamHedging hedging,
+                           @Value("${app.upstream.maxResponseSize:4MB}") DataSize maxResponseSize,
+                           @Value("${app.upstream.spotifyApiBaseUrl:https://api.spotify.com/v1}") String spotifyApiBaseUrl,
+                           @Value("${app.upstream.spotifyAccountsBaseUrl:https://accounts.spotify.com}") String spotifyAccountsBaseUrl,
+                           @Value("${app.upstream.googleOauthBaseUrl:https://oauth2.googleapis.com}") String googleOauthBaseUrl,
+                           @Value("${app.upstream.googleApisBaseUrl:https://www.googleapis.com}") String googleApisBaseUrl) {
+        WebClient.Builder shared = webClientBuilder.clone()
+                .clientConnector(new ReactorClientHttpConnector(upstreamHttpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize((int) maxResponseSize.toBytes()))
+                .filter(fieldProjection.meter());
+        this.spotifyApi = shared.clone().baseUrl(spotifyApiBaseUrl)
+                .filters(filters -> {
+                    filters.add(0, hedging.filter());
+                    filters.add(0, resilience.filter(UpstreamService.SPOTIFY_API));
+                    filters.add(0, scheduler.filter(Provider.SPOTIFY));
+                })
+                .build();
+        this.spotifyAccounts = shared.clone().baseUrl(spotifyAccountsBaseUrl)
+                .filters(filters -> filters.add(0, resilience.filter(UpstreamService.SPOTIFY_ACCOUNTS)))
+                .build();
+        this.googleOauth = shared.clone().baseUrl(googleOauthBaseUrl)
+                .filters(filters -> filters.add(0, resilience.filter(UpstreamService.GOOGLE_OAUTH)))
+                .build();
+        this.googleApis = shared.clone().baseUrl(googleApisBaseUrl)
+                .filters(filters -> filters.add(0, resilience.filter(UpstreamService.GOOGLE_OAUTH)))
+                .build();
+        this.youtubeData = shared.clone().baseUrl(googleApisBaseUrl + "/youtube/v3")
+                .filters(filters -> {
+                    filters.add(0, hedging.filter());
+                    filters.add(0, resilience.filter(UpstreamService.YOUTUBE_DATA));
+                    filters.add(0, scheduler.filter(Provider.YOUTUBE));
+                })
+                .build();
+    }
+
+    /** Spotify Web API, rooted at {@code /v1}. */
+    public WebClient spotifyApi() { return spotifyApi; }
+
+    /** Spotify accounts service (token endpoint). */
+    public WebClient spotifyAccounts() { return spotifyAccounts; }
+
+    /** Google OAuth 2.0 token endpoints. */
+    public WebClient googleOauth() { return googleOauth; }
+
+    /** Google APIs host (user info). */
+    public WebClient googleApis() { return googleApis; }
+
+    /** YouTube Data API, rooted at {@code /youtube/v3}. */
+    public WebClient youtubeData() { return youtubeData; }
+}
@@ -0,0 +1,88 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The provider endpoints we read, each with the fields {@link ProviderJsonDecoder} actually uses.
+ * <p>
+ * {@code fields} is sent as the provider's {@code fields} parameter when projection is on; it must keep
+ * everything the decoder and the pagers read. For YouTube, {@code part} is what we request without
+ * projection and {@code projectedPart} the subset the fields come from. Spotify only supports
+ * {@code fields} on playlist endpoints, so its listing, search and track lookups are not projected.
+ * <p>
+ * {@code quotaCost} is what a call costs against the YouTube Data API daily quota; Spotify has none.
+ * {@code hedged} marks the interactive GETs {@link UpstreamHedging} may duplicate when slow; bulk page
+ * fetches and YouTube search (100 quota units a call) are never hedged.
+ */
+public enum UpstreamEndpoint {
+    SPOTIFY_PLAYLISTS(Provider.SPOTIFY, "spotify.playlists", 0, true, null, null, null),
+    SPOTIFY_PLAYLIST_TRACKS(Provider.SPOTIFY, "spotify.playlistTracks", 0, false, null, null,
+            "total,items(track(id,name,uri,duration_ms,artists(name),album(name,images(url))))"),
+    SPOTIFY_SEARCH(Provider.SPOTIFY, "spotify.search", 0, true, null, null, null),
+    SPOTIFY_TRACKS(Provider.SPOTIFY, "spotify.tracks", 0, false, null, null, null),
+    SPOTIFY_ME(Provider.SPOTIFY, "spotify.me", 0, true, null, null, null),
+    SPOTIFY_PLAYER(Provider.SPOTIFY, "spotify.player", 0, true, null, null, null),
+    YOUTUBE_PLAYLISTS(Provider.YOUTUBE, "youtube.playlists", 1, true, "snippet,contentDetails", "snippet,contentDetails",
+            "nextPageToken,pageInfo/totalResults,"
+                    + "items(id,snippet(title,thumbnails/default/url,thumbnails/medium/url),contentDetails/itemCount)"),
+    YOUTUBE_PLAYLIST_ITEMS(Provider.YOUTUBE, "youtube.playlistItems", 1, false, "snippet,contentDetails", "snippet",
+            "nextPageToken,pageInfo/totalResults,"
+                    + "items/snippet(title,channelTitle,publishedAt,position,resourceId/videoId,"
+                    + "thumbnails/default/url,thumbnails/medium/url)"),
+    YOUTUBE_SEARCH(Provider.YOUTUBE, "youtube.search", 100, false, "snippet", "snippet",
+            "items(id/videoId,snippet(title,channelTitle,thumbnails/default/url,thumbnails/medium/url))"),
+    YOUTUBE_VIDEOS(Provider.YOUTUBE, "youtube.videos", 1, false, "contentDetails,statistics,status",
+            "contentDetails,statistics,status", "items(id,contentDetails/duration,statistics/viewCount,status/embeddable)");
+
+    /** Request attribute naming the endpoint a WebClient call is for. */
+    public static final String ATTRIBUTE = UpstreamEndpoint.class.getName();
+    /** Request attribute carrying the session a WebClient call is made for, if any. */
+    public static final String SESSION_ATTRIBUTE = UpstreamEndpoint.class.getName() + ".session";
+
+    private final Provider provider;
+    private final String metricName;
+    private final int quotaCost;
+    private final boolean hedged;
+    private final String part;
+    private final String projectedPart;
+    private final String fields;
+
+    UpstreamEndpoint(Provider provider, String metricName, int quotaCost, boolean hedged,
+                     String part, String projectedPart, String fields) {
+        this.provider = provider;
+        this.metricName = metricName;
+        this.quotaCost = quotaCost;
+        this.hedged = hedged;
+        this.part = part;
+        this.projectedPart = projectedPart;
+        this.fields = fields;
+    }
+
+    /**
+     * Tags a WebClient request with this endpoint and the session it is made for:
+     * {@code .attributes(UpstreamEndpoint.X.attributes(sessionId))}.
+     */
+    public Consumer<Map<String, Object>> attributes(String sessionId) {
+        return attributes -> {
+            attributes.put(ATTRIBUTE, this);
+            if (sessionId != null) attributes.put(SESSION_ATTRIBUTE, sessionId);
+        };
+    }
+
+    public Provider provider() { return provider; }
+
+    public String metricName() { return metricName; }
+
+    public int quotaCost() { return quotaCost; }
+
+    public boolean hedged() { return hedged; }
+
+    public String part() { return part; }
+
+    public String projectedPart() { return projectedPart; }
+
+    public String fields() { return fields; }
+}
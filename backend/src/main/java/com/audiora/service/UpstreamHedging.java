@@ -0,0 +1,240 @@
+package com.audiora.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hedges slow GETs to the endpoints marked {@link UpstreamEndpoint#hedged()}: when a call has not been
+ * answered within the endpoint's recently observed p95, an identical second call is sent and whichever
+ * answers first is used; the other is cancelled.
+ * <p>
+ * Latency is tracked per endpoint as {@code audiora.upstream.latency{endpoint}} (time to response
+ * headers); no hedging happens before {@code minSamples} calls have been seen, nor sooner than
+ * {@code minDelay}. Hedges are paid from a budget that every hedgeable call tops up by
+ * {@code maxFraction}, so they stay under that fraction of traffic, and take their own rate tokens and quota
+ * from the {@link UpstreamScheduler} (no hedge when that would mean waiting). Outcomes are counted as
+ * {@code audiora.upstream.hedges{endpoint,outcome}}: {@code won} when the hedge answered first,
+ * {@code wasted} when the original did, {@code skipped} when the budget was spent.
+ */
+@Component
+public class UpstreamHedging {
+    private static final long PERCENTILE_REFRESH_NANOS = Duration.ofSeconds(1).toNanos();
+    private static final double BUDGET_CAP = 10;
+
+    private final boolean enabled;
+    private final double maxFraction;
+    private final long minDelayNanos;
+    private final long minSamples;
+    private final Map<UpstreamEndpoint, Stats> stats = new EnumMap<>(UpstreamEndpoint.class);
+    private final UpstreamScheduler scheduler;
+    private double budget;
+
+    public UpstreamHedging(MeterRegistry meterRegistry, UpstreamScheduler scheduler,
+                           @Value("${app.hedging.enabled:false}") boolean enabled,
+                           @Value("${app.hedging.maxFraction:0.05}") double maxFraction,
+                           @Value("${app.hedging.minDelay:50ms}") Duration minDelay,
+                           @Value("${app.hedging.minSamples:20}") long minSamples) {
+        this.scheduler = scheduler;
+        this.enabled = enabled;
+        this.maxFraction = maxFraction;
+        this.minDelayNanos = minDelay.toNanos();
+        this.minSamples = minSamples;
+        for (UpstreamEndpoint endpoint : UpstreamEndpoint.values()) {
+            if (endpoint.hedged()) stats.put(endpoint, new Stats(meterRegistry, endpoint));
+        }
+    }
+
+    /** The filter to install on the provider's API client, innermost: inside the circuit breaker. */
+    public ExchangeFilterFunction filter() {
+        return (request, next) -> {
+            Stats endpoint = request.method() == HttpMethod.GET
+                    && request.attribute(UpstreamEndpoint.ATTRIBUTE).orElse(null) instanceof UpstreamEndpoint e
+                    ? stats.get(e) : null;
+            if (endpoint == null) return next.exchange(request);
+            long delayNanos = enabled ? endpoint.hedgeDelayNanos() : -1;
+            if (delayNanos < 0) return endpoint.timed(next.exchange(request));
+            earn();
+            return Mono.create(sink -> new Race(sink, request, next, endpoint).start(Duration.ofNanos(delayNanos)));
+        };
+    }
+
+    private synchronized void earn() {
+        budget = Math.min(BUDGET_CAP, budget + maxFraction);
+    }
+
+    private synchronized boolean trySpend() {
+        if (budget < 1) return false;
+        budget -= 1;
+        return true;
+    }
+
+    /** Latency of one endpoint, and its p95 as the hedge delay. */
+    private final class Stats {
+        final Timer latency;
+        final Counter won;
+        final Counter wasted;
+        final Counter skipped;
+        private long p95Nanos = -1;
+        private long computedAt = System.nanoTime() - PERCENTILE_REFRESH_NANOS;
+
+        Stats(MeterRegistry meterRegistry, UpstreamEndpoint endpoint) {
+            this.latency = Timer.builder("audiora.upstream.latency")
+                    .description("Time to response headers of upstream calls, per hedgeable endpoint")
+                    .tag("endpoint", endpoint.metricName())
+                    .publishPercentiles(0.95)
+                    .distributionStatisticExpiry(Duration.ofMinutes(1))
+                    .distributionStatisticBufferLength(3)
+                    .register(meterRegistry);
+            this.won = outcome(meterRegistry, endpoint, "won");
+            this.wasted = outcome(meterRegistry, endpoint, "wasted");
+            this.skipped = outcome(meterRegistry, endpoint, "skipped");
+        }
+
+        private Counter outcome(MeterRegistry meterRegistry, UpstreamEndpoint endpoint, String outcome) {
+            return Counter.builder("audiora.upstream.hedges")
+                    .description("Hedged upstream calls, by which attempt answered first")
+                    .tag("endpoint", endpoint.metricName())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+
+        Mono<ClientResponse> timed(Mono<ClientResponse> call) {
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                return call.doOnNext(response -> latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+            });
+        }
+
+        /** Current p95, recomputed at most once a second; -1 while too few calls have been seen. */
+        synchronized long hedgeDelayNanos() {
+            long now = System.nanoTime();
+            if (now - computedAt >= PERCENTILE_REFRESH_NANOS) {
+                computedAt = now;
+                ValueAtPercentile[] percentiles = latency.takeSnapshot().percentileValues();
+                p95Nanos = latency.count() < minSamples || percentiles.length == 0
+                        ? -1 : Math.max(minDelayNanos, (long) percentiles[0].value(TimeUnit.NANOSECONDS));
+            }
+            return p95Nanos;
+        }
+    }
+
+    /** The original call and, once the delay has passed, its hedge; the first response wins. */
+    private final class Race {
+        final MonoSink<ClientResponse> sink;
+        final ClientRequest request;
+        final ExchangeFunction next;
+        final Stats stats;
+        final Disposable[] attempts = new Disposable[2];
+        Disposable timer;
+        boolean done;
+        boolean hedged;
+        int winner = -1;
+        int running;
+
+        Race(MonoSink<ClientResponse> sink, ClientRequest request, ExchangeFunction next, Stats stats) {
+            this.sink = sink;
+            this.request = request;
+            this.next = next;
+            this.stats = stats;
+        }
+
+        void start(Duration delay) {
+            sink.onCancel(this::cancel);
+            launch(0);
+            Disposable t = Mono.delay(delay).subscribe(tick -> {
+                if (trySpend() && scheduler.tryAdmitExtra(request)) launch(1);
+                else stats.skipped.increment();
+            });
+            boolean finished;
+            synchronized (this) {
+                finished = done;
+                if (!finished) timer = t;
+            }
+            if (finished) t.dispose();
+        }
+
+        void launch(int attempt) {
+            synchronized (this) {
+                if (done) return;
+                running++;
+                if (attempt == 1) hedged = true;
+            }
+            Disposable d = stats.timed(next.exchange(request))
+                    .subscribe(response -> answered(attempt, response), e -> failed(e));
+            boolean lost;
+            synchronized (this) {
+                lost = done && winner != attempt;
+                if (!lost) attempts[attempt] = d;
+            }
+            if (lost) d.dispose();
+        }
+
+        void answered(int attempt, ClientResponse response) {
+            Disposable other;
+            Disposable t;
+            boolean hedgeSent;
+            synchronized (this) {
+                if (done) {
+                    other = null;
+                    t = null;
+                    hedgeSent = false;
+                } else {
+                    done = true;
+                    winner = attempt;
+                    other = attempts[1 - attempt];
+                    t = timer;
+                    hedgeSent = hedged;
+                }
+            }
+            if (winner != attempt) {
+                // Both answered at about the same time: free the loser's connection
+                response.releaseBody().subscribe();
+                return;
+            }
+            if (t != null) t.dispose();
+            if (other != null) other.dispose();
+            if (hedgeSent) (attempt == 1 ? stats.won : stats.wasted).increment();
+            sink.success(response);
+        }
+
+        /** An attempt failed: the call fails once no other attempt is left to answer it. */
+        void failed(Throwable e) {
+            Disposable t;
+            synchronized (this) {
+                if (done || --running > 0) return;
+                done = true;
+                t = timer;
+            }
+            if (t != null) t.dispose();
+            sink.error(e);
+        }
+
+        void cancel() {
+            Disposable[] all;
+            synchronized (this) {
+                done = true;
+                all = new Disposable[] {timer, attempts[0], attempts[1]};
+            }
+            for (Disposable d : all) {
+                if (d != null) d.dispose();
+            }
+        }
+    }
+}
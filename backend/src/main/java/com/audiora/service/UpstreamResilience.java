@@ -0,0 +1,212 @@
+package com.audiora.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Isolates each {@link UpstreamService} behind its own bulkhead and circuit breaker, so a slow or failing
+ * provider only uses up its own share of connections and fails fast instead of queueing everyone.
+ * <p>
+ * The bulkhead caps calls in flight per service and how many may wait for a slot; beyond that, calls fail
+ * with {@code bulkhead_full}. The breaker looks at the last {@code windowSize} calls: errors, 5xx answers
+ * and calls slower than {@code slowCallDuration} count as failures. Past {@code failureRateThreshold}
+ * percent it opens and refuses calls ({@code circuit_open}) for {@code openDuration}, then lets
+ * {@code halfOpenCalls} trial calls through and closes once they all succeed. Refusals surface as
+ * {@link UpstreamUnavailableException}. State and refusal counts are exposed by the {@code upstreams}
+ * actuator endpoint and as {@code audiora.upstream.breaker.state} / {@code audiora.upstream.rejected}.
+ */
+@Component
+public class UpstreamResilience {
+    private static final Logger log = LoggerFactory.getLogger(UpstreamResilience.class);
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    /** One service's breaker and bulkhead, as shown by the actuator endpoint. */
+    public record Status(State state, double failureRate, int bufferedCalls, int inFlight, int queued,
+                         Map<String, Double> rejected) {}
+
+    private final Map<UpstreamService, Guard> guards = new EnumMap<>(UpstreamService.class);
+    private final long slowCallNanos;
+
+    public UpstreamResilience(MeterRegistry meterRegistry,
+                              @Value("${app.resilience.maxConcurrent:64}") int maxConcurrent,
+                              @Value("${app.resilience.maxQueued:200}") int maxQueued,
+                              @Value("${app.resilience.failureRateThreshold:50}") int failureRateThreshold,
+                              @Value("${app.resilience.slowCallDuration:3s}") Duration slowCallDuration,
+                              @Value("${app.resilience.windowSize:20}") int windowSize,
+                              @Value("${app.resilience.minimumCalls:10}") int minimumCalls,
+                              @Value("${app.resilience.openDuration:30s}") Duration openDuration,
+                              @Value("${app.resilience.halfOpenCalls:3}") int halfOpenCalls) {
+        this.slowCallNanos = slowCallDuration.toNanos();
+        for (UpstreamService service : UpstreamService.values()) {
+            Guard guard = new Guard(service, meterRegistry, maxConcurrent, maxQueued, failureRateThreshold,
+                    windowSize, minimumCalls, openDuration.toNanos(), halfOpenCalls);
+            guards.put(service, guard);
+            Gauge.builder("audiora.upstream.breaker.state", guard, g -> g.state().ordinal())
+                    .description("Circuit breaker state: 0 closed, 1 half-open, 2 open")
+                    .tag("service", service.id())
+                    .register(meterRegistry);
+            Gauge.builder("audiora.upstream.bulkhead.queued", guard.bulkhead, AsyncPermits::waiting)
+                    .description("Calls waiting for a bulkhead slot")
+                    .tag("service", service.id())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * The filter to install on every client of {@code service}: outermost, or just inside the
+     * {@link UpstreamScheduler} on the clients it paces, so its rate-limit waits are not timed here.
+     */
+    public ExchangeFilterFunction filter(UpstreamService service) {
+        Guard guard = guards.get(service);
+        return (request, next) -> Mono.defer(() -> {
+            long generation = guard.tryEnter();
+            if (generation < 0) return Mono.error(guard.reject(UpstreamUnavailableException.CIRCUIT_OPEN));
+            long[] startedAt = new long[1];
+            // Outcome of the call: null while unknown, or when it never reached the service
+            AtomicReference<Boolean> failed = new AtomicReference<>();
+            return guard.bulkhead.run(Mono.defer(() -> {
+                        startedAt[0] = System.nanoTime();
+                        return next.exchange(request);
+                    }))
+                    .doOnNext(response -> failed.set(response.statusCode().is5xxServerError()
+                            || System.nanoTime() - startedAt[0] > slowCallNanos))
+                    .doOnError(e -> {
+                        // Refused before or by the provider's rate limits: says nothing about its health
+                        if (startedAt[0] != 0 && !(e instanceof UpstreamThrottledException)) failed.set(true);
+                    })
+                    .doFinally(signal -> guard.complete(generation, signal == SignalType.CANCEL ? null : failed.get()));
+        });
+    }
+
+    /** Breaker and bulkhead state per service, by {@link UpstreamService#id()}. */
+    public Map<String, Status> status() {
+        Map<String, Status> status = new LinkedHashMap<>();
+        guards.forEach((service, guard) -> status.put(service.id(), guard.status()));
+        return status;
+    }
+
+    private static final class Guard {
+        final UpstreamService service;
+        final AsyncPermits bulkhead;
+        final Counter circuitOpen;
+        final Counter bulkheadFull;
+        private final int failureRateThreshold;
+        private final int minimumCalls;
+        private final long openNanos;
+        private final int halfOpenCalls;
+        private final boolean[] window;
+        private int index;
+        private int buffered;
+        private int failures;
+        private State state = State.CLOSED;
+        // Bumped on every transition, so calls started in an earlier state don't count towards the new one
+        private long generation;
+        private long openedAt;
+        private int trialsInFlight;
+        private int trialSuccesses;
+
+        Guard(UpstreamService service, MeterRegistry meterRegistry, int maxConcurrent, int maxQueued,
+              int failureRateThreshold, int windowSize, int minimumCalls, long openNanos, int halfOpenCalls) {
+            this.service = service;
+            this.failureRateThreshold = failureRateThreshold;
+            this.window = new boolean[Math.max(1, windowSize)];
+            this.minimumCalls = Math.max(1, Math.min(minimumCalls, window.length));
+            this.openNanos = openNanos;
+            this.halfOpenCalls = Math.max(1, halfOpenCalls);
+            this.circuitOpen = rejectedCounter(meterRegistry, UpstreamUnavailableException.CIRCUIT_OPEN);
+            this.bulkheadFull = rejectedCounter(meterRegistry, UpstreamUnavailableException.BULKHEAD_FULL);
+            this.bulkhead = new AsyncPermits(maxConcurrent, maxQueued,
+                    () -> reject(UpstreamUnavailableException.BULKHEAD_FULL));
+        }
+
+        private Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+            return Counter.builder("audiora.upstream.rejected")
+                    .description("Upstream calls refused by the circuit breaker or bulkhead")
+                    .tag("service", service.id())
+                    .tag("reason", reason)
+                    .register(meterRegistry);
+        }
+
+        UpstreamUnavailableException reject(String reason) {
+            (UpstreamUnavailableException.CIRCUIT_OPEN.equals(reason) ? circuitOpen : bulkheadFull).increment();
+            return new UpstreamUnavailableException(service, reason);
+        }
+
+        /** The generation the call runs in, or -1 when the breaker refuses it. */
+        synchronized long tryEnter() {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) return -1;
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialsInFlight >= halfOpenCalls) return -1;
+                trialsInFlight++;
+            }
+            return generation;
+        }
+
+        /** Records a call's outcome; {@code failed} is null when it tells nothing about the service. */
+        synchronized void complete(long callGeneration, Boolean failed) {
+            if (callGeneration != generation) return;
+            if (state == State.HALF_OPEN) {
+                trialsInFlight--;
+                if (failed == null) return;
+                if (failed) transition(State.OPEN);
+                else if (++trialSuccesses >= halfOpenCalls) transition(State.CLOSED);
+                return;
+            }
+            if (failed == null) return;
+            if (buffered == window.length) {
+                if (window[index]) failures--;
+            } else {
+                buffered++;
+            }
+            window[index] = failed;
+            if (failed) failures++;
+            index = (index + 1) % window.length;
+            if (buffered >= minimumCalls && failures * 100 >= failureRateThreshold * buffered) transition(State.OPEN);
+        }
+
+        private void transition(State next) {
+            if (next == State.OPEN) {
+                log.warn("Circuit for {} opened, refusing calls for {}s", service.id(), Duration.ofNanos(openNanos).toSeconds());
+                openedAt = System.nanoTime();
+            } else if (next == State.CLOSED) {
+                log.info("Circuit for {} closed", service.id());
+            }
+            state = next;
+            generation++;
+            index = 0;
+            buffered = 0;
+            failures = 0;
+            trialsInFlight = 0;
+            trialSuccesses = 0;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        synchronized Status status() {
+            return new Status(state, buffered == 0 ? 0 : (double) failures / buffered, buffered,
+                    bulkhead.inUse(), bulkhead.waiting(),
+                    Map.of(UpstreamUnavailableException.CIRCUIT_OPEN, circuitOpen.count(),
+                            UpstreamUnavailableException.BULKHEAD_FULL, bulkheadFull.count()));
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Paces calls to the Spotify and YouTube APIs so that we slow down before the providers make us.
+ * <p>
+ * Every call takes a token from the provider's app-wide bucket and from the calling session's bucket,
+ * waiting (without blocking a thread) when either is empty. A 429 pauses all calls to the provider for its
+ * {@code Retry-After}; GETs are retried once when that pause is short. Calls in flight per provider are
+ * capped by a limit that grows by one per round of successful calls and halves on a 429 or 503. YouTube
+ * calls are charged to the {@link YouTubeQuotaLedger}, once per call however often it is retried. A call
+ * cancelled before it is sent gets its tokens and quota back. A call that would have to wait longer than
+ * {@code app.rateLimit.maxWait}, or has no quota left, fails with an {@link UpstreamThrottledException}
+ * instead, which the caches answer from their last copy where they have one.
+ */
+@Component
+public class UpstreamScheduler {
+    private static final Logger log = LoggerFactory.getLogger(UpstreamScheduler.class);
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+    // Several calls in flight see the same overload; one halving per interval is enough
+    private static final long DECREASE_INTERVAL_NANOS = Duration.ofSeconds(1).toNanos();
+
+    record Key(String sessionId, Provider provider) {}
+
+    private record Rates(double appRate, double appBurst, double userRate, double userBurst) {}
+
+    /** Why a call was slowed down or refused; the {@code cause} tag of {@code audiora.upstream.throttled}. */
+    private enum Cause { WAIT_EXCEEDED, QUOTA, RETRY_AFTER, UNAVAILABLE, QUOTA_EXCEEDED }
+
+    /** What {@link #admit} took for a call, to give back if it is never sent. */
+    private record Admission(long waitNanos, TokenBucket user, int quotaCost) {}
+
+    private final Map<Provider, Host> hosts = new EnumMap<>(Provider.class);
+    private final Cache<Key, TokenBucket> userBuckets;
+    private final YouTubeQuotaLedger quota;
+    private final long maxWaitNanos;
+
+    public UpstreamScheduler(MeterRegistry meterRegistry, YouTubeQuotaLedger quota,
+                             @Value("${app.rateLimit.maxWait:5s}") Duration maxWait,
+                             @Value("${app.rateLimit.spotify.appRate:50}") double spotifyAppRate,
+                             @Value("${app.rateLimit.spotify.appBurst:100}") double spotifyAppBurst,
+                             @Value("${app.rateLimit.spotify.userRate:20}") double spotifyUserRate,
+                             @Value("${app.rateLimit.spotify.userBurst:50}") double spotifyUserBurst,
+                             @Value("${app.rateLimit.youtube.appRate:50}") double youtubeAppRate,
+                             @Value("${app.rateLimit.youtube.appBurst:100}") double youtubeAppBurst,
+                             @Value("${app.rateLimit.youtube.userRate:20}") double youtubeUserRate,
+                             @Value("${app.rateLimit.youtube.userBurst:50}") double youtubeUserBurst,
+                             @Value("${app.rateLimit.concurrency.initial:32}") int initialLimit,
+                             @Value("${app.rateLimit.concurrency.min:4}") int minLimit,
+                             @Value("${app.rateLimit.concurrency.max:128}") int maxLimit) {
+        this.quota = quota;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.userBuckets = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+        Map<Provider, Rates> rates = Map.of(
+                Provider.SPOTIFY, new Rates(spotifyAppRate, spotifyAppBurst, spotifyUserRate, spotifyUserBurst),
+                Provider.YOUTUBE, new Rates(youtubeAppRate, youtubeAppBurst, youtubeUserRate, youtubeUserBurst));
+        rates.forEach((provider, providerRates) -> {
+            Host host = new Host(provider, providerRates, meterRegistry, initialLimit, minLimit, maxLimit);
+            hosts.put(provider, host);
+            Gauge.builder("audiora.upstream.concurrency.limit", host.permits, AsyncPermits::limit)
+                    .description("Adaptive limit on calls in flight to the provider")
+                    .tag("provider", provider.name().toLowerCase())
+                    .register(meterRegistry);
+        });
+    }
+
+    /** The filter to install, outermost (outside the breaker and bulkhead), on the provider's API client. */
+    public ExchangeFilterFunction filter(Provider provider) {
+        Host host = hosts.get(provider);
+        return (request, next) -> attempt(host, request, next, true);
+    }
+
+    /**
+     * Takes the tokens and quota of an extra attempt of a call already under way (a hedge), only if they are
+     * there right away; false when the extra attempt must not be sent.
+     */
+    public boolean tryAdmitExtra(ClientRequest request) {
+        if (!(request.attribute(UpstreamEndpoint.ATTRIBUTE).orElse(null) instanceof UpstreamEndpoint endpoint)) return false;
+        String sessionId = request.attribute(UpstreamEndpoint.SESSION_ATTRIBUTE).orElse(null) instanceof String s ? s : null;
+        Host host = hosts.get(endpoint.provider());
+        long now = System.nanoTime();
+        if (host == null || host.pausedUntil - now > 0) return false;
+        TokenBucket user = sessionId == null ? null : userBuckets.get(new Key(sessionId, host.provider), k -> host.userBucket());
+        long waitNanos = host.appBucket.reserve(now);
+        if (user != null) waitNanos = Math.max(waitNanos, user.reserve(now));
+        if (waitNanos > 0 || !quota.tryCharge(endpoint.quotaCost())) {
+            host.appBucket.refund();
+            if (user != null) user.refund();
+            return false;
+        }
+        return true;
+    }
+
+    /** The first attempt of a call charges its quota; the retry after a 429 only takes rate tokens. */
+    private Mono<ClientResponse> attempt(Host host, ClientRequest request, ExchangeFunction next, boolean mayRetry) {
+        UpstreamEndpoint endpoint = request.attribute(UpstreamEndpoint.ATTRIBUTE).orElse(null) instanceof UpstreamEndpoint e ? e : null;
+        String sessionId = request.attribute(UpstreamEndpoint.SESSION_ATTRIBUTE).orElse(null) instanceof String s ? s : null;
+        return Mono.defer(() -> {
+                    Admission admission = admit(host, endpoint, sessionId, mayRetry);
+                    AtomicBoolean sent = new AtomicBoolean();
+                    Mono<ClientResponse> send = host.permits.run(Mono.defer(() -> {
+                        sent.set(true);
+                        return next.exchange(request);
+                    }));
+                    long waitNanos = admission.waitNanos();
+                    return (waitNanos > 0 ? Mono.delay(Duration.ofNanos(waitNanos)).then(send) : send)
+                            // Cancelled while waiting for its turn: nothing went out, so nothing is spent
+                            .doOnCancel(() -> {
+                                if (!sent.get()) release(host, admission);
+                            });
+                })
+                .flatMap(response -> onResponse(host, request, next, response, mayRetry));
+    }
+
+    /**
+     * Takes the call's tokens, and its quota when {@code charge}; returns how long to wait before sending
+     * it and what to give back should it never be sent.
+     */
+    private Admission admit(Host host, UpstreamEndpoint endpoint, String sessionId, boolean charge) {
+        long now = System.nanoTime();
+        TokenBucket user = sessionId == null ? null : userBuckets.get(new Key(sessionId, host.provider), k -> host.userBucket());
+        long waitNanos = Math.max(0, host.pausedUntil - now);
+        waitNanos = Math.max(waitNanos, host.appBucket.reserve(now));
+        if (user != null) waitNanos = Math.max(waitNanos, user.reserve(now));
+        if (waitNanos > maxWaitNanos) {
+            host.appBucket.refund();
+            if (user != null) user.refund();
+            throw throttled(host, Cause.WAIT_EXCEEDED, UpstreamThrottledException.RATE_LIMITED, Duration.ofNanos(waitNanos));
+        }
+        int quotaCost = charge && endpoint != null ? endpoint.quotaCost() : 0;
+        if (!quota.tryCharge(quotaCost)) {
+            host.appBucket.refund();
+            if (user != null) user.refund();
+            throw throttled(host, Cause.QUOTA, UpstreamThrottledException.QUOTA_EXHAUSTED, quota.untilReset());
+        }
+        return new Admission(waitNanos, user, quotaCost);
+    }
+
+    private void release(Host host, Admission admission) {
+        host.appBucket.refund();
+        if (admission.user() != null) admission.user().refund();
+        quota.refund(admission.quotaCost());
+    }
+
+    private Mono<ClientResponse> onResponse(Host host, ClientRequest request, ExchangeFunction next,
+                                            ClientResponse response, boolean mayRetry) {
+        int status = response.statusCode().value();
+        if (status == 429) {
+            Duration retryAfter = retryAfter(response.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+            log.debug("{} answered 429, pausing for {}", host.provider, retryAfter);
+            host.pause(retryAfter);
+            host.decrease();
+            count(host, Cause.RETRY_AFTER);
+            // Writes go back to the caller as they are: it reports the status itself
+            if (request.method() != HttpMethod.GET) return Mono.just(response);
+            if (mayRetry && retryAfter.toNanos() <= maxWaitNanos) {
+                return response.releaseBody().then(attempt(host, request, next, false));
+            }
+            return response.releaseBody().then(Mono.error(new UpstreamThrottledException(
+                    host.provider, UpstreamThrottledException.RATE_LIMITED, retryAfter)));
+        }
+        if (status == 503) {
+            String retryAfter = response.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+            if (retryAfter != null) host.pause(retryAfter(retryAfter));
+            host.decrease();
+            count(host, Cause.UNAVAILABLE);
+            return Mono.just(response);
+        }
+        if (status == 403 && host.provider == Provider.YOUTUBE) {
+            // Quota and rate errors are 403s whose reason is only in the body
+            return response.bodyToMono(String.class).defaultIfEmpty("").flatMap(body -> {
+                if (body.contains("quotaExceeded") || body.contains("dailyLimitExceeded")) {
+                    log.warn("YouTube reports the daily quota as exceeded; serving cached results until the reset");
+                    quota.exhaust();
+                    count(host, Cause.QUOTA_EXCEEDED);
+                    return Mono.error(new UpstreamThrottledException(
+                            host.provider, UpstreamThrottledException.QUOTA_EXHAUSTED, quota.untilReset()));
+                }
+                if (body.toLowerCase(Locale.ROOT).contains("ratelimitexceeded")) {
+                    host.pause(DEFAULT_RETRY_AFTER);
+                    host.decrease();
+                    count(host, Cause.RETRY_AFTER);
+                }
+                return Mono.just(response.mutate().body(body).build());
+            });
+        }
+        if (status < 500) host.increase();
+        return Mono.just(response);
+    }
+
+    private UpstreamThrottledException throttled(Host host, Cause cause, String reason, Duration retryAfter) {
+        count(host, cause);
+        return new UpstreamThrottledException(host.provider, reason, retryAfter);
+    }
+
+    private static void count(Host host, Cause cause) {
+        host.throttled.get(cause).increment();
+    }
+
+    /** A {@code Retry-After} value, in seconds or as an HTTP date; one second when absent or unreadable. */
+    static Duration retryAfter(String value) {
+        if (value == null || value.isBlank()) return DEFAULT_RETRY_AFTER;
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException ignored) {
+            // Not delta-seconds; try the date form
+        }
+        try {
+            Duration until = Duration.between(Instant.now(), ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            return until.isNegative() ? Duration.ZERO : until;
+        } catch (DateTimeParseException e) {
+            return DEFAULT_RETRY_AFTER;
+        }
+    }
+
+    /** Per-provider state: app-wide bucket, {@code Retry-After} pause and adaptive concurrency limit. */
+    private static final class Host {
+        final Provider provider;
+        final Rates rates;
+        final TokenBucket appBucket;
+        final AsyncPermits permits;
+        final Map<Cause, Counter> throttled = new EnumMap<>(Cause.class);
+        final int minLimit;
+        final int maxLimit;
+        volatile long pausedUntil = System.nanoTime();
+        private double estimate;
+        private long lastDecrease = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+
+        Host(Provider provider, Rates rates, MeterRegistry meterRegistry, int initialLimit, int minLimit, int maxLimit) {
+            this.provider = provider;
+            this.rates = rates;
+            this.appBucket = new TokenBucket(rates.appRate(), rates.appBurst());
+            for (Cause cause : Cause.values()) {
+                throttled.put(cause, Counter.builder("audiora.upstream.throttled")
+                        .description("Upstream calls slowed down or refused because of provider rate limits and quota, by cause")
+                        .tag("provider", provider.name().toLowerCase())
+                        .tag("cause", cause.name().toLowerCase(Locale.ROOT))
+                        .register(meterRegistry));
+            }
+            this.minLimit = Math.max(1, minLimit);
+            this.maxLimit = Math.max(this.minLimit, maxLimit);
+            this.estimate = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+            this.permits = new AsyncPermits((int) estimate);
+        }
+
+        TokenBucket userBucket() {
+            return new TokenBucket(rates.userRate(), rates.userBurst());
+        }
+
+        synchronized void pause(Duration duration) {
+            long until = System.nanoTime() + duration.toNanos();
+            if (until - pausedUntil > 0) pausedUntil = until;
+        }
+
+        /** Additive increase: about one more permit per limit's worth of successful calls. */
+        void increase() {
+            int limit;
+            synchronized (this) {
+                estimate = Math.min(maxLimit, estimate + 1.0 / estimate);
+                limit = (int) estimate;
+            }
+            if (limit != permits.limit()) permits.setLimit(limit);
+        }
+
+        /** Multiplicative decrease, at most once per interval. */
+        void decrease() {
+            int limit;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (now - lastDecrease < DECREASE_INTERVAL_NANOS) return;
+                lastDecrease = now;
+                estimate = Math.max(minLimit, estimate / 2);
+                limit = (int) estimate;
+            }
+            permits.setLimit(limit);
+        }
+    }
+
+    /**
+     * Token bucket that hands out reservations: taking a token from an empty bucket drives it negative
+     * and returns how long until that token would have been there. A rate of zero or less means no limit.
+     */
+    static final class TokenBucket {
+        private final double perNano;
+        private final double burst;
+        private double tokens;
+        private long updatedAt = System.nanoTime();
+
+        TokenBucket(double perSecond, double burst) {
+            this.perNano = perSecond / 1e9;
+            this.burst = Math.max(1, burst);
+            this.tokens = this.burst;
+        }
+
+        synchronized long reserve(long now) {
+            if (perNano <= 0) return 0;
+            tokens = Math.min(burst, tokens + (now - updatedAt) * perNano);
+            updatedAt = now;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) (-tokens / perNano);
+        }
+
+        synchronized void refund() {
+            if (perNano > 0) tokens = Math.min(burst, tokens + 1);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+
+/**
+ * The upstream services we call, each isolated behind its own bulkhead and circuit breaker
+ * ({@link UpstreamResilience}). Google user info is part of the Google sign-in flow, so it shares
+ * {@link #GOOGLE_OAUTH} with the token endpoints.
+ */
+public enum UpstreamService {
+    SPOTIFY_API("spotifyApi", Provider.SPOTIFY),
+    SPOTIFY_ACCOUNTS("spotifyAccounts", Provider.SPOTIFY),
+    GOOGLE_OAUTH("googleOauth", Provider.YOUTUBE),
+    YOUTUBE_DATA("youtubeData", Provider.YOUTUBE);
+
+    private final String id;
+    private final Provider provider;
+
+    UpstreamService(String id, Provider provider) {
+        this.id = id;
+        this.provider = provider;
+    }
+
+    /** Name used in metrics tags and the {@code upstreams} actuator endpoint. */
+    public String id() { return id; }
+
+    /** The provider whose endpoints break when this service is unavailable. */
+    public Provider provider() { return provider; }
+}
@@ -0,0 +1,32 @@
+package com.audiora.service;
+
+import com.audiora.model.Provider;
+
+import java.time.Duration;
+
+/**
+ * A provider call that was not made, or was refused, because of rate limiting: either the provider asked
+ * us to back off for longer than we are willing to wait ({@code rate_limited}), or the YouTube daily quota
+ * is spent ({@code quota_exhausted}). {@code retryAfter} is when trying again makes sense.
+ */
+public class UpstreamThrottledException extends RuntimeException {
+    public static final String RATE_LIMITED = "rate_limited";
+    public static final String QUOTA_EXHAUSTED = "quota_exhausted";
+
+    private final Provider provider;
+    private final String reason;
+    private final Duration retryAfter;
+
+    public UpstreamThrottledException(Provider provider, String reason, Duration retryAfter) {
+        super(provider.name().toLowerCase() + " " + reason + ", retry after " + retryAfter.toSeconds() + "s", null, false, false);
+        this.provider = provider;
+        this.reason = reason;
+        this.retryAfter = retryAfter;
+    }
+
+    public Provider getProvider() { return provider; }
+
+    public String getReason() { return reason; }
+
+    public Duration getRetryAfter() { return retryAfter; }
+}
@@ -0,0 +1,28 @@
+package com.audiora.service;
+
+/**
+ * A call refused without reaching the upstream service: its circuit breaker is open
+ * ({@code circuit_open}) or its bulkhead queue is full ({@code bulkhead_full}).
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+    public static final String CIRCUIT_OPEN = "circuit_open";
+    public static final String BULKHEAD_FULL = "bulkhead_full";
+
+    private final UpstreamService service;
+    private final String reason;
+
+    public UpstreamUnavailableException(UpstreamService service, String reason) {
+        super(service.id() + " " + reason, null, false, false);
+        this.service = service;
+        this.reason = reason;
+    }
+
+    public UpstreamService getService() { return service; }
+
+    public String getReason() { return reason; }
+
+    /** The error body our API has always returned when this provider can't be reached. */
+    public String errorCode() {
+        return service.provider().name().toLowerCase() + "_unreachable";
+    }
+}
@@ -1,25 +1,38 @@
 package com.audiora.service;
 
 import com.audiora.model.User;
+import com.audiora.store.DurableJournal;
+import com.audiora.store.JournalParticipant;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.Optional;
 
 @Service
-public class UserService {
+public class UserService implements JournalParticipant {
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
     private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
     private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
     private final EmailService emailService;
+    private final DurableJournal journal;
 
     @Autowired
-    public UserService(EmailService emailService) {
+    public UserService(EmailService emailService, DurableJournal journal) {
         this.emailService = emailService;
+        this.journal = journal;
     }
 
     /**
@@ -38,7 +51,7 @@ public class UserService {
         newUser.setVerificationCode(generateVerificationCode());
         newUser.setVerificationCodeExpiry(Instant.now().plus(15, ChronoUnit.MINUTES)); // 15 minutes expiry
 
-        users.put(userId, newUser);
+        store(newUser);
 
         // Send verification email
         sendVerificationEmail(newUser);
@@ -69,8 +82,10 @@ public class UserService {
         if (userOpt.isPresent()) {
             User user = userOpt.get();
             if (user.getPasswordHash() != null && passwordEncoder.matches(password, user.getPasswordHash())) {
-                user.setLastLoginAt(Instant.now());
-                return Optional.of(user);
+                return Optional.ofNullable(update(user.getId(), u -> {
+                    u.setLastLoginAt(Instant.now());
+                    return true;
+                }));
             }
         }
         return Optional.empty();
@@ -82,17 +97,19 @@ public class UserService {
     public boolean verifyEmail(String email, String verificationCode) {
         Optional<User> userOpt = getUserByEmail(email);
         if (userOpt.isPresent()) {
-            User user = userOpt.get();
-            if (user.getVerificationCode() != null &&
-                user.getVerificationCode().equals(verificationCode) &&
-                user.getVerificationCodeExpiry() != null &&
-                user.getVerificationCodeExpiry().isAfter(Instant.now())) {
-
-                user.setEmailVerified(true);
-                user.setVerificationCode(null);
-                user.setVerificationCodeExpiry(null);
-                return true;
-            }
+            return update(userOpt.get().getId(), user -> {
+                if (user.getVerificationCode() != null &&
+                    user.getVerificationCode().equals(verificationCode) &&
+                    user.getVerificationCodeExpiry() != null &&
+                    user.getVerificationCodeExpiry().isAfter(Instant.now())) {
+
+                    user.setEmailVerified(true);
+                    user.setVerificationCode(null);
+                    user.setVerificationCodeExpiry(null);
+                    return true;
+                }
+                return false;
+            }) != null;
         }
         return false;
     }
@@ -103,15 +120,18 @@ public class UserService {
     public String generateNewVerificationCode(String email) {
         Optional<User> userOpt = getUserByEmail(email);
         if (userOpt.isPresent()) {
-            User user = userOpt.get();
             String newCode = generateVerificationCode();
-            user.setVerificationCode(newCode);
-            user.setVerificationCodeExpiry(Instant.now().plus(15, ChronoUnit.MINUTES)); // 15 minutes expiry
-
-            // Send verification email
-            sendVerificationEmail(user);
+            User user = update(userOpt.get().getId(), u -> {
+                u.setVerificationCode(newCode);
+                u.setVerificationCodeExpiry(Instant.now().plus(15, ChronoUnit.MINUTES)); // 15 minutes expiry
+                return true;
+            });
+            if (user != null) {
+                // Send verification email
+                sendVerificationEmail(user);
 
-            return newCode;
+                return newCode;
+            }
         }
         throw new RuntimeException("User not found with email: " + email);
     }
@@ -124,28 +144,25 @@ public class UserService {
      * Create or update a user from Google OAuth information
      */
     public User createOrUpdateUser(String googleId, String email, String name, String picture, String givenName, String familyName, boolean emailVerified) {
-        User existingUser = users.get(googleId);
-
-        if (existingUser != null) {
-            // Update existing user
-            existingUser.setEmail(email);
-            existingUser.setName(name);
-            existingUser.setPicture(picture);
-            existingUser.setGivenName(givenName);
-            existingUser.setFamilyName(familyName);
-            existingUser.setEmailVerified(emailVerified);
-            existingUser.setLastLoginAt(Instant.now());
-            return existingUser;
-        } else {
-            // Create new user
-            User newUser = new User(googleId, email, name);
-            newUser.setPicture(picture);
-            newUser.setGivenName(givenName);
-            newUser.setFamilyName(familyName);
-            newUser.setEmailVerified(emailVerified);
-            users.put(googleId, newUser);
-            return newUser;
-        }
+        return logged(() -> users.compute(googleId, (id, existingUser) -> {
+            User user;
+            if (existingUser != null) {
+                // Update existing user
+                user = copy(existingUser);
+                user.setEmail(email);
+                user.setName(name);
+                user.setLastLoginAt(Instant.now());
+            } else {
+                // Create new user
+                user = new User(googleId, email, name);
+            }
+            user.setPicture(picture);
+            user.setGivenName(givenName);
+            user.setFamilyName(familyName);
+            user.setEmailVerified(emailVerified);
+            journal.append(putRecord(user));
+            return user;
+        }));
     }
 
     /**
@@ -168,7 +185,17 @@ public class UserService {
      * Delete user
      */
     public boolean deleteUser(String userId) {
-        return users.remove(userId) != null;
+        DurableJournal.Frame record = journal.encode(this, out -> {
+            out.writeByte(RECORD_REMOVE);
+            out.writeUTF(userId);
+        });
+        boolean[] removed = new boolean[1];
+        logged(() -> users.computeIfPresent(userId, (id, user) -> {
+            journal.append(record);
+            removed[0] = true;
+            return null;
+        }));
+        return removed[0];
     }
 
     /**
@@ -184,4 +211,111 @@ public class UserService {
     public boolean userExists(String userId) {
         return users.containsKey(userId);
     }
+
+    // ============ Persistence ============
+
+    @Override
+    public String journalName() {
+        return "users";
+    }
+
+    @Override
+    public void writeSnapshot(DurableJournal.RecordSink sink) throws IOException {
+        for (User user : users.values()) {
+            sink.write(out -> writeUser(out, user));
+        }
+    }
+
+    @Override
+    public void replay(DataInput in) throws IOException {
+        if (in.readByte() == RECORD_REMOVE) {
+            users.remove(in.readUTF());
+            return;
+        }
+        User user = new User();
+        user.setId(in.readUTF());
+        user.setEmail(DurableJournal.readString(in));
+        user.setName(DurableJournal.readString(in));
+        user.setPicture(DurableJournal.readString(in));
+        user.setGivenName(DurableJournal.readString(in));
+        user.setFamilyName(DurableJournal.readString(in));
+        user.setEmailVerified(in.readBoolean());
+        user.setPasswordHash(DurableJournal.readString(in));
+        user.setVerificationCode(DurableJournal.readString(in));
+        user.setVerificationCodeExpiry(DurableJournal.readInstant(in));
+        user.setCreatedAt(DurableJournal.readInstant(in));
+        user.setLastLoginAt(DurableJournal.readInstant(in));
+        users.put(user.getId(), user);
+    }
+
+    /**
+     * User changes are made on a copy inside {@code users.compute}, which encodes and appends the journal
+     * record before the copy replaces the stored user: the log sees one user's changes in the order they
+     * were applied, and a change that can't be logged never reaches memory. The compute runs under the
+     * journal's change lock ({@link #logged}).
+     */
+    private void store(User user) {
+        logged(() -> users.compute(user.getId(), (id, existing) -> {
+            journal.append(putRecord(user));
+            return user;
+        }));
+    }
+
+    /** Applies {@code change} to the user as above; null if there is no such user or it declined. */
+    private User update(String userId, Predicate<User> change) {
+        User[] updated = new User[1];
+        logged(() -> users.computeIfPresent(userId, (id, current) -> {
+            User user = copy(current);
+            if (!change.test(user)) return current;
+            journal.append(putRecord(user));
+            updated[0] = user;
+            return user;
+        }));
+        return updated[0];
+    }
+
+    /** Runs a change of {@code users} under {@link DurableJournal#changeLock}, so no snapshot splits it from its record. */
+    private <T> T logged(Supplier<T> change) {
+        Lock lock = journal.changeLock();
+        lock.lock();
+        try {
+            return change.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private DurableJournal.Frame putRecord(User user) {
+        return journal.encode(this, out -> writeUser(out, user));
+    }
+
+    private static User copy(User user) {
+        User copy = new User(user.getId(), user.getEmail(), user.getName());
+        copy.setPicture(user.getPicture());
+        copy.setGivenName(user.getGivenName());
+        copy.setFamilyName(user.getFamilyName());
+        copy.setEmailVerified(user.isEmailVerified());
+        copy.setPasswordHash(user.getPasswordHash());
+        copy.setVerificationCode(user.getVerificationCode());
+        copy.setVerificationCodeExpiry(user.getVerificationCodeExpiry());
+        copy.setCreatedAt(user.getCreatedAt());
+        copy.setLastLoginAt(user.getLastLoginAt());
+        return copy;
+    }
+
+    private static void writeUser(DataOutput out, User user) throws IOException {
+        out.writeByte(RECORD_PUT);
+        out.writeUTF(user.getId());
+        DurableJournal.writeString(out, user.getEmail());
+        DurableJournal.writeString(out, user.getName());
+        DurableJournal.writeString(out, user.getPicture());
+        DurableJournal.writeString(out, user.getGivenName());
+        DurableJournal.writeString(out, user.getFamilyName());
+        out.writeBoolean(user.isEmailVerified());
+        DurableJournal.writeString(out, user.getPasswordHash());
+        DurableJournal.writeString(out, user.getVerificationCode());
+        DurableJournal.writeInstant(out, user.getVerificationCodeExpiry());
+        DurableJournal.writeInstant(out, user.getCreatedAt());
+        DurableJournal.writeInstant(out, user.getLastLoginAt());
+    }
 }
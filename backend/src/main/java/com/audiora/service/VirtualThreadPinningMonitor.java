@@ -0,0 +1,113 @@
+package com.audiora.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports virtual threads that pin their carrier thread (blocking inside {@code synchronized} or a
+ * native frame) for longer than {@code app.virtualThreads.pinnedThreshold}.
+ * <p>
+ * Runs only in virtual-thread mode ({@code spring.threads.virtual.enabled=true}). Pinning events come
+ * from a JFR stream; each is attributed to the innermost {@code com.audiora} frame on the stack (our hot
+ * path), counted in {@code audiora.vthreads.pinned} and timed in {@code audiora.vthreads.pinned.duration}.
+ * The first occurrence per frame is logged with its stack.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor implements InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final String APP_PACKAGE = "com.audiora.";
+    private static final int LOGGED_FRAMES = 12;
+
+    /** A pinning site's meters, registered the first time it is seen. */
+    private record SiteMeters(Counter pinned, Timer duration) {}
+
+    private final MeterRegistry meterRegistry;
+    private final Duration threshold;
+    private final Map<String, SiteMeters> sites = new ConcurrentHashMap<>();
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(MeterRegistry meterRegistry,
+                                       @Value("${app.virtualThreads.pinnedThreshold:20ms}") Duration threshold) {
+        this.meterRegistry = meterRegistry;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+        stream.startAsync();
+        log.info("Virtual thread pinning monitor started (threshold {})", threshold);
+    }
+
+    @Override
+    public void destroy() {
+        if (stream != null) stream.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        String site = pinnedAt(event.getStackTrace());
+        SiteMeters meters = sites.get(site);
+        if (meters == null) {
+            // Events arrive on the stream's one thread, so this is the site's first occurrence
+            meters = new SiteMeters(
+                    Counter.builder("audiora.vthreads.pinned")
+                            .description("Virtual threads that pinned their carrier longer than the threshold")
+                            .tag("site", site)
+                            .register(meterRegistry),
+                    Timer.builder("audiora.vthreads.pinned.duration")
+                            .tag("site", site)
+                            .register(meterRegistry));
+            sites.put(site, meters);
+            log.warn("Virtual thread pinned its carrier for {} ms at {}{}", event.getDuration().toMillis(), site,
+                    describe(event.getStackTrace()));
+        }
+        meters.pinned().increment();
+        meters.duration().record(event.getDuration());
+    }
+
+    /** Innermost application frame, or the top frame when the pin happened outside our code. */
+    private static String pinnedAt(RecordedStackTrace trace) {
+        if (trace == null || trace.getFrames().isEmpty()) return "unknown";
+        for (RecordedFrame frame : trace.getFrames()) {
+            if (frame.isJavaFrame() && frame.getMethod().getType().getName().startsWith(APP_PACKAGE)) {
+                return frameName(frame);
+            }
+        }
+        return frameName(trace.getFrames().get(0));
+    }
+
+    private static String frameName(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+    }
+
+    private static String describe(RecordedStackTrace trace) {
+        if (trace == null) return "";
+        StringBuilder sb = new StringBuilder();
+        List<RecordedFrame> frames = trace.getFrames();
+        for (int i = 0; i < Math.min(frames.size(), LOGGED_FRAMES); i++) {
+            sb.append("\n\tat ").append(frameName(frames.get(i))).append(':').append(frames.get(i).getLineNumber());
+        }
+        return sb.toString();
+    }
+}
@@ -1,66 +1,326 @@
 package com.audiora.service;
 
+import com.audiora.dto.PlaylistPage;
+import com.audiora.dto.PlaylistVideoItem;
+import com.audiora.dto.VideoDetails;
 import com.audiora.model.TokenInfo;
 import com.audiora.model.Provider;
 import com.audiora.store.InMemoryTokenStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriBuilder;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
 @Service
 public class YouTubeApiService {
-    private final WebClient api = WebClient.create("https://www.googleapis.com/youtube/v3");
+    private static final Logger log = LoggerFactory.getLogger(YouTubeApiService.class);
+    private static final int PAGE_SIZE = 50;
+    private static final Pattern CATALOG_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private final WebClient api;
     private final RefreshService refreshService;
     private final InMemoryTokenStore tokenStore;
+    private final ProviderResponseCache responseCache;
+    private final ResponseValidatorStore validators;
+    private final SearchResultCache searchCache;
+    private final PageFetchBudget pageBudget;
+    private final ProviderJsonDecoder decoder;
+    private final FieldProjection fieldProjection;
+    private final int maxPlaylistItems;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AsyncCache<String, VideoDetails> videoDetails;
+    private final MicroBatcher<String, Caller, VideoDetails> videoBatcher;
+
+    /** Whose token a batched call is made with. */
+    private record Caller(TokenInfo token, String sessionId) {}
 
-    public YouTubeApiService(RefreshService refreshService, InMemoryTokenStore tokenStore) {
+    public YouTubeApiService(UpstreamClients upstreamClients, RefreshService refreshService, InMemoryTokenStore tokenStore,
+                             ProviderResponseCache responseCache, ResponseValidatorStore validators,
+                             SearchResultCache searchCache, PageFetchBudget pageBudget, ProviderJsonDecoder decoder,
+                             FieldProjection fieldProjection, MeterRegistry meterRegistry,
+                             @Value("${app.pagination.maxItems:10000}") int maxPlaylistItems,
+                             @Value("${app.batching.window:5ms}") Duration batchWindow,
+                             @Value("${app.batching.maxBatch:50}") int maxBatch,
+                             @Value("${app.batching.metadataMaxEntries:100000}") long metadataMaxEntries,
+                             @Value("${app.batching.metadataTtl:6h}") Duration metadataTtl) {
+        this.api = upstreamClients.youtubeData();
         this.refreshService = refreshService;
         this.tokenStore = tokenStore;
+        this.responseCache = responseCache;
+        this.validators = validators;
+        this.searchCache = searchCache;
+        this.pageBudget = pageBudget;
+        this.decoder = decoder;
+        this.fieldProjection = fieldProjection;
+        this.maxPlaylistItems = maxPlaylistItems;
+        this.videoDetails = Caffeine.newBuilder()
+                .maximumSize(metadataMaxEntries)
+                .expireAfterWrite(metadataTtl)
+                .buildAsync();
+        // videos.list takes at most 50 ids, for one quota unit
+        this.videoBatcher = new MicroBatcher<>("youtubeVideos", batchWindow, Math.min(maxBatch, 50),
+                this::fetchVideoDetails, meterRegistry);
     }
 
     private reactor.core.publisher.Mono<TokenInfo> ensureValid(TokenInfo token, String sessionId) {
         if (token == null) return reactor.core.publisher.Mono.empty();
         if (!token.isExpired()) return reactor.core.publisher.Mono.just(token);
-        return refreshService.refresh(Provider.YOUTUBE, token)
-                .doOnNext(t -> tokenStore.update(sessionId, Provider.YOUTUBE, t));
+        return refreshService.refresh(sessionId, Provider.YOUTUBE, token);
     }
 
-    public Mono<String> getPlaylistsRaw(TokenInfo token) {
-    return ensureValid(token, null).defaultIfEmpty(token).flatMap(t -> api.get()
-                .uri(uriBuilder -> uriBuilder.path("/playlists")
-                        .queryParam("part", "snippet,contentDetails")
-                        .queryParam("mine", true)
-                        .queryParam("maxResults", 50)
-                        .build())
-        .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
-        .retrieve()
-        .bodyToMono(String.class));
+    /** Cached per session; {@code refresh} bypasses the cached copy. */
+    public Mono<String> getPlaylistsRaw(TokenInfo token, String sessionId, boolean refresh) {
+        return responseCache.get(ProviderResponseCache.YOUTUBE_PLAYLISTS, sessionId, "mine", refresh,
+                () -> ensureValid(token, sessionId).defaultIfEmpty(token).flatMap(t -> conditionalGet(
+                        t, sessionId, "playlists", UpstreamEndpoint.YOUTUBE_PLAYLISTS, true, uriBuilder -> uriBuilder.path("/playlists")
+                                .queryParam("mine", true)
+                                .queryParam("maxResults", PAGE_SIZE)
+                                .build())));
+    }
+
+    /**
+     * All items of the playlist, or the window of {@code limit} items from {@code offset} when
+     * {@code limit} is positive, as the JSON of a {@link PlaylistPage} of {@link PlaylistVideoItem}s,
+     * ready to be returned as is.
+     * YouTube pages by token, so pages are requested one after another, each as soon as the previous
+     * one names its successor; every page is revalidated with its own ETag. Cached per session,
+     * playlist and window; {@code refresh} bypasses the cached copy.
+     */
+    public Mono<String> getPlaylistItemsRaw(TokenInfo token, String sessionId, String playlistId,
+                                            int offset, int limit, boolean refresh) {
+        return getPlaylistItemsRaw(token, sessionId, playlistId, offset, limit, refresh, false);
+    }
+
+    /** As above; with {@code enrich}, each item also carries its {@link VideoDetails} (one videos.list call per 50 items). */
+    public Mono<String> getPlaylistItemsRaw(TokenInfo token, String sessionId, String playlistId,
+                                            int offset, int limit, boolean refresh, boolean enrich) {
+        int start = Math.max(0, offset);
+        int end = start + (limit > 0 ? Math.min(limit, maxPlaylistItems) : maxPlaylistItems);
+        String cacheKey = (limit > 0 ? playlistId + "@" + start + "+" + (end - start) : playlistId) + (enrich ? "+details" : "");
+        return responseCache.get(ProviderResponseCache.YOUTUBE_PLAYLIST_ITEMS, sessionId, cacheKey, refresh,
+                () -> ensureValid(token, sessionId).defaultIfEmpty(token)
+                        .flatMap(t -> fetchItems(t, sessionId, playlistId, start, end, enrich)));
+    }
+
+    /**
+     * Streams the items of the playlist (or of the window, when {@code limit} is positive) as each page
+     * arrives, without caching: the caller's demand paces the page requests, so at most about one page
+     * is held at a time. Pages are not kept for revalidation either (a stored one is still used for a 304),
+     * or a large playlist would end up whole in the {@link ResponseValidatorStore} after all.
+     */
+    public Flux<PlaylistVideoItem> streamPlaylistItems(TokenInfo token, String sessionId, String playlistId, int offset, int limit) {
+        int start = Math.max(0, offset);
+        int end = start + (limit > 0 ? Math.min(limit, maxPlaylistItems) : maxPlaylistItems);
+        return ensureValid(token, sessionId).defaultIfEmpty(token)
+                .flatMapMany(t -> itemPages(t, sessionId, playlistId, end, false))
+                .concatMapIterable(ProviderJsonDecoder.Page::items, 1)
+                .skip(start)
+                .take(end - start);
+    }
+
+    private Mono<String> fetchItems(TokenInfo t, String sessionId, String playlistId, int start, int end, boolean enrich) {
+        AtomicInteger total = new AtomicInteger(-1);
+        Flux<PlaylistVideoItem> items = itemPages(t, sessionId, playlistId, end, true)
+                .doOnNext(page -> total.compareAndSet(-1, page.total()))
+                .concatMapIterable(ProviderJsonDecoder.Page::items)
+                .skip(start)
+                .take(end - start);
+        if (enrich) {
+            // Only the window is enriched; each run's lookup overlaps the fetch of the next page
+            items = items.buffer(PAGE_SIZE)
+                    .flatMapSequential(run -> withDetails(t, sessionId, run, PlaylistVideoItem::videoId,
+                            PlaylistVideoItem::withDetails))
+                    .concatMapIterable(Function.identity());
+        }
+        return items.collectList()
+                .flatMap(list -> Mono.fromCallable(() ->
+                        objectMapper.writeValueAsString(new PlaylistPage<>(list, Math.max(total.get(), 0), start))));
+    }
+
+    /**
+     * Pages of the playlist, in order, until one has no successor or {@code end} items have been read;
+     * {@code keep} stores each page for revalidation.
+     */
+    private Flux<ProviderJsonDecoder.Page<PlaylistVideoItem>> itemPages(TokenInfo t, String sessionId, String playlistId,
+                                                                        int end, boolean keep) {
+        AtomicInteger fetched = new AtomicInteger();
+        return itemsPage(t, sessionId, playlistId, null, keep)
+                .expand(page -> {
+                    String next = page.nextPageToken();
+                    // Pages before the window still have to be read: only they know the next token
+                    if (next == null || fetched.get() >= end) return Mono.empty();
+                    return itemsPage(t, sessionId, playlistId, next, keep);
+                })
+                .doOnNext(page -> fetched.addAndGet(page.items().size()));
+    }
+
+    private Mono<ProviderJsonDecoder.Page<PlaylistVideoItem>> itemsPage(TokenInfo t, String sessionId, String playlistId,
+                                                                        String pageToken, boolean keep) {
+        String resource = "playlistItems:" + playlistId + (pageToken == null ? "" : ":" + pageToken);
+        return pageBudget.run(sessionId, Provider.YOUTUBE, conditionalGet(t, sessionId, resource,
+                UpstreamEndpoint.YOUTUBE_PLAYLIST_ITEMS, keep, uriBuilder -> {
+                    uriBuilder.path("/playlistItems")
+                            .queryParam("playlistId", playlistId)
+                            .queryParam("maxResults", PAGE_SIZE);
+                    if (pageToken != null) uriBuilder.queryParam("pageToken", pageToken);
+                    return uriBuilder.build();
+                })).handle((raw, sink) -> {
+            // Read as a String rather than buffers: the body may be kept to answer the next 304
+            try {
+                sink.next(decoder.youtubePlaylistItems(raw));
+            } catch (IOException e) {
+                sink.error(e);
+            }
+        });
+    }
+
+    /**
+     * GET that replays the ETag stored for {@code resource} as {@code If-None-Match}; a 304 is answered
+     * from the stored body, saving the download. The stored body is also served when the call is
+     * throttled, e.g. once the daily quota is spent. Only with {@code keep} is a downloaded body stored.
+     */
+    private Mono<String> conditionalGet(TokenInfo t, String sessionId, String resource, UpstreamEndpoint endpoint,
+                                        boolean keep, Function<UriBuilder, URI> uri) {
+        ResponseValidatorStore.Stored stored = validators.get(sessionId, resource);
+        return api.get()
+                .uri(uriBuilder -> uri.apply(fieldProjection.apply(uriBuilder, endpoint)))
+                .attributes(endpoint.attributes(sessionId))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
+                .headers(h -> {
+                    if (stored != null) h.setIfNoneMatch(stored.validator());
+                })
+                .exchangeToMono(resp -> {
+                    if (stored != null && resp.statusCode().value() == 304) {
+                        validators.revalidated(sessionId, resource, stored, System.nanoTime(), Provider.YOUTUBE);
+                        return resp.releaseBody().thenReturn(stored.body());
+                    }
+                    if (!resp.statusCode().is2xxSuccessful()) return resp.createError();
+                    String etag = resp.headers().asHttpHeaders().getFirst(HttpHeaders.ETAG);
+                    return resp.bodyToMono(String.class).doOnNext(body -> {
+                        if (stored != null) validators.modified(Provider.YOUTUBE);
+                        if (keep) validators.put(sessionId, resource, etag, body);
+                    });
+                })
+                .onErrorResume(UpstreamThrottledException.class,
+                        e -> stored != null ? Mono.just(stored.body()) : Mono.error(e));
+    }
+
+    /**
+     * Duration, view count and embeddability of one video, empty when YouTube doesn't know the id. Lookups
+     * from all sessions are gathered into {@code videos.list} calls ({@link MicroBatcher}), and results are
+     * cached for {@code app.batching.metadataTtl}.
+     */
+    public Mono<VideoDetails> getVideoDetails(TokenInfo token, String sessionId, String videoId) {
+        // Ids are joined into a shared request, so a malformed one must not get that far
+        if (!CATALOG_ID.matcher(videoId).matches()) return Mono.empty();
+        return Mono.fromFuture(videoDetails.get(videoId, (id, executor) -> ensureValid(token, sessionId)
+                .defaultIfEmpty(token)
+                .flatMap(t -> videoBatcher.load(id, new Caller(t, sessionId)))
+                .toFuture()), true);
+    }
+
+    /**
+     * Details of the given videos, by id. Uncached ids are looked up directly, 50 per videos.list call, since
+     * a page of them already fills a batch. Enrichment is best effort: ids whose lookup fails (quota, breaker,
+     * errors) are left out.
+     */
+    public Mono<Map<String, VideoDetails>> getVideosDetails(TokenInfo token, String sessionId, Collection<String> videoIds) {
+        Map<String, VideoDetails> known = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(videoIds)) {
+            if (!CATALOG_ID.matcher(id).matches()) continue;
+            CompletableFuture<VideoDetails> cached = videoDetails.getIfPresent(id);
+            VideoDetails details = cached != null && cached.isDone() && !cached.isCompletedExceptionally()
+                    ? cached.getNow(null) : null;
+            if (details != null) known.put(id, details);
+            else missing.add(id);
+        }
+        if (missing.isEmpty()) return Mono.just(known);
+        List<List<String>> calls = new ArrayList<>();
+        for (int i = 0; i < missing.size(); i += PAGE_SIZE) {
+            calls.add(missing.subList(i, Math.min(missing.size(), i + PAGE_SIZE)));
+        }
+        return ensureValid(token, sessionId).defaultIfEmpty(token)
+                .flatMapMany(t -> Flux.fromIterable(calls).flatMap(ids -> fetchVideoDetails(ids, new Caller(t, sessionId))))
+                .doOnNext(found -> found.forEach((id, details) -> videoDetails.put(id, CompletableFuture.completedFuture(details))))
+                .onErrorResume(e -> {
+                    log.debug("Could not enrich YouTube videos: {}", e.toString());
+                    return Mono.empty();
+                })
+                .reduce(known, (all, found) -> {
+                    all.putAll(found);
+                    return all;
+                });
     }
 
-    public Mono<String> getPlaylistItemsRaw(TokenInfo token, String playlistId) {
-    return ensureValid(token, null).defaultIfEmpty(token).flatMap(t -> api.get()
-        .uri(uriBuilder -> uriBuilder.path("/playlistItems")
-            .queryParam("part", "snippet,contentDetails")
-            .queryParam("playlistId", playlistId)
-            .queryParam("maxResults", 50)
-            .build())
-        .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
-        .retrieve()
-        .bodyToMono(String.class));
+    /** {@code items} with their {@link VideoDetails} attached where known. */
+    public <T> Mono<List<T>> withDetails(TokenInfo token, String sessionId, List<T> items,
+                                         Function<T, String> videoId, BiFunction<T, VideoDetails, T> attach) {
+        return getVideosDetails(token, sessionId, items.stream().map(videoId).toList())
+                .map(details -> items.stream()
+                        .map(item -> {
+                            VideoDetails d = details.get(videoId.apply(item));
+                            return d == null ? item : attach.apply(item, d);
+                        })
+                        .toList());
+    }
+
+    private Mono<Map<String, VideoDetails>> fetchVideoDetails(List<String> ids, Caller caller) {
+        return api.get()
+                .uri(uriBuilder -> fieldProjection.apply(uriBuilder.path("/videos"), UpstreamEndpoint.YOUTUBE_VIDEOS)
+                        .queryParam("id", String.join(",", ids))
+                        .build())
+                .attributes(UpstreamEndpoint.YOUTUBE_VIDEOS.attributes(caller.sessionId()))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + caller.token().getAccessToken())
+                .retrieve()
+                .bodyToMono(String.class)
+                .handle((raw, sink) -> {
+                    try {
+                        Map<String, VideoDetails> byId = new HashMap<>();
+                        for (VideoDetails details : decoder.youtubeVideoDetails(raw)) byId.put(details.videoId(), details);
+                        sink.next(byId);
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                });
     }
 
-    public Mono<String> searchVideosRaw(TokenInfo token, String query, int limit) {
+    /** Results do not depend on the user, so they are shared through the {@link SearchResultCache}. */
+    public Mono<String> searchVideosRaw(TokenInfo token, String sessionId, String query, int limit) {
         int effectiveLimit = Math.min(limit, 25);
-    return ensureValid(token, null).defaultIfEmpty(token).flatMap(t -> api.get()
-        .uri(uriBuilder -> uriBuilder.path("/search")
-            .queryParam("part", "snippet")
-            .queryParam("type", "video")
-            .queryParam("q", query)
-                        .queryParam("maxResults", effectiveLimit)
-            .build())
-        .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
-        .retrieve()
-        .bodyToMono(String.class));
+        return searchCache.get(Provider.YOUTUBE, "", query, effectiveLimit,
+                q -> ensureValid(token, sessionId).defaultIfEmpty(token).flatMap(t -> api.get()
+                        .uri(uriBuilder -> fieldProjection.apply(uriBuilder.path("/search"), UpstreamEndpoint.YOUTUBE_SEARCH)
+                                .queryParam("type", "video")
+                                .queryParam("q", q)
+                                .queryParam("maxResults", effectiveLimit)
+                                .build())
+                        .attributes(UpstreamEndpoint.YOUTUBE_SEARCH.attributes(sessionId))
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + t.getAccessToken())
+                        .retrieve()
+                        .bodyToMono(String.class)));
     }
 }
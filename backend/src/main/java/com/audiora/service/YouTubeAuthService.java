@@ -9,8 +9,13 @@ import reactor.core.publisher.Mono;
 
 @Service
 public class YouTubeAuthService {
-    private final WebClient authClient = WebClient.create("https://oauth2.googleapis.com");
-    private final WebClient apiClient = WebClient.create("https://www.googleapis.com");
+    private final WebClient authClient;
+    private final WebClient apiClient;
+
+    public YouTubeAuthService(UpstreamClients upstreamClients) {
+        this.authClient = upstreamClients.googleOauth();
+        this.apiClient = upstreamClients.googleApis();
+    }
 
     public Mono<OAuthTokenResponse> exchangeCodeForToken(String clientId, String clientSecret, String redirectUri, String code) {
         return authClient.post()
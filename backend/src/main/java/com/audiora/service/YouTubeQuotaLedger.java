@@ -0,0 +1,84 @@
+package com.audiora.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * Counts YouTube Data API quota units spent today. The quota resets at midnight Pacific time, like
+ * Google's. Once fewer than {@code quotaReserve} units are left, only 1-unit calls (lists) are let
+ * through, so a burst of 100-unit searches cannot starve playlist reads; at zero everything is refused
+ * and callers fall back to cached responses. A {@code quotaExceeded} answer from YouTube marks the rest
+ * of the day as spent, whatever our own count says.
+ */
+@Component
+public class YouTubeQuotaLedger {
+    private static final ZoneId QUOTA_ZONE = ZoneId.of("America/Los_Angeles");
+
+    private final Clock clock = Clock.system(QUOTA_ZONE);
+    private final long dailyQuota;
+    private final long reserve;
+    private LocalDate day;
+    private long used;
+
+    public YouTubeQuotaLedger(MeterRegistry meterRegistry,
+                              @Value("${app.rateLimit.youtube.dailyQuota:10000}") long dailyQuota,
+                              @Value("${app.rateLimit.youtube.quotaReserve:1000}") long reserve) {
+        this.dailyQuota = dailyQuota;
+        this.reserve = reserve;
+        this.day = LocalDate.now(clock);
+        Gauge.builder("audiora.youtube.quota.remaining", this, YouTubeQuotaLedger::remaining)
+                .description("YouTube Data API quota units left today, as counted by us")
+                .baseUnit("units")
+                .register(meterRegistry);
+    }
+
+    /** Takes {@code cost} units for a call about to be made; false when the call must not be made. */
+    public synchronized boolean tryCharge(int cost) {
+        if (cost <= 0) return true;
+        rollOver();
+        long left = dailyQuota - used;
+        if (left < cost || (cost > 1 && left - cost < reserve)) return false;
+        used += cost;
+        return true;
+    }
+
+    /** Gives back {@code cost} units taken for a call that was never made. */
+    public synchronized void refund(int cost) {
+        if (cost <= 0) return;
+        rollOver();
+        used = Math.max(0, used - cost);
+    }
+
+    /** YouTube reported the quota as exceeded: nothing more until the reset. */
+    public synchronized void exhaust() {
+        rollOver();
+        used = dailyQuota;
+    }
+
+    public synchronized long remaining() {
+        rollOver();
+        return Math.max(0, dailyQuota - used);
+    }
+
+    /** Time until the quota resets. */
+    public Duration untilReset() {
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        return Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay(QUOTA_ZONE));
+    }
+
+    private void rollOver() {
+        LocalDate today = LocalDate.now(clock);
+        if (!today.equals(day)) {
+            day = today;
+            used = 0;
+        }
+    }
+}
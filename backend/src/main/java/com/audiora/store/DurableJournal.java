@@ -0,0 +1,630 @@
+package com.audiora.store;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Local-disk persistence for the in-memory stores ({@link JournalParticipant}s).
+ * <p>
+ * Mutations are encoded on the calling thread ({@link #encode}, before the state changes, so a record that
+ * can't be encoded never leaves memory ahead of the log) and handed to a single writer thread
+ * ({@link #append}, in the same critical section as the change, so the log sees changes to one key in the
+ * order they were applied). Mutators hold {@link #changeLock} from the append until the change is applied,
+ * and a snapshot takes it exclusively while it queues the log rotation, so every change either has its
+ * record in the new segment or is in the state the snapshot writes. The writer appends them to a write-ahead log in batches (group commit), syncing
+ * to disk according to
+ * {@code app.persistence.syncMode}: {@code batch} (after every batch), {@code interval} (at most every
+ * {@code syncIntervalMs}) or {@code none} (left to the OS). Periodically the log is rotated and every
+ * participant's state is written to a compacted snapshot, after which older log segments are deleted.
+ * On startup the latest snapshot and the log segments written after it are replayed before the
+ * application serves requests.
+ * <p>
+ * On-disk layout: {@code snapshot-<gen>.dat} holds the state as of the start of {@code wal-<gen>.log}.
+ * Both use the same framing: {@code [int length][int crc32c][utf participant][payload]}. A torn or
+ * corrupt record, including a length outside {@code [MIN_RECORD_BYTES, maxRecordBytes]} as left by a
+ * zero-filled or preallocated tail, ends replay of that file. The files hold OAuth tokens and password hashes,
+ * so the directory and every file are created readable by the owner only.
+ */
+@Component
+public class DurableJournal implements SmartInitializingSingleton, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(DurableJournal.class);
+
+    private static final Pattern WAL_FILE = Pattern.compile("wal-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT_FILE = Pattern.compile("snapshot-(\\d+)\\.dat");
+    private static final int MAX_BATCH = 4096;
+    private static final int IO_BUFFER = 1 << 20;
+    private static final Object STOP = new Object();
+    // A participant name of at least one character
+    private static final int MIN_RECORD_BYTES = 3;
+    private static final long ROTATION_TIMEOUT_MS = 30_000;
+    private static final Set<PosixFilePermission> OWNER_DIR = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_FILE = PosixFilePermissions.fromString("rw-------");
+
+    /** One encoded record, from {@link #encode}. */
+    public static final class Frame {
+        private final byte[] bytes;
+
+        private Frame(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /** Writes one record's payload. */
+    @FunctionalInterface
+    public interface RecordBody {
+        void writeTo(DataOutput out) throws IOException;
+    }
+
+    /** Receives the records of a snapshot. */
+    @FunctionalInterface
+    public interface RecordSink {
+        void write(RecordBody body) throws IOException;
+    }
+
+    enum SyncMode { BATCH, INTERVAL, NONE }
+
+    private record Rotation(long generation, CompletableFuture<Void> done) {}
+
+    private final ObjectProvider<JournalParticipant> participantProvider;
+    private final boolean enabled;
+    private final Path dir;
+    private final SyncMode syncMode;
+    private final long syncIntervalNanos;
+    private final long snapshotIntervalMs;
+    private final long snapshotLogBytes;
+    private final int maxRecordBytes;
+    private final long appendTimeoutNanos;
+
+    private final BlockingQueue<Object> queue;
+    private final AtomicBoolean accepting = new AtomicBoolean();
+    private final AtomicLong logBytes = new AtomicLong();
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    // Shared by mutators across append and apply, exclusive while a rotation is queued
+    private final ReentrantReadWriteLock rotationLock = new ReentrantReadWriteLock();
+    private volatile long generation;
+    private volatile long lastSnapshotAt;
+    private Thread writer;
+
+    private final Counter appendedRecords;
+    private final Counter syncs;
+
+    public DurableJournal(ObjectProvider<JournalParticipant> participantProvider,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.persistence.enabled:false}") boolean enabled,
+                          @Value("${app.persistence.dir:./data}") String dir,
+                          @Value("${app.persistence.syncMode:interval}") String syncMode,
+                          @Value("${app.persistence.syncIntervalMs:200}") long syncIntervalMs,
+                          @Value("${app.persistence.snapshotIntervalMs:600000}") long snapshotIntervalMs,
+                          @Value("${app.persistence.snapshotLogBytes:67108864}") long snapshotLogBytes,
+                          @Value("${app.persistence.queueCapacity:65536}") int queueCapacity,
+                          @Value("${app.persistence.maxRecordBytes:16777216}") int maxRecordBytes,
+                          @Value("${app.persistence.appendTimeoutMs:1000}") long appendTimeoutMs) {
+        this.participantProvider = participantProvider;
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.syncMode = SyncMode.valueOf(syncMode.trim().toUpperCase());
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+        this.snapshotIntervalMs = snapshotIntervalMs;
+        this.snapshotLogBytes = snapshotLogBytes;
+        this.maxRecordBytes = maxRecordBytes;
+        this.appendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(appendTimeoutMs);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.appendedRecords = Counter.builder("audiora.journal.records")
+                .description("Records appended to the write-ahead log")
+                .register(meterRegistry);
+        this.syncs = Counter.builder("audiora.journal.syncs")
+                .description("fsync calls on the write-ahead log")
+                .register(meterRegistry);
+        Gauge.builder("audiora.journal.log.bytes", logBytes, AtomicLong::get)
+                .description("Bytes written to the write-ahead log since the last snapshot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Encodes a mutation record, to be passed to {@link #append} once the caller holds the lock it mutates
+     * under. Null when persistence is disabled or while recovery is replaying: there is nothing to log.
+     *
+     * @throws IllegalArgumentException if the record can't be encoded or is over {@code maxRecordBytes}
+     */
+    public Frame encode(JournalParticipant participant, RecordBody body) {
+        if (!accepting.get()) return null;
+        byte[] frame = encode(participant.journalName(), body);
+        if (frame.length - 8 > maxRecordBytes) {
+            throw new IllegalArgumentException("Journal record of " + (frame.length - 8) + " bytes is over the "
+                    + maxRecordBytes + " byte limit");
+        }
+        return new Frame(frame);
+    }
+
+    /**
+     * Queues an encoded record; it reaches disk with the writer's next batch. Call it inside the critical
+     * section that applies the change, holding {@link #changeLock}, before applying it: on failure nothing
+     * has changed. Waits up to
+     * {@code appendTimeoutMs} for queue space, except on non-blocking (event loop) threads, which never wait.
+     * A no-op for a null frame.
+     *
+     * @throws IllegalStateException if the queue stays full, i.e. the disk is not keeping up
+     */
+    public void append(Frame frame) {
+        if (frame == null || !accepting.get()) return;
+        boolean queued;
+        try {
+            queued = Schedulers.isInNonBlockingThread()
+                    ? queue.offer(frame.bytes)
+                    : queue.offer(frame.bytes, appendTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while journaling", e);
+        }
+        if (!queued) {
+            throw new IllegalStateException("Write-ahead log queue is full (" + queue.size()
+                    + " records waiting); the change was not applied");
+        }
+    }
+
+    /**
+     * The lock a mutator holds from {@link #append} until its change is applied, so that a snapshot can't
+     * rotate the log in between: the record would land in a segment the snapshot deletes, while the snapshot
+     * itself, written from the participants' state, might not see the change yet. Shared, so mutators don't
+     * exclude one another. Take it before any lock of the caller's own, so that nothing waits for it while
+     * holding a lock a change in progress needs.
+     */
+    public Lock changeLock() {
+        return rotationLock.readLock();
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) return;
+        Map<String, JournalParticipant> participants = new HashMap<>();
+        participantProvider.orderedStream().forEach(p -> participants.put(p.journalName(), p));
+        try {
+            createPrivateDirectory();
+            long started = System.nanoTime();
+            long[] replayed = recover(participants);
+            participants.values().forEach(JournalParticipant::afterReplay);
+            log.info("Recovered {} records ({} from log) from {} in {} ms",
+                    replayed[0], replayed[1], dir.toAbsolutePath(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            generation = replayed[2] + 1;
+            FileChannel channel = openSegment(generation);
+            lastSnapshotAt = System.currentTimeMillis();
+            accepting.set(true);
+            writer = new Thread(() -> writeLoop(channel), "journal-writer");
+            writer.setDaemon(true);
+            writer.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover persisted state from " + dir.toAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Writes a new snapshot when the log has grown past {@code snapshotLogBytes} or the snapshot
+     * interval has elapsed.
+     */
+    @Scheduled(fixedDelayString = "${app.persistence.snapshotCheckIntervalMs:10000}")
+    public void maybeSnapshot() {
+        if (!accepting.get() || logBytes.get() == 0) return;
+        if (logBytes.get() >= snapshotLogBytes || System.currentTimeMillis() - lastSnapshotAt >= snapshotIntervalMs) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Rotates the log and writes every participant's state to {@code snapshot-<gen>.dat}, then deletes
+     * the snapshots and log segments it supersedes.
+     */
+    public void snapshot() {
+        if (!accepting.get() || !snapshotLock.tryLock()) return;
+        try {
+            if (!writer.isAlive()) {
+                log.error("Write-ahead log writer is not running; skipping snapshot");
+                return;
+            }
+            long next = generation + 1;
+            Rotation rotation = new Rotation(next, new CompletableFuture<>());
+            // Changes in progress finish first; later ones queue their records behind the rotation
+            boolean queued;
+            rotationLock.writeLock().lock();
+            try {
+                queued = queue.offer(rotation, appendTimeoutNanos, TimeUnit.NANOSECONDS);
+            } finally {
+                rotationLock.writeLock().unlock();
+            }
+            if (!queued) {
+                log.error("Write-ahead log queue is full; skipping snapshot");
+                return;
+            }
+            try {
+                rotation.done().get(ROTATION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                log.error("Write-ahead log rotation did not complete; skipping snapshot", e);
+                return;
+            }
+            generation = next;
+            logBytes.set(0);
+
+            long started = System.nanoTime();
+            Path tmp = dir.resolve("snapshot-" + next + ".tmp");
+            long records = 0;
+            try (FileChannel channel = openPrivate(tmp, StandardOpenOption.TRUNCATE_EXISTING);
+                 OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), IO_BUFFER)) {
+                long[] count = new long[1];
+                for (JournalParticipant participant : participantProvider.orderedStream().toList()) {
+                    participant.writeSnapshot(body -> {
+                        out.write(encode(participant.journalName(), body));
+                        count[0]++;
+                    });
+                }
+                out.flush();
+                channel.force(true);
+                records = count[0];
+            }
+            Files.move(tmp, dir.resolve("snapshot-" + next + ".dat"), StandardCopyOption.ATOMIC_MOVE);
+            lastSnapshotAt = System.currentTimeMillis();
+            deleteBefore(next);
+            log.info("Wrote snapshot {} ({} records) in {} ms", next, records, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (IOException e) {
+            log.error("Snapshot failed; keeping existing log segments", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (!accepting.get()) return;
+        snapshot();
+        accepting.set(false);
+        if (writer.isAlive() && queue.offer(STOP, 10, TimeUnit.SECONDS)) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    // ---------------------------------------------------------------- writer
+
+    private void writeLoop(FileChannel initial) {
+        FileChannel channel = initial;
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), IO_BUFFER);
+        List<Object> batch = new ArrayList<>(MAX_BATCH);
+        long lastSync = System.nanoTime();
+        boolean dirty = false;
+        try {
+            while (true) {
+                Object first = syncMode == SyncMode.INTERVAL && dirty
+                        ? queue.poll(syncIntervalNanos, TimeUnit.NANOSECONDS)
+                        : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+                for (Object item : batch) {
+                    if (item instanceof byte[] frame) {
+                        out.write(frame);
+                        logBytes.addAndGet(frame.length);
+                        appendedRecords.increment();
+                        dirty = true;
+                    } else if (item instanceof Rotation rotation) {
+                        out.flush();
+                        sync(channel);
+                        channel.close();
+                        channel = openSegment(rotation.generation());
+                        out = new BufferedOutputStream(Channels.newOutputStream(channel), IO_BUFFER);
+                        dirty = false;
+                        lastSync = System.nanoTime();
+                        rotation.done().complete(null);
+                    } else if (item == STOP) {
+                        out.flush();
+                        sync(channel);
+                        channel.close();
+                        return;
+                    }
+                }
+                batch.clear();
+                if (!dirty) continue;
+                out.flush();
+                long now = System.nanoTime();
+                if (syncMode == SyncMode.BATCH || (syncMode == SyncMode.INTERVAL && now - lastSync >= syncIntervalNanos)) {
+                    sync(channel);
+                    lastSync = now;
+                    dirty = false;
+                } else if (syncMode == SyncMode.NONE) {
+                    dirty = false;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Write-ahead log writer failed; persistence is disabled from now on", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            accepting.set(false);
+            // Nobody will complete a rotation queued from here on
+            IllegalStateException stopped = new IllegalStateException("Write-ahead log writer has stopped");
+            for (Object item : batch) {
+                if (item instanceof Rotation rotation) rotation.done().completeExceptionally(stopped);
+            }
+            Object item;
+            while ((item = queue.poll()) != null) {
+                if (item instanceof Rotation rotation) rotation.done().completeExceptionally(stopped);
+            }
+        }
+    }
+
+    private void sync(FileChannel channel) throws IOException {
+        if (syncMode == SyncMode.NONE) return;
+        channel.force(false);
+        syncs.increment();
+    }
+
+    private FileChannel openSegment(long gen) throws IOException {
+        return openPrivate(dir.resolve("wal-" + gen + ".log"), StandardOpenOption.APPEND);
+    }
+
+    // ---------------------------------------------------------------- permissions
+
+    private boolean posix() {
+        return dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    /** Creates {@code dir} as owner-only, or restricts it to the owner if it already exists. */
+    private void createPrivateDirectory() throws IOException {
+        if (!posix()) {
+            Files.createDirectories(dir);
+            ownerOnly(dir);
+        } else if (Files.isDirectory(dir)) {
+            Files.setPosixFilePermissions(dir, OWNER_DIR);
+        } else {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(OWNER_DIR));
+        }
+    }
+
+    /** Opens {@code file} for writing, creating it readable and writable by the owner only. */
+    private FileChannel openPrivate(Path file, StandardOpenOption mode) throws IOException {
+        Set<StandardOpenOption> options = Set.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode);
+        if (posix()) {
+            return FileChannel.open(file, options, PosixFilePermissions.asFileAttribute(OWNER_FILE));
+        }
+        FileChannel channel = FileChannel.open(file, options, new FileAttribute<?>[0]);
+        ownerOnly(file);
+        return channel;
+    }
+
+    /** Best effort where POSIX permissions are not supported (e.g. Windows). */
+    private static void ownerOnly(Path path) {
+        java.io.File file = path.toFile();
+        boolean restricted = file.setReadable(false, false) & file.setReadable(true, true)
+                & file.setWritable(false, false) & file.setWritable(true, true);
+        if (!restricted) log.warn("Could not restrict {} to its owner", path.toAbsolutePath());
+    }
+
+    // ---------------------------------------------------------------- recovery
+
+    /** @return {total records, records from log segments, highest generation seen} */
+    private long[] recover(Map<String, JournalParticipant> participants) throws IOException {
+        long snapshotGen = -1;
+        long maxGen = 0;
+        List<Long> walGens = new ArrayList<>();
+        try (var files = Files.list(dir)) {
+            for (Path p : files.toList()) {
+                String name = p.getFileName().toString();
+                Matcher m = SNAPSHOT_FILE.matcher(name);
+                if (m.matches()) {
+                    long gen = Long.parseLong(m.group(1));
+                    snapshotGen = Math.max(snapshotGen, gen);
+                    maxGen = Math.max(maxGen, gen);
+                    continue;
+                }
+                m = WAL_FILE.matcher(name);
+                if (m.matches()) {
+                    long gen = Long.parseLong(m.group(1));
+                    walGens.add(gen);
+                    maxGen = Math.max(maxGen, gen);
+                }
+            }
+        }
+        long total = 0;
+        if (snapshotGen >= 0) {
+            total += replayFile(dir.resolve("snapshot-" + snapshotGen + ".dat"), participants);
+        }
+        long fromLog = 0;
+        walGens.sort(null);
+        for (long gen : walGens) {
+            if (gen < snapshotGen) continue;
+            fromLog += replayFile(dir.resolve("wal-" + gen + ".log"), participants);
+        }
+        return new long[] { total + fromLog, fromLog, maxGen };
+    }
+
+    private long replayFile(Path file, Map<String, JournalParticipant> participants) throws IOException {
+        long count = 0;
+        RecordInput record = new RecordInput();
+        CRC32C crc = new CRC32C();
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), IO_BUFFER);
+             DataInputStream in = new DataInputStream(raw)) {
+            while (true) {
+                int length;
+                int checksum;
+                String name;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < MIN_RECORD_BYTES || length > maxRecordBytes) {
+                        log.warn("Invalid record length {} in {} after {} records; ignoring the rest of the file",
+                                length, file.getFileName(), count);
+                        break;
+                    }
+                    record.fill(in, length);
+                    crc.reset();
+                    crc.update(record.bytes(), 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        log.warn("Corrupt record in {} after {} records; ignoring the rest of the file", file.getFileName(), count);
+                        break;
+                    }
+                    name = record.readUTF();
+                } catch (EOFException | UTFDataFormatException torn) {
+                    log.warn("Torn record in {} after {} records; ignoring the rest of the file", file.getFileName(), count);
+                    break;
+                }
+                JournalParticipant participant = participants.get(name);
+                if (participant != null) {
+                    participant.replay(record);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void deleteBefore(long gen) throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : files.toList()) {
+                String name = p.getFileName().toString();
+                Matcher snapshot = SNAPSHOT_FILE.matcher(name);
+                Matcher wal = WAL_FILE.matcher(name);
+                if ((snapshot.matches() && Long.parseLong(snapshot.group(1)) < gen)
+                        || (wal.matches() && Long.parseLong(wal.group(1)) < gen)) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- encoding
+
+    private static byte[] encode(String participant, RecordBody body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeUTF(participant);
+            body.writeTo(out);
+        } catch (UTFDataFormatException e) {
+            throw new IllegalArgumentException("Journal record has a string over 64 KB", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 8;
+        CRC32C crc = new CRC32C();
+        crc.update(frame, 8, length);
+        writeInt(frame, 0, length);
+        writeInt(frame, 4, (int) crc.getValue());
+        return frame;
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /** Writes a possibly-null string. */
+    public static void writeString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    /** Reads a string written by {@link #writeString}. */
+    public static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /** Writes a possibly-null instant with millisecond precision. */
+    public static void writeInstant(DataOutput out, Instant instant) throws IOException {
+        out.writeLong(instant != null ? instant.toEpochMilli() : Long.MIN_VALUE);
+    }
+
+    /** Reads an instant written by {@link #writeInstant}. */
+    public static Instant readInstant(DataInput in) throws IOException {
+        long millis = in.readLong();
+        return millis == Long.MIN_VALUE ? null : Instant.ofEpochMilli(millis);
+    }
+
+    /** Reusable view over one record's bytes, so replay does not allocate a stream per record. */
+    private static final class RecordInput extends DataInputStream {
+        RecordInput() {
+            super(new Buffer());
+        }
+
+        void fill(DataInputStream from, int length) throws IOException {
+            ((Buffer) in).fill(from, length);
+        }
+
+        byte[] bytes() {
+            return ((Buffer) in).bytes();
+        }
+
+        private static final class Buffer extends ByteArrayInputStream {
+            Buffer() {
+                super(new byte[256]);
+            }
+
+            void fill(DataInputStream from, int length) throws IOException {
+                if (buf.length < length) buf = new byte[Math.max(length, buf.length * 2)];
+                from.readFully(buf, 0, length);
+                pos = 0;
+                count = length;
+            }
+
+            byte[] bytes() {
+                return buf;
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.audiora.store;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Hierarchical timer wheel used to schedule session expiry.
+ * <p>
+ * Each level covers a coarser span of time (≈1s, ≈1m, ≈1h, ≈1d, overflow). A node is placed in the
+ * finest level whose span still covers its deadline, and cascades down as the wheel advances, so
+ * scheduling, removal and each expiry check are amortized O(1). The day level reaches ≈104d ahead, past
+ * the default session TTLs, so sessions are spread over day buckets rather than sharing the overflow
+ * bucket. Not thread-safe: callers must hold the owning store's lock.
+ */
+final class ExpiryWheel<T> {
+
+    static final int[] BUCKETS = { 64, 64, 32, 64, 1 };
+    static final long[] SPANS = {
+            ceilingPowerOfTwo(1_000_000_000L),          // 1.07s
+            ceilingPowerOfTwo(60_000_000_000L),         // 1.14m
+            ceilingPowerOfTwo(3_600_000_000_000L),      // 1.22h
+            ceilingPowerOfTwo(86_400_000_000_000L),     // 1.63d
+            BUCKETS[3] * ceilingPowerOfTwo(86_400_000_000_000L), // 104d
+    };
+    static final int[] SHIFT = {
+            Long.numberOfTrailingZeros(SPANS[0]),
+            Long.numberOfTrailingZeros(SPANS[1]),
+            Long.numberOfTrailingZeros(SPANS[2]),
+            Long.numberOfTrailingZeros(SPANS[3]),
+            Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    /** Intrusive list node; the payload keeps a reference to it so removal is O(1). */
+    static final class Node<T> {
+        final T value;
+        long deadline;
+        Node<T> prev;
+        Node<T> next;
+
+        Node(T value) { this.value = value; }
+
+        boolean isScheduled() { return next != null; }
+    }
+
+    /** Decides what happens to a node whose scheduled deadline has passed. */
+    interface Handler<T> {
+        /**
+         * @return the node's new deadline to keep it scheduled, or {@code Long.MIN_VALUE} to drop it
+         */
+        long onDeadline(T value, long now);
+    }
+
+    private final Node<T>[][] wheel;
+    private long nanos;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    ExpiryWheel(long now) {
+        this.nanos = now;
+        this.wheel = new Node[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Node[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                Node<T> sentinel = new Node<>(null);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    int size() { return size; }
+
+    void schedule(Node<T> node, long deadline) {
+        if (node.isScheduled()) unlink(node);
+        node.deadline = deadline;
+        link(findBucket(deadline), node);
+    }
+
+    void remove(Node<T> node) {
+        if (node.isScheduled()) unlink(node);
+    }
+
+    /**
+     * Moves the wheel forward to {@code now}, handing every node whose bucket has elapsed to the
+     * handler. Nodes that are not yet due (or that the handler reschedules) cascade into finer buckets.
+     */
+    void advance(long now, Handler<T> handler) {
+        long previous = nanos;
+        nanos = now;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previous >>> SHIFT[i];
+            long currentTicks = now >>> SHIFT[i];
+            long delta = currentTicks - previousTicks;
+            if (delta <= 0L) break;
+            expire(i, previousTicks, delta, handler);
+        }
+    }
+
+    /**
+     * Returns the node with the nearest deadline, to within a bucket: the head of the first non-empty
+     * bucket, finest level first. Nodes join a bucket's tail as they are scheduled, so a bucket is in
+     * deadline order. The {@code actualDeadline} function lets the caller report a later deadline than the
+     * scheduled one (e.g. a session touched since it was scheduled); such a node is rescheduled, to its
+     * bucket's tail or a later bucket, and the walk continues, so each touch costs at most one step.
+     */
+    Node<T> peekEarliest(ToLongFunction<T> actualDeadline) {
+        for (int pass = 0; pass <= size; pass++) {
+            Node<T> sentinel = firstNonEmpty();
+            if (sentinel == null) return null;
+            Node<T> head = sentinel.next;
+            long actual = actualDeadline.applyAsLong(head.value);
+            if (actual - head.deadline <= 0L) return head;
+            schedule(head, actual);
+        }
+        return null;
+    }
+
+    private Node<T> firstNonEmpty() {
+        for (int i = 0; i < wheel.length; i++) {
+            Node<T>[] level = wheel[i];
+            int mask = level.length - 1;
+            int start = (int) ((nanos >>> SHIFT[i]) & mask);
+            for (int j = 0; j < level.length; j++) {
+                Node<T> sentinel = level[(start + j) & mask];
+                if (sentinel.next != sentinel) return sentinel;
+            }
+        }
+        return null;
+    }
+
+    private void expire(int level, long previousTicks, long delta, Handler<T> handler) {
+        Node<T>[] timerWheel = wheel[level];
+        int mask = timerWheel.length - 1;
+        int steps = (int) Math.min(1 + delta, timerWheel.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+        for (int i = start; i < end; i++) {
+            Node<T> sentinel = timerWheel[i & mask];
+            Node<T> node = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            while (node != sentinel) {
+                Node<T> next = node.next;
+                node.prev = null;
+                node.next = null;
+                size--;
+                if (node.deadline - nanos > 0L) {
+                    // Not due yet: cascade into a finer bucket
+                    link(findBucket(node.deadline), node);
+                } else {
+                    long renewed = handler.onDeadline(node.value, nanos);
+                    if (renewed != Long.MIN_VALUE) {
+                        node.deadline = renewed;
+                        link(findBucket(renewed), node);
+                    }
+                }
+                node = next;
+            }
+        }
+    }
+
+    private Node<T> findBucket(long time) {
+        long duration = time - nanos;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+
+    private void link(Node<T> sentinel, Node<T> node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+        size++;
+    }
+
+    private void unlink(Node<T> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        size--;
+    }
+
+    private static long ceilingPowerOfTwo(long x) {
+        return 1L << -Long.numberOfLeadingZeros(x - 1);
+    }
+}
@@ -0,0 +1,244 @@
+package com.audiora.store;
+
+import com.audiora.model.LikedTrack;
+import com.audiora.model.Provider;
+import com.audiora.model.TrackRef;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Heap-only {@link LikedTrackStore}, made durable by the {@link DurableJournal}: likes by id, plus an index
+ * and a {@link LikeMembership} per user. Every change to a user's likes runs inside {@code byUser.compute} for that user, so the id map
+ * and the index move together; reads go straight to the index and cost O(likes returned) rather than a
+ * scan of all users. The journal record is encoded before and appended inside that same compute, so the
+ * log sees one user's changes in the order they were applied and a record that can't be logged changes nothing;
+ * the compute runs under the journal's {@link DurableJournal#changeLock change lock}.
+ */
+@Component
+@ConditionalOnProperty(name = "app.likes.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryLikedTrackStore implements LikedTrackStore, JournalParticipant {
+    static final String JOURNAL_NAME = "likes";
+    static final byte RECORD_PUT = 1;
+    static final byte RECORD_REMOVE = 2;
+    private static final Provider[] PROVIDERS = Provider.values();
+
+    /** One user's likes, overall and per provider. Written only under {@code byUser.compute}. */
+    private static final class UserLikes {
+        final ConcurrentSkipListMap<Position, LikedTrack> all = new ConcurrentSkipListMap<>(Position.ORDER);
+        // Filled once here and never resized, so concurrent reads are safe
+        final Map<Provider, ConcurrentSkipListMap<Position, LikedTrack>> byProvider = new EnumMap<>(Provider.class);
+        final LikeMembership membership = new LikeMembership();
+        volatile int count;
+
+        UserLikes() {
+            for (Provider provider : PROVIDERS) byProvider.put(provider, new ConcurrentSkipListMap<>(Position.ORDER));
+        }
+
+        void add(LikedTrack track) {
+            Position position = Position.of(track);
+            all.put(position, track);
+            if (track.getProvider() != null) byProvider.get(track.getProvider()).put(position, track);
+            membership.add(track.getProvider(), track.getTrackId());
+            count++;
+        }
+
+        void remove(LikedTrack track) {
+            Position position = Position.of(track);
+            if (all.remove(position) == null) return;
+            if (track.getProvider() != null) byProvider.get(track.getProvider()).remove(position);
+            membership.remove(track.getProvider(), track.getTrackId());
+            count--;
+        }
+    }
+
+    private final ConcurrentHashMap<String, LikedTrack> likedTracks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, UserLikes> byUser = new ConcurrentHashMap<>();
+    private final DurableJournal journal;
+
+    public InMemoryLikedTrackStore(DurableJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public void put(LikedTrack track) {
+        index(track, journal.encode(this, out -> writeTrack(out, track)));
+    }
+
+    @Override
+    public LikedTrack remove(String userId, String id) {
+        return unindex(userId, id, removeRecord(id));
+    }
+
+    @Override
+    public LikedTrack get(String userId, String id) {
+        return likedTracks.get(id);
+    }
+
+    @Override
+    public boolean[] liked(String userId, List<TrackRef> tracks) {
+        boolean[] liked = new boolean[tracks.size()];
+        UserLikes likes = byUser.get(userId);
+        if (likes != null) likes.membership.check(tracks, liked);
+        return liked;
+    }
+
+    @Override
+    public List<LikedTrack> page(String userId, Provider provider, Position after, int limit) {
+        UserLikes likes = byUser.get(userId);
+        if (likes == null) return new ArrayList<>();
+        NavigableMap<Position, LikedTrack> ordered = provider == null ? likes.all : likes.byProvider.get(provider);
+        if (after != null) ordered = ordered.tailMap(after, false);
+        List<LikedTrack> items = new ArrayList<>(Math.min(limit, 64));
+        for (LikedTrack track : ordered.values()) {
+            if (items.size() == limit) break;
+            items.add(track);
+        }
+        return items;
+    }
+
+    @Override
+    public long count(String userId) {
+        UserLikes likes = byUser.get(userId);
+        return likes == null ? 0 : likes.count;
+    }
+
+    @Override
+    public List<String> clear(String userId) {
+        List<String> removed = new ArrayList<>();
+        Lock changeLock = journal.changeLock();
+        changeLock.lock();
+        try {
+            byUser.computeIfPresent(userId, (user, likes) -> {
+                for (LikedTrack track : likes.all.values()) {
+                    journal.append(removeRecord(track.getId()));
+                    likedTracks.remove(track.getId());
+                    likes.remove(track);
+                    removed.add(track.getId());
+                }
+                return null;
+            });
+        } finally {
+            changeLock.unlock();
+        }
+        return removed;
+    }
+
+    /**
+     * Stores {@code track}, replacing any like with the same id, in the id map and the index together,
+     * appending {@code record} (null during replay) first.
+     */
+    private void index(LikedTrack track, DurableJournal.Frame record) {
+        Lock changeLock = journal.changeLock();
+        changeLock.lock();
+        try {
+            byUser.compute(owner(track), (user, likes) -> {
+                journal.append(record);
+                if (likes == null) likes = new UserLikes();
+                LikedTrack previous = likedTracks.put(track.getId(), track);
+                if (previous != null) likes.remove(previous);
+                likes.add(track);
+                return likes;
+            });
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    /** Removes the like from the id map and the index together; null when there was none. */
+    private LikedTrack unindex(String userId, String id, DurableJournal.Frame record) {
+        LikedTrack[] removed = new LikedTrack[1];
+        Lock changeLock = journal.changeLock();
+        changeLock.lock();
+        try {
+            byUser.computeIfPresent(userId, (user, likes) -> {
+                if (!likedTracks.containsKey(id)) return likes;
+                journal.append(record);
+                removed[0] = likedTracks.remove(id);
+                if (removed[0] != null) likes.remove(removed[0]);
+                return likes.count == 0 ? null : likes;
+            });
+        } finally {
+            changeLock.unlock();
+        }
+        return removed[0];
+    }
+
+    private static String owner(LikedTrack track) {
+        return Objects.requireNonNullElse(track.getUserId(), "");
+    }
+
+    // ============ Persistence ============
+
+    @Override
+    public String journalName() {
+        return JOURNAL_NAME;
+    }
+
+    @Override
+    public void writeSnapshot(DurableJournal.RecordSink sink) throws IOException {
+        for (LikedTrack track : likedTracks.values()) {
+            sink.write(out -> writeTrack(out, track));
+        }
+    }
+
+    @Override
+    public void replay(DataInput in) throws IOException {
+        if (in.readByte() == RECORD_REMOVE) {
+            LikedTrack existing = likedTracks.get(in.readUTF());
+            if (existing != null) unindex(owner(existing), existing.getId(), null);
+            return;
+        }
+        index(readTrack(in), null);
+    }
+
+    /** A {@link #RECORD_PUT} record's track, read after its type byte. */
+    static LikedTrack readTrack(DataInput in) throws IOException {
+        LikedTrack track = new LikedTrack();
+        track.setId(in.readUTF());
+        track.setUserId(DurableJournal.readString(in));
+        byte provider = in.readByte();
+        track.setProvider(provider < 0 ? null : PROVIDERS[provider]);
+        track.setTrackId(DurableJournal.readString(in));
+        track.setTitle(DurableJournal.readString(in));
+        track.setArtist(DurableJournal.readString(in));
+        track.setAlbum(DurableJournal.readString(in));
+        track.setImageUrl(DurableJournal.readString(in));
+        track.setExternalUrl(DurableJournal.readString(in));
+        track.setLikedAt(DurableJournal.readInstant(in));
+        return track;
+    }
+
+    private DurableJournal.Frame removeRecord(String id) {
+        return journal.encode(this, out -> {
+            out.writeByte(RECORD_REMOVE);
+            out.writeUTF(id);
+        });
+    }
+
+    private static void writeTrack(DataOutput out, LikedTrack track) throws IOException {
+        out.writeByte(RECORD_PUT);
+        out.writeUTF(track.getId());
+        DurableJournal.writeString(out, track.getUserId());
+        out.writeByte(track.getProvider() != null ? track.getProvider().ordinal() : -1);
+        DurableJournal.writeString(out, track.getTrackId());
+        DurableJournal.writeString(out, track.getTitle());
+        DurableJournal.writeString(out, track.getArtist());
+        DurableJournal.writeString(out, track.getAlbum());
+        DurableJournal.writeString(out, track.getImageUrl());
+        DurableJournal.writeString(out, track.getExternalUrl());
+        DurableJournal.writeInstant(out, track.getLikedAt());
+    }
+}
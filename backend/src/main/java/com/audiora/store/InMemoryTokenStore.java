@@ -2,32 +2,411 @@ package com.audiora.store;
 
 import com.audiora.model.Provider;
 import com.audiora.model.TokenInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Session-scoped OAuth token store.
+ * <p>
+ * Sessions expire after {@code app.sessions.idleTtl} without a {@link #get} and unconditionally after
+ * {@code app.sessions.absoluteTtl}. Expiry is driven by a hierarchical timer wheel swept on a fixed
+ * delay; when {@code app.sessions.maxEntries} is exceeded the session nearest to expiry (i.e. the least
+ * recently used one) is evicted. Reads never take a lock: they resolve the session from the map and
+ * bump its access time with a volatile write.
+ * <p>
+ * Token changes and session removals are journaled through {@link DurableJournal}, appended under the
+ * session's write lock and the journal's change lock together with the change; access times are only
+ * captured with those records and in snapshots.
+ */
 @Component
-public class InMemoryTokenStore {
-    private final Map<String, Map<Provider, TokenInfo>> sessions = new ConcurrentHashMap<>();
+public class InMemoryTokenStore implements JournalParticipant {
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final Provider[] PROVIDERS = Provider.values();
+
+    private static final class Session {
+        final String id;
+        // One slot per Provider ordinal; far smaller than a map per session
+        final AtomicReferenceArray<TokenInfo> tokens = new AtomicReferenceArray<>(PROVIDERS.length);
+        final long createdAt;
+        final long createdAtMillis;
+        volatile long lastAccess;
+        final ExpiryWheel.Node<Session> timer = new ExpiryWheel.Node<>(this);
+
+        Session(String id, long now, long createdAtMillis) {
+            this.id = id;
+            this.createdAt = now;
+            this.createdAtMillis = createdAtMillis;
+            this.lastAccess = now;
+        }
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ReentrantLock wheelLock = new ReentrantLock();
+    private final ReentrantLock[] writeLocks = new ReentrantLock[64];
+    private final ExpiryWheel<Session> wheel = new ExpiryWheel<>(System.nanoTime());
+
+    private final long idleTtlNanos;
+    private final long absoluteTtlNanos;
+    private final int maxEntries;
+    private final DurableJournal journal;
+
+    private final Counter idleEvictions;
+    private final Counter absoluteEvictions;
+    private final Counter capacityEvictions;
+
+    public InMemoryTokenStore(@Value("${app.sessions.idleTtl:7d}") Duration idleTtl,
+                              @Value("${app.sessions.absoluteTtl:30d}") Duration absoluteTtl,
+                              @Value("${app.sessions.maxEntries:100000}") int maxEntries,
+                              MeterRegistry meterRegistry,
+                              DurableJournal journal) {
+        this.journal = journal;
+        for (int i = 0; i < writeLocks.length; i++) writeLocks[i] = new ReentrantLock();
+        this.idleTtlNanos = idleTtl.toNanos();
+        this.absoluteTtlNanos = absoluteTtl.toNanos();
+        this.maxEntries = maxEntries;
+        Gauge.builder("audiora.sessions.active", sessions, Map::size)
+                .description("OAuth sessions currently held in memory")
+                .register(meterRegistry);
+        this.idleEvictions = evictionCounter(meterRegistry, "idle");
+        this.absoluteEvictions = evictionCounter(meterRegistry, "absolute");
+        this.capacityEvictions = evictionCounter(meterRegistry, "capacity");
+    }
+
+    private static Counter evictionCounter(MeterRegistry registry, String cause) {
+        return Counter.builder("audiora.sessions.evictions")
+                .description("OAuth sessions removed by the expiry sweep or the size bound")
+                .tag("cause", cause)
+                .register(registry);
+    }
 
     public String createOrUpdate(String sessionId, Provider provider, TokenInfo tokenInfo) {
         String sid = sessionId != null ? sessionId : UUID.randomUUID().toString();
-        sessions.computeIfAbsent(sid, k -> new ConcurrentHashMap<>()).put(provider, tokenInfo);
-        return sid;
+        while (true) {
+            long now = System.nanoTime();
+            Session session = sessions.get(sid);
+            if (session == null || isExpired(session, now)) {
+                boolean[] created = new boolean[1];
+                session = sessions.compute(sid, (k, existing) -> {
+                    if (existing != null && !isExpired(existing, now)) return existing;
+                    created[0] = true;
+                    return new Session(k, now, System.currentTimeMillis());
+                });
+                if (created[0]) {
+                    scheduleNew(session, now);
+                }
+            }
+            session.lastAccess = now;
+            // Removed or evicted since it was looked up: the caller would get a session without its token
+            if (put(session, provider, tokenInfo)) return sid;
+        }
     }
 
     public TokenInfo get(String sessionId, Provider provider) {
-        Map<Provider, TokenInfo> map = sessions.get(sessionId);
-        return map == null ? null : map.get(provider);
+        if (sessionId == null) return null;
+        Session session = sessions.get(sessionId);
+        if (session == null) return null;
+        long now = System.nanoTime();
+        if (isExpired(session, now)) return null;
+        session.lastAccess = now;
+        return session.tokens.get(provider.ordinal());
     }
 
     public void update(String sessionId, Provider provider, TokenInfo newInfo) {
         if (sessionId == null) return;
-        Map<Provider, TokenInfo> map = sessions.get(sessionId);
-        if (map != null && newInfo != null) {
-            map.put(provider, newInfo);
+        Session session = sessions.get(sessionId);
+        if (session != null && newInfo != null) {
+            put(session, provider, newInfo);
+        }
+    }
+
+    /**
+     * Like {@link #get} but does not count as an access.
+     */
+    public TokenInfo peek(String sessionId, Provider provider) {
+        if (sessionId == null) return null;
+        Session session = sessions.get(sessionId);
+        return session == null ? null : session.tokens.get(provider.ordinal());
+    }
+
+    /**
+     * Atomically replaces a session's token only if it is still {@code expected}, so a slow refresh
+     * cannot overwrite a token that was replaced in the meantime (e.g. by a new login).
+     */
+    public boolean replace(String sessionId, Provider provider, TokenInfo expected, TokenInfo newInfo) {
+        if (sessionId == null || newInfo == null) return false;
+        Session session = sessions.get(sessionId);
+        if (session == null) return false;
+        DurableJournal.Frame record = putRecord(session, provider, newInfo);
+        Lock changeLock = journal.changeLock();
+        ReentrantLock lock = writeLock(session);
+        changeLock.lock();
+        lock.lock();
+        try {
+            // Every writer holds the lock, so the slot can't change between this check and the set
+            if (session.tokens.get(provider.ordinal()) != expected || sessions.get(session.id) != session) return false;
+            journal.append(record);
+            session.tokens.set(provider.ordinal(), newInfo);
+            return true;
+        } finally {
+            lock.unlock();
+            changeLock.unlock();
+        }
+    }
+
+    public void remove(String sessionId) {
+        if (sessionId == null) return;
+        Session session = sessions.get(sessionId);
+        if (session != null && removeSession(session, removeRecord(session.id))) {
+            wheelLock.lock();
+            try {
+                wheel.remove(session.timer);
+            } finally {
+                wheelLock.unlock();
+            }
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Visits every stored token of every live session. Visiting does not count as an access, so
+     * background jobs can inspect sessions without keeping them alive.
+     */
+    public void forEachToken(TokenVisitor visitor) {
+        long now = System.nanoTime();
+        for (Session session : sessions.values()) {
+            if (isExpired(session, now)) continue;
+            Duration idle = Duration.ofNanos(now - session.lastAccess);
+            for (Provider provider : PROVIDERS) {
+                TokenInfo token = session.tokens.get(provider.ordinal());
+                if (token != null) visitor.visit(session.id, provider, token, idle);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface TokenVisitor {
+        void visit(String sessionId, Provider provider, TokenInfo token, Duration idle);
+    }
+
+    @Scheduled(fixedDelayString = "${app.sessions.sweepIntervalMs:1000}")
+    public void sweep() {
+        wheelLock.lock();
+        try {
+            wheel.advance(System.nanoTime(), this::onDeadline);
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    private void scheduleNew(Session session, long now) {
+        wheelLock.lock();
+        try {
+            wheel.schedule(session.timer, deadline(session));
+            while (sessions.size() > maxEntries) {
+                ExpiryWheel.Node<Session> victim = wheel.peekEarliest(this::deadline);
+                if (victim == null || victim.value == session) break;
+                wheel.remove(victim);
+                if (evict(victim.value)) {
+                    (isExpired(victim.value, now) ? expiryCounter(victim.value, now) : capacityEvictions).increment();
+                }
+            }
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    private long onDeadline(Session session, long now) {
+        if (sessions.get(session.id) != session) {
+            return Long.MIN_VALUE; // replaced or removed since it was scheduled
+        }
+        if (!isExpired(session, now)) {
+            return deadline(session);
         }
+        if (evict(session)) {
+            expiryCounter(session, now).increment();
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private Counter expiryCounter(Session session, long now) {
+        return now - (session.createdAt + absoluteTtlNanos) >= 0 ? absoluteEvictions : idleEvictions;
+    }
+
+    private long deadline(Session session) {
+        long idleDeadline = session.lastAccess + idleTtlNanos;
+        long absoluteDeadline = session.createdAt + absoluteTtlNanos;
+        return idleDeadline - absoluteDeadline < 0 ? idleDeadline : absoluteDeadline;
+    }
+
+    private boolean isExpired(Session session, long now) {
+        return now - deadline(session) >= 0;
+    }
+
+    /** Sets the token unless {@code session} is no longer the live one; whether it was set. */
+    private boolean put(Session session, Provider provider, TokenInfo tokenInfo) {
+        DurableJournal.Frame record = putRecord(session, provider, tokenInfo);
+        // Writers are serialized per session so the journal sees token changes in the order applied
+        Lock changeLock = journal.changeLock();
+        ReentrantLock lock = writeLock(session);
+        changeLock.lock();
+        lock.lock();
+        try {
+            // A put logged after the session's removal would bring it back on replay
+            if (sessions.get(session.id) != session) return false;
+            journal.append(record);
+            session.tokens.set(provider.ordinal(), tokenInfo);
+            return true;
+        } finally {
+            lock.unlock();
+            changeLock.unlock();
+        }
+    }
+
+    /** Removes {@code session} if it is still the live one, logging the removal under its write lock first. */
+    private boolean removeSession(Session session, DurableJournal.Frame record) {
+        Lock changeLock = journal.changeLock();
+        ReentrantLock lock = writeLock(session);
+        changeLock.lock();
+        lock.lock();
+        try {
+            if (sessions.get(session.id) != session) return false;
+            journal.append(record);
+            return sessions.remove(session.id, session);
+        } finally {
+            lock.unlock();
+            changeLock.unlock();
+        }
+    }
+
+    /**
+     * {@link #removeSession} for the sweep and the size bound, which go ahead even when the record can't be
+     * queued: {@link #afterReplay} drops expired and surplus sessions again anyway.
+     */
+    private boolean evict(Session session) {
+        try {
+            return removeSession(session, removeRecord(session.id));
+        } catch (IllegalStateException e) {
+            return sessions.remove(session.id, session);
+        }
+    }
+
+    private ReentrantLock writeLock(Session session) {
+        return writeLocks[session.id.hashCode() & (writeLocks.length - 1)];
+    }
+
+    // ---------------------------------------------------------------- persistence
+
+    @Override
+    public String journalName() {
+        return "tokens";
+    }
+
+    @Override
+    public void writeSnapshot(DurableJournal.RecordSink sink) throws IOException {
+        for (Session session : sessions.values()) {
+            for (Provider provider : PROVIDERS) {
+                TokenInfo token = session.tokens.get(provider.ordinal());
+                if (token != null) sink.write(out -> writePut(out, session, provider, token));
+            }
+        }
+    }
+
+    @Override
+    public void replay(DataInput in) throws IOException {
+        byte type = in.readByte();
+        String id = in.readUTF();
+        if (type == RECORD_REMOVE) {
+            sessions.remove(id);
+            return;
+        }
+        long createdAtMillis = in.readLong();
+        long lastAccessMillis = in.readLong();
+        Provider provider = PROVIDERS[in.readByte()];
+        TokenInfo token = readToken(in);
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        Session session = sessions.compute(id, (k, existing) -> existing != null && existing.createdAtMillis == createdAtMillis
+                ? existing
+                : new Session(k, nowNanos - (nowMillis - createdAtMillis) * 1_000_000L, createdAtMillis));
+        long lastAccess = nowNanos - (nowMillis - lastAccessMillis) * 1_000_000L;
+        if (lastAccess - session.lastAccess > 0) session.lastAccess = lastAccess;
+        session.tokens.set(provider.ordinal(), token);
+    }
+
+    @Override
+    public void afterReplay() {
+        long now = System.nanoTime();
+        wheelLock.lock();
+        try {
+            for (Session session : sessions.values()) {
+                if (isExpired(session, now)) {
+                    sessions.remove(session.id, session);
+                } else {
+                    wheel.schedule(session.timer, deadline(session));
+                }
+            }
+            while (sessions.size() > maxEntries) {
+                ExpiryWheel.Node<Session> victim = wheel.peekEarliest(this::deadline);
+                if (victim == null) break;
+                wheel.remove(victim);
+                sessions.remove(victim.value.id, victim.value);
+            }
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    private DurableJournal.Frame putRecord(Session session, Provider provider, TokenInfo token) {
+        return journal.encode(this, out -> writePut(out, session, provider, token));
+    }
+
+    private DurableJournal.Frame removeRecord(String sessionId) {
+        return journal.encode(this, out -> {
+            out.writeByte(RECORD_REMOVE);
+            out.writeUTF(sessionId);
+        });
+    }
+
+    private void writePut(DataOutput out, Session session, Provider provider, TokenInfo token) throws IOException {
+        out.writeByte(RECORD_PUT);
+        out.writeUTF(session.id);
+        out.writeLong(session.createdAtMillis);
+        out.writeLong(System.currentTimeMillis() - (System.nanoTime() - session.lastAccess) / 1_000_000L);
+        out.writeByte(provider.ordinal());
+        DurableJournal.writeString(out, token.getAccessToken());
+        DurableJournal.writeString(out, token.getRefreshToken());
+        DurableJournal.writeInstant(out, token.getExpiresAt());
+        DurableJournal.writeString(out, token.getScope());
+        DurableJournal.writeString(out, token.getTokenType());
+    }
+
+    private static TokenInfo readToken(DataInput in) throws IOException {
+        String accessToken = DurableJournal.readString(in);
+        String refreshToken = DurableJournal.readString(in);
+        Instant expiresAt = DurableJournal.readInstant(in);
+        String scope = DurableJournal.readString(in);
+        String tokenType = DurableJournal.readString(in);
+        return new TokenInfo(accessToken, refreshToken, expiresAt, scope, tokenType);
     }
 }
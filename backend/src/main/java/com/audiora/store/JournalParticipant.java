@@ -0,0 +1,26 @@
+package com.audiora.store;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * An in-memory store whose mutations are made durable by the {@link DurableJournal}.
+ * <p>
+ * Records must be idempotent state assignments ("session X now holds token T", "track Y removed"):
+ * after a crash the journal replays the latest snapshot followed by the log written since, and the
+ * two may overlap.
+ */
+public interface JournalParticipant {
+
+    /** Stable name tagging this participant's records on disk. */
+    String journalName();
+
+    /** Emits the participant's complete current state as a sequence of records. */
+    void writeSnapshot(DurableJournal.RecordSink sink) throws IOException;
+
+    /** Applies one record during recovery. Must not journal it again. */
+    void replay(DataInput in) throws IOException;
+
+    /** Called once all records have been replayed, before the application starts serving requests. */
+    default void afterReplay() {}
+}
@@ -0,0 +1,104 @@
+package com.audiora.store;
+
+import com.audiora.model.Provider;
+import com.audiora.model.TrackRef;
+
+import java.util.List;
+
+/**
+ * The (provider, trackId) pairs one user has liked, in an open-addressing hash table, so a batch status
+ * check hashes each probe in place instead of building its id string. Slots keep the track id itself, so
+ * a hash match is confirmed and never reports a track that isn't liked.
+ */
+final class LikeMembership {
+    private static final Provider[] PROVIDERS = Provider.values();
+
+    // 0 marks an empty slot; hash() never returns it
+    private long[] hashes = new long[16];
+    private byte[] providers = new byte[16];
+    private String[] trackIds = new String[16];
+    private int size;
+
+    synchronized void add(Provider provider, String trackId) {
+        if (provider == null || trackId == null) return;
+        if ((size + 1) * 2 > hashes.length) resize(hashes.length * 2);
+        long hash = hash(provider, trackId);
+        int slot = find(hash, provider, trackId);
+        if (hashes[slot] != 0) return;
+        hashes[slot] = hash;
+        providers[slot] = (byte) provider.ordinal();
+        trackIds[slot] = trackId;
+        size++;
+    }
+
+    synchronized void remove(Provider provider, String trackId) {
+        if (provider == null || trackId == null) return;
+        int slot = find(hash(provider, trackId), provider, trackId);
+        if (hashes[slot] == 0) return;
+        // Backward-shift deletion: pull later entries of the probe run into the gap
+        int mask = hashes.length - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (hashes[next] == 0) break;
+            int home = (int) hashes[next] & mask;
+            boolean between = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (between) continue;
+            hashes[slot] = hashes[next];
+            providers[slot] = providers[next];
+            trackIds[slot] = trackIds[next];
+            slot = next;
+        }
+        hashes[slot] = 0;
+        trackIds[slot] = null;
+        size--;
+    }
+
+    /** Sets {@code liked[i]} for each of {@code tracks} found here. */
+    synchronized void check(List<TrackRef> tracks, boolean[] liked) {
+        for (int i = 0; i < tracks.size(); i++) {
+            TrackRef track = tracks.get(i);
+            if (track.provider() == null || track.trackId() == null) continue;
+            liked[i] = hashes[find(hash(track.provider(), track.trackId()), track.provider(), track.trackId())] != 0;
+        }
+    }
+
+    /** The slot holding the pair, or the empty slot ending its probe run. */
+    private int find(long hash, Provider provider, String trackId) {
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != 0) {
+            if (hashes[slot] == hash && providers[slot] == provider.ordinal() && trackIds[slot].equals(trackId)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] oldHashes = hashes;
+        byte[] oldProviders = providers;
+        String[] oldTrackIds = trackIds;
+        hashes = new long[capacity];
+        providers = new byte[capacity];
+        trackIds = new String[capacity];
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] == 0) continue;
+            int slot = find(oldHashes[i], PROVIDERS[oldProviders[i]], oldTrackIds[i]);
+            hashes[slot] = oldHashes[i];
+            providers[slot] = oldProviders[i];
+            trackIds[slot] = oldTrackIds[i];
+        }
+    }
+
+    private static long hash(Provider provider, String trackId) {
+        long h = 0xcbf29ce484222325L ^ provider.ordinal();
+        for (int i = 0; i < trackId.length(); i++) {
+            h ^= trackId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,58 @@
+package com.audiora.store;
+
+import com.audiora.model.LikedTrack;
+import com.audiora.model.Provider;
+import com.audiora.model.TrackRef;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Where liked tracks live, behind {@code LikedTracksService}. Each user's likes are kept in
+ * {@link Position} order: most recent first, then by id. Ids are {@code userId_PROVIDER_trackId}.
+ * <p>
+ * Chosen by {@code app.likes.store}: {@code memory} ({@link InMemoryLikedTrackStore}, the default) or
+ * {@code lsm} ({@link LsmLikedTrackStore}, on disk).
+ */
+public interface LikedTrackStore {
+
+    /** Where a like sits in its user's ordering. */
+    record Position(Instant likedAt, String id) {
+        public static final Comparator<Position> ORDER = Comparator
+                .comparing(Position::likedAt, Comparator.nullsLast(Comparator.<Instant>reverseOrder()))
+                .thenComparing(Position::id);
+
+        public static Position of(LikedTrack track) {
+            return new Position(track.getLikedAt(), track.getId());
+        }
+    }
+
+    /** Stores the like, replacing any with the same id. */
+    void put(LikedTrack track);
+
+    /** Stores each like as {@link #put} does, in order. */
+    default void putAll(List<LikedTrack> tracks) {
+        tracks.forEach(this::put);
+    }
+
+    /** Removes the like; null when there was none. */
+    LikedTrack remove(String userId, String id);
+
+    /** The like with this id, or null. */
+    LikedTrack get(String userId, String id);
+
+    /** Whether the user has liked each of {@code tracks}, in the same order. */
+    boolean[] liked(String userId, List<TrackRef> tracks);
+
+    /**
+     * Up to {@code limit} of the user's likes, in order, starting after {@code after} (from the most recent
+     * when null) and restricted to {@code provider} when not null.
+     */
+    List<LikedTrack> page(String userId, Provider provider, Position after, int limit);
+
+    long count(String userId);
+
+    /** Removes all of the user's likes and returns their ids. */
+    List<String> clear(String userId);
+}
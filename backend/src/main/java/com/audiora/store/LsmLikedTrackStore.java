@@ -0,0 +1,1076 @@
+package com.audiora.store;
+
+import com.audiora.model.LikedTrack;
+import com.audiora.model.Provider;
+import com.audiora.model.TrackRef;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Log-structured, on-disk {@link LikedTrackStore} for like volumes that outgrow the heap
+ * ({@code app.likes.store=lsm}).
+ * <p>
+ * Writes go to a log ({@code wal-<n>.log}) and to an in-memory memtable. Once the memtable holds
+ * {@code memtableBytes} it is frozen and written out in the background as immutable sorted segment
+ * files ({@link LsmSegment}). Keys are {@code (userId, likedAt desc, id)}, the id naming provider and
+ * track, so a user's likes form one contiguous, already ordered range: pages seek to the cursor and
+ * merge the memtables with the memory-mapped segments, newest first. {@link #get} checks each segment's
+ * bloom filter and id index instead of scanning. Compaction merges runs of similar size,
+ * {@code compactionThreshold} at a time, dropping overwritten entries and, when the oldest run takes
+ * part, deletes. Batch status checks use a {@link LikeMembership} per user, built from a scan of the user's
+ * range on first use and then kept up to date by writes, for at most {@code membershipCacheUsers} users.
+ * The scan runs outside the write lock; writes to the user meanwhile are recorded and replayed onto the
+ * result before it is cached.
+ * <p>
+ * {@code MANIFEST} lists the live segments and is replaced atomically after every flush and compaction.
+ * On startup, files it doesn't list are removed as leftovers of an interrupted flush or compaction, and
+ * the logs still present are replayed. A log is deleted once its memtable is in the manifest.
+ * <p>
+ * Switching from {@code app.likes.store=memory} with {@code app.persistence} on: a new, empty store takes
+ * the likes the {@link DurableJournal} recovers (as {@link InMemoryLikedTrackStore} would have) once.
+ * It writes nothing into the journal's snapshots, so the journal stops carrying likes after the next one;
+ * switching back means an export and import.
+ */
+@Component
+@ConditionalOnProperty(name = "app.likes.store", havingValue = "lsm")
+public class LsmLikedTrackStore implements LikedTrackStore, JournalParticipant, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(LsmLikedTrackStore.class);
+
+    static final int TIMESTAMP_BYTES = 12;
+    private static final byte[] TOMBSTONE = new byte[0];
+    private static final Provider[] PROVIDERS = Provider.values();
+    private static final Pattern WAL_FILE = Pattern.compile("wal-(\\d+)\\.log");
+    private static final Pattern SEGMENT_FILE = Pattern.compile("seg-(\\d+)\\.dat");
+    private static final String MANIFEST = "MANIFEST";
+    // Rough per-entry overhead of a memtable entry on the heap
+    private static final int ENTRY_OVERHEAD = 96;
+    // Far above any real like; a longer log record is read as a torn tail
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final int MIGRATION_BATCH = 1000;
+
+    /** An in-memory run of recent writes, and the log that makes it durable. */
+    private static final class Memtable {
+        final Path logPath;
+        final ConcurrentSkipListMap<byte[], byte[]> data = new ConcurrentSkipListMap<>(Arrays::compareUnsigned);
+        // id -> key of that id's latest entry here: its live one when it has one
+        final ConcurrentHashMap<String, byte[]> ids = new ConcurrentHashMap<>();
+        volatile long bytes;
+        FileChannel channel;
+        DataOutputStream out;
+
+        Memtable(Path logPath) {
+            this.logPath = logPath;
+        }
+
+        void closeLog() throws IOException {
+            if (out == null) return;
+            out.flush();
+            channel.force(false);
+            out.close();
+            out = null;
+        }
+    }
+
+    /** The segments written by one flush or compaction: all the same age, each user in at most one. */
+    private record Run(long seq, List<LsmSegment> segments) {
+        long bytes() {
+            return segments.stream().mapToLong(s -> s.size).sum();
+        }
+
+        long records() {
+            return segments.stream().mapToLong(s -> s.records).sum();
+        }
+    }
+
+    /** What readers see; newest first throughout. Replaced, never mutated. */
+    private record View(Memtable active, List<Memtable> frozen, List<Run> runs) {}
+
+    /** The latest entry for an id; an empty value is a delete. */
+    private record Hit(byte[] key, byte[] value) {}
+
+    /** An entry to log and apply; an empty value is a delete. */
+    private record Change(byte[] key, byte[] value) {}
+
+    /** One write to a user's likes, as it affects the user's {@link LikeMembership}. */
+    private record MembershipChange(Provider provider, String trackId, boolean liked) {}
+
+    /** A membership being built outside the write lock, and the user's writes since the scan started. */
+    private static final class MembershipLoad {
+        final CompletableFuture<LikeMembership> result = new CompletableFuture<>();
+        final List<MembershipChange> changes = new ArrayList<>();
+        boolean cleared;
+    }
+
+    private final Path dir;
+    private final long memtableBytes;
+    private final long maxSegmentBytes;
+    private final int compactionThreshold;
+    private final long syncIntervalMs;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ExecutorService maintenance = Executors.newSingleThreadExecutor(daemon("likes-lsm-maintenance"));
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(daemon("likes-lsm-sync"));
+    private final Counter flushes;
+    private final Counter compactions;
+    // Installed and updated under writeLock only, so a cached membership never misses a write
+    private final Cache<String, LikeMembership> memberships;
+    // Memberships being built, by user; guarded by writeLock
+    private final Map<String, MembershipLoad> membershipLoads = new HashMap<>();
+    private volatile View view;
+    private long nextLogId;
+    // Only touched by the maintenance thread after startup
+    private long nextSeq;
+    private long nextSegmentId;
+    private long flushBytes;
+    // Set while a new store takes the likes recovered by the DurableJournal; by id, in journal order
+    private boolean migrating;
+    private Map<String, LikedTrack> migrated = new LinkedHashMap<>();
+
+    public LsmLikedTrackStore(MeterRegistry meterRegistry,
+                              @Value("${app.likes.lsm.dir:./data/likes}") String dir,
+                              @Value("${app.likes.lsm.memtableBytes:67108864}") long memtableBytes,
+                              @Value("${app.likes.lsm.maxSegmentBytes:1073741824}") long maxSegmentBytes,
+                              @Value("${app.likes.lsm.compactionThreshold:4}") int compactionThreshold,
+                              @Value("${app.likes.lsm.syncIntervalMs:200}") long syncIntervalMs,
+                              @Value("${app.likes.lsm.membershipCacheUsers:10000}") long membershipCacheUsers) throws IOException {
+        this.dir = Path.of(dir);
+        this.memtableBytes = memtableBytes;
+        // Offsets inside a segment are ints
+        this.maxSegmentBytes = Math.min(maxSegmentBytes, 1L << 30);
+        this.compactionThreshold = Math.max(2, compactionThreshold);
+        this.syncIntervalMs = syncIntervalMs;
+        this.flushBytes = memtableBytes / 2;
+        this.memberships = Caffeine.newBuilder().maximumSize(membershipCacheUsers).build();
+        Files.createDirectories(this.dir);
+        long started = System.nanoTime();
+        List<Run> runs = readManifest();
+        List<Memtable> replayed = replayLogs();
+        Memtable active;
+        writeLock.lock();
+        try {
+            active = newMemtable();
+            view = new View(active, List.copyOf(replayed), List.copyOf(runs));
+        } finally {
+            writeLock.unlock();
+        }
+        this.flushes = Counter.builder("audiora.likes.lsm.flushes")
+                .description("Memtables written out as liked-track segments")
+                .register(meterRegistry);
+        this.compactions = Counter.builder("audiora.likes.lsm.compactions")
+                .description("Liked-track segment compactions")
+                .register(meterRegistry);
+        this.migrating = runs.isEmpty() && replayed.isEmpty();
+        // Everything the maintenance tasks use is set by now
+        for (int i = 0; i < replayed.size(); i++) maintenance.execute(this::flushOldest);
+        maintenance.execute(this::compact);
+        if (syncIntervalMs > 0) {
+            syncer.scheduleWithFixedDelay(this::syncLog, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        Gauge.builder("audiora.likes.lsm.segments", this, s -> s.view.runs().stream().mapToInt(r -> r.segments().size()).sum())
+                .description("Liked-track segment files in use")
+                .register(meterRegistry);
+        Gauge.builder("audiora.likes.lsm.memtable.bytes", this, s -> s.view.active().bytes)
+                .description("Approximate size of the liked-track memtable")
+                .register(meterRegistry);
+        log.info("Opened liked-track store in {} ({} segments, {} logs replayed) in {} ms", this.dir.toAbsolutePath(),
+                runs.stream().mapToInt(r -> r.segments().size()).sum(), replayed.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    // ---------------------------------------------------------------- LikedTrackStore
+
+    @Override
+    public void put(LikedTrack track) {
+        putAll(List.of(track));
+    }
+
+    /**
+     * Takes the write lock, and syncs the log, once for the whole batch. The batch is logged (and, with
+     * {@code syncIntervalMs} 0, synced) before any of it becomes visible; with a sync interval, readers may
+     * see it up to that long before a crash could no longer lose it.
+     */
+    @Override
+    public void putAll(List<LikedTrack> tracks) {
+        if (tracks.isEmpty()) return;
+        writeLock.lock();
+        try {
+            List<Change> changes = new ArrayList<>(tracks.size());
+            // An id repeated in the batch replaces its own earlier entry, which find() can't see yet
+            Map<String, byte[]> batchKeys = new HashMap<>();
+            for (LikedTrack track : tracks) {
+                String userId = owner(track);
+                byte[] previous = batchKeys.get(track.getId());
+                if (previous == null) {
+                    Hit hit = find(view, userId, track.getId());
+                    if (hit != null && hit.value().length > 0) previous = hit.key();
+                }
+                byte[] key = key(userId, track.getLikedAt(), track.getId());
+                // The new entry goes first, so a concurrent get never sees the like missing
+                changes.add(new Change(key, encode(track)));
+                if (previous != null && !Arrays.equals(previous, key)) changes.add(new Change(previous, TOMBSTONE));
+                batchKeys.put(track.getId(), key);
+            }
+            Memtable active = view.active();
+            write(active, changes);
+            for (LikedTrack track : tracks) {
+                trackMembership(owner(track), new MembershipChange(track.getProvider(), track.getTrackId(), true));
+            }
+            maybeRotate();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public LikedTrack remove(String userId, String id) {
+        writeLock.lock();
+        try {
+            Hit hit = find(view, userId, id);
+            if (hit == null || hit.value().length == 0) return null;
+            write(view.active(), List.of(new Change(hit.key(), TOMBSTONE)));
+            LikedTrack removed = decode(hit.key(), hit.value());
+            trackMembership(userId, new MembershipChange(removed.getProvider(), removed.getTrackId(), false));
+            maybeRotate();
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public LikedTrack get(String userId, String id) {
+        Hit hit = find(view, userId, id);
+        return hit == null || hit.value().length == 0 ? null : decode(hit.key(), hit.value());
+    }
+
+    @Override
+    public boolean[] liked(String userId, List<TrackRef> tracks) {
+        LikeMembership membership = memberships.getIfPresent(userId);
+        if (membership == null) membership = loadMembership(userId);
+        boolean[] liked = new boolean[tracks.size()];
+        membership.check(tracks, liked);
+        return liked;
+    }
+
+    @Override
+    public List<LikedTrack> page(String userId, Provider provider, Position after, int limit) {
+        byte[] prefix = userPrefix(userId);
+        byte[] from = after == null ? prefix : key(userId, after.likedAt(), after.id());
+        List<LikedTrack> items = new ArrayList<>(Math.min(limit, 64));
+        for (Merge merge = new Merge(scans(view, from)); merge.valid() && items.size() < limit; merge.next()) {
+            byte[] key = merge.key();
+            if (!startsWith(key, prefix)) break;
+            byte[] value = merge.value();
+            if (value.length == 0 || (after != null && Arrays.equals(key, from))) continue;
+            // The first value byte is the provider's ordinal
+            if (provider != null && value[0] != provider.ordinal()) continue;
+            items.add(decode(key, value));
+        }
+        return items;
+    }
+
+    /** Counts by scanning the user's range: O(likes of the user), unlike the in-memory store. */
+    @Override
+    public long count(String userId) {
+        byte[] prefix = userPrefix(userId);
+        long count = 0;
+        for (Merge merge = new Merge(scans(view, prefix)); merge.valid() && startsWith(merge.key(), prefix); merge.next()) {
+            if (merge.value().length > 0) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public List<String> clear(String userId) {
+        byte[] prefix = userPrefix(userId);
+        List<String> removed = new ArrayList<>();
+        writeLock.lock();
+        try {
+            List<byte[]> keys = new ArrayList<>();
+            for (Merge merge = new Merge(scans(view, prefix)); merge.valid() && startsWith(merge.key(), prefix); merge.next()) {
+                if (merge.value().length > 0) keys.add(merge.key());
+            }
+            List<Change> changes = new ArrayList<>(keys.size());
+            for (byte[] key : keys) {
+                changes.add(new Change(key, TOMBSTONE));
+                removed.add(id(key));
+            }
+            write(view.active(), changes);
+            memberships.invalidate(userId);
+            MembershipLoad load = membershipLoads.get(userId);
+            if (load != null) {
+                load.cleared = true;
+                load.changes.clear();
+            }
+            maybeRotate();
+        } finally {
+            writeLock.unlock();
+        }
+        return removed;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        syncer.shutdownNow();
+        maintenance.shutdown();
+        if (!maintenance.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Liked-track maintenance still running at shutdown; its logs will be replayed on restart");
+        }
+        writeLock.lock();
+        try {
+            view.active().closeLog();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- reads
+
+    /** The latest entry for {@code id}, from the newest source that has one; null when none has. */
+    private static Hit find(View view, String userId, String id) {
+        byte[] key = view.active().ids.get(id);
+        if (key != null) return new Hit(key, view.active().data.get(key));
+        for (Memtable memtable : view.frozen()) {
+            key = memtable.ids.get(id);
+            if (key != null) return new Hit(key, memtable.data.get(key));
+        }
+        byte[] idKey = idKey(userId, id);
+        for (Run run : view.runs()) {
+            for (LsmSegment segment : run.segments()) {
+                int offset = segment.findId(idKey);
+                if (offset >= 0) return new Hit(segment.keyAt(offset), segment.valueAt(offset));
+            }
+        }
+        return null;
+    }
+
+    /** Every source from {@code from} on, newest first, as {@link Merge} expects. */
+    private static List<LsmSegment.Scan> scans(View view, byte[] from) {
+        List<LsmSegment.Scan> scans = new ArrayList<>();
+        scans.add(new MemtableScan(view.active().data.tailMap(from, true)));
+        for (Memtable memtable : view.frozen()) scans.add(new MemtableScan(memtable.data.tailMap(from, true)));
+        for (Run run : view.runs()) {
+            for (LsmSegment segment : run.segments()) scans.add(segment.scan(from));
+        }
+        return scans;
+    }
+
+    private static final class MemtableScan implements LsmSegment.Scan {
+        private final Iterator<Map.Entry<byte[], byte[]>> entries;
+        private Map.Entry<byte[], byte[]> current;
+
+        MemtableScan(Map<byte[], byte[]> data) {
+            this.entries = data.entrySet().iterator();
+            next();
+        }
+
+        @Override
+        public boolean valid() {
+            return current != null;
+        }
+
+        @Override
+        public byte[] key() {
+            return current.getKey();
+        }
+
+        @Override
+        public byte[] value() {
+            return current.getValue();
+        }
+
+        @Override
+        public void next() {
+            current = entries.hasNext() ? entries.next() : null;
+        }
+    }
+
+    /** The segments of one run back to back; they are written in key order. */
+    private static final class RunScan implements LsmSegment.Scan {
+        private final Iterator<LsmSegment> segments;
+        private LsmSegment.Scan current;
+
+        RunScan(Run run) {
+            this.segments = run.segments().iterator();
+            advance();
+        }
+
+        private void advance() {
+            while ((current == null || !current.valid()) && segments.hasNext()) current = segments.next().scan(null);
+        }
+
+        @Override
+        public boolean valid() {
+            return current != null && current.valid();
+        }
+
+        @Override
+        public byte[] key() {
+            return current.key();
+        }
+
+        @Override
+        public byte[] value() {
+            return current.value();
+        }
+
+        @Override
+        public void next() {
+            current.next();
+            advance();
+        }
+    }
+
+    /** Merges sources given newest first: each key once, with the value of the newest source holding it. */
+    private static final class Merge implements LsmSegment.Scan {
+        private record Source(LsmSegment.Scan scan, int rank) {}
+
+        private final PriorityQueue<Source> heap = new PriorityQueue<>((a, b) -> {
+            int compared = Arrays.compareUnsigned(a.scan().key(), b.scan().key());
+            return compared != 0 ? compared : Integer.compare(a.rank(), b.rank());
+        });
+        private byte[] key;
+        private byte[] value;
+
+        Merge(List<LsmSegment.Scan> scans) {
+            for (int i = 0; i < scans.size(); i++) {
+                if (scans.get(i).valid()) heap.add(new Source(scans.get(i), i));
+            }
+            next();
+        }
+
+        @Override
+        public boolean valid() {
+            return key != null;
+        }
+
+        @Override
+        public byte[] key() {
+            return key;
+        }
+
+        @Override
+        public byte[] value() {
+            return value;
+        }
+
+        @Override
+        public void next() {
+            Source top = heap.poll();
+            if (top == null) {
+                key = null;
+                return;
+            }
+            key = top.scan().key();
+            value = top.scan().value();
+            step(top);
+            while (!heap.isEmpty() && Arrays.equals(heap.peek().scan().key(), key)) step(heap.poll());
+        }
+
+        private void step(Source source) {
+            source.scan().next();
+            if (source.scan().valid()) heap.add(source);
+        }
+    }
+
+    /**
+     * Builds the user's membership from a scan of the view current when the load registered, then installs
+     * it under {@code writeLock} after replaying the user's writes since. A write the scan already saw is
+     * replayed too, which is harmless: each change sets a track's state, and they are replayed in order.
+     * Concurrent callers for the same user share one scan.
+     */
+    private LikeMembership loadMembership(String userId) {
+        MembershipLoad load;
+        View snapshot;
+        writeLock.lock();
+        try {
+            LikeMembership cached = memberships.getIfPresent(userId);
+            if (cached != null) return cached;
+            load = membershipLoads.get(userId);
+            if (load == null) {
+                load = new MembershipLoad();
+                membershipLoads.put(userId, load);
+                snapshot = view;
+            } else {
+                snapshot = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (snapshot == null) return load.result.join();
+        try {
+            LikeMembership scanned = scanMembership(snapshot, userId);
+            LikeMembership membership;
+            writeLock.lock();
+            try {
+                membershipLoads.remove(userId);
+                membership = load.cleared ? new LikeMembership() : scanned;
+                for (MembershipChange change : load.changes) apply(membership, change);
+                memberships.put(userId, membership);
+            } finally {
+                writeLock.unlock();
+            }
+            load.result.complete(membership);
+            return membership;
+        } catch (RuntimeException e) {
+            writeLock.lock();
+            try {
+                membershipLoads.remove(userId);
+            } finally {
+                writeLock.unlock();
+            }
+            load.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /** Applies a write to the user's cached membership and to one being built; caller holds {@code writeLock}. */
+    private void trackMembership(String userId, MembershipChange change) {
+        LikeMembership membership = memberships.getIfPresent(userId);
+        if (membership != null) apply(membership, change);
+        MembershipLoad load = membershipLoads.get(userId);
+        if (load != null) load.changes.add(change);
+    }
+
+    private static void apply(LikeMembership membership, MembershipChange change) {
+        if (change.liked()) membership.add(change.provider(), change.trackId());
+        else membership.remove(change.provider(), change.trackId());
+    }
+
+    private LikeMembership scanMembership(View view, String userId) {
+        byte[] prefix = userPrefix(userId);
+        LikeMembership membership = new LikeMembership();
+        for (Merge merge = new Merge(scans(view, prefix)); merge.valid() && startsWith(merge.key(), prefix); merge.next()) {
+            if (merge.value().length == 0) continue;
+            LikedTrack track = decode(merge.key(), merge.value());
+            membership.add(track.getProvider(), track.getTrackId());
+        }
+        return membership;
+    }
+
+    // ---------------------------------------------------------------- migration from the journal
+
+    @Override
+    public String journalName() {
+        return InMemoryLikedTrackStore.JOURNAL_NAME;
+    }
+
+    /** Nothing: likes live in this store's own files. */
+    @Override
+    public void writeSnapshot(DurableJournal.RecordSink sink) {
+    }
+
+    @Override
+    public void replay(DataInput in) throws IOException {
+        if (!migrating) return;
+        if (in.readByte() == InMemoryLikedTrackStore.RECORD_REMOVE) {
+            migrated.remove(in.readUTF());
+            return;
+        }
+        LikedTrack track = InMemoryLikedTrackStore.readTrack(in);
+        migrated.remove(track.getId());
+        migrated.put(track.getId(), track);
+    }
+
+    @Override
+    public void afterReplay() {
+        List<LikedTrack> tracks = new ArrayList<>(migrated.values());
+        migrating = false;
+        migrated = Map.of();
+        if (tracks.isEmpty()) return;
+        for (int i = 0; i < tracks.size(); i += MIGRATION_BATCH) {
+            putAll(tracks.subList(i, Math.min(tracks.size(), i + MIGRATION_BATCH)));
+        }
+        log.info("Imported {} liked tracks from the persistence journal into the new liked-track store", tracks.size());
+    }
+
+    // ---------------------------------------------------------------- writes
+
+    /**
+     * Logs the changes, syncs the log if eager, then applies them; caller holds {@code writeLock}. All are
+     * framed first, so an entry {@link #frame} refuses fails the call before anything is logged.
+     */
+    private void write(Memtable memtable, List<Change> changes) {
+        List<byte[]> frames = new ArrayList<>(changes.size());
+        for (Change change : changes) frames.add(frame(change.key(), change.value()));
+        try {
+            for (byte[] frame : frames) memtable.out.write(frame);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not log liked-track change", e);
+        }
+        syncIfEager(memtable);
+        for (Change change : changes) apply(memtable, change.key(), change.value());
+    }
+
+    /** With {@code syncIntervalMs} 0, syncs the log before a write returns; caller holds {@code writeLock}. */
+    private void syncIfEager(Memtable memtable) {
+        if (syncIntervalMs > 0) return;
+        try {
+            memtable.out.flush();
+            memtable.channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not sync the liked-track log", e);
+        }
+    }
+
+    private static void apply(Memtable memtable, byte[] key, byte[] value) {
+        memtable.data.put(key, value);
+        String id = id(key);
+        if (value.length > 0) {
+            memtable.ids.put(id, key);
+        } else {
+            // A delete of a stale key must not hide the id's live entry
+            memtable.ids.compute(id, (k, current) -> current == null || memtable.data.get(current).length == 0 ? key : current);
+        }
+        memtable.bytes += key.length + value.length + ENTRY_OVERHEAD;
+    }
+
+    /** Freezes the memtable once full and hands it to the maintenance thread; caller holds {@code writeLock}. */
+    private void maybeRotate() {
+        View current = view;
+        if (current.active().bytes < memtableBytes) return;
+        try {
+            current.active().closeLog();
+            List<Memtable> frozen = new ArrayList<>();
+            frozen.add(current.active());
+            frozen.addAll(current.frozen());
+            view = new View(newMemtable(), List.copyOf(frozen), current.runs());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start a new liked-track log", e);
+        }
+        maintenance.execute(this::flushOldest);
+    }
+
+    private Memtable newMemtable() throws IOException {
+        Memtable memtable = new Memtable(dir.resolve("wal-" + nextLogId++ + ".log"));
+        FileOutputStream file = new FileOutputStream(memtable.logPath.toFile(), true);
+        memtable.channel = file.getChannel();
+        memtable.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        return memtable;
+    }
+
+    private void syncLog() {
+        Memtable active;
+        writeLock.lock();
+        try {
+            active = view.active();
+            try {
+                if (active.out != null) active.out.flush();
+            } catch (IOException e) {
+                log.warn("Could not flush the liked-track log", e);
+                return;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            active.channel.force(false);
+        } catch (ClosedChannelException ignored) {
+            // rotated meanwhile; closing it synced it
+        } catch (IOException e) {
+            log.warn("Could not sync the liked-track log", e);
+        }
+    }
+
+    // ---------------------------------------------------------------- flush and compaction
+
+    /** Writes the oldest frozen memtable out as a run of segments. Maintenance thread only. */
+    private void flushOldest() {
+        List<Memtable> frozen = view.frozen();
+        if (frozen.isEmpty()) return;
+        Memtable memtable = frozen.get(frozen.size() - 1);
+        try {
+            Run run = writeRun(nextSeq++, new MemtableScan(memtable.data), memtable.data.size(), false);
+            List<Run> runs = new ArrayList<>();
+            if (run != null) runs.add(run);
+            runs.addAll(view.runs());
+            writeManifest(runs);
+            writeLock.lock();
+            try {
+                View current = view;
+                List<Memtable> remaining = new ArrayList<>(current.frozen());
+                remaining.remove(memtable);
+                view = new View(current.active(), List.copyOf(remaining), List.copyOf(runs));
+            } finally {
+                writeLock.unlock();
+            }
+            Files.deleteIfExists(memtable.logPath);
+            if (run != null && memtable.bytes >= memtableBytes) flushBytes = run.bytes();
+            flushes.increment();
+        } catch (IOException | RuntimeException e) {
+            log.error("Writing liked-track memtable {} failed; it stays in memory and in its log", memtable.logPath.getFileName(), e);
+            return;
+        }
+        compact();
+    }
+
+    /** Merges runs until no tier holds {@code compactionThreshold} of them. Maintenance thread only. */
+    private void compact() {
+        while (true) {
+            List<Run> runs = view.runs();
+            int[] group = pickGroup(runs);
+            if (group == null) return;
+            long started = System.nanoTime();
+            List<Run> inputs = runs.subList(group[0], group[1]);
+            List<LsmSegment.Scan> scans = new ArrayList<>();
+            for (Run run : inputs) scans.add(new RunScan(run));
+            // Deletes can only go once nothing older is left for them to hide
+            boolean includesOldest = group[1] == runs.size();
+            try {
+                Run merged = writeRun(inputs.get(0).seq(), new Merge(scans),
+                        inputs.stream().mapToLong(Run::records).sum(), includesOldest);
+                List<Run> next = new ArrayList<>(runs.subList(0, group[0]));
+                if (merged != null) next.add(merged);
+                next.addAll(runs.subList(group[1], runs.size()));
+                writeManifest(next);
+                writeLock.lock();
+                try {
+                    View current = view;
+                    view = new View(current.active(), current.frozen(), List.copyOf(next));
+                } finally {
+                    writeLock.unlock();
+                }
+                // Readers may still hold the old views; the mappings outlive the files
+                for (Run run : inputs) {
+                    for (LsmSegment segment : run.segments()) Files.deleteIfExists(segment.path);
+                }
+                compactions.increment();
+                log.info("Compacted {} liked-track runs ({} MB) in {} ms", inputs.size(),
+                        inputs.stream().mapToLong(Run::bytes).sum() >> 20, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            } catch (IOException | RuntimeException e) {
+                log.error("Liked-track compaction failed; keeping the existing segments", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * The newest run of adjacent runs in the same size tier ({@code compactionThreshold}-fold steps above a
+     * flush), as {@code [from, to)}, once it has enough runs to merge; null when there is none. Only adjacent
+     * runs may merge: the result takes the place, and the age, of its inputs.
+     */
+    private int[] pickGroup(List<Run> runs) {
+        int start = 0;
+        for (int i = 1; i <= runs.size(); i++) {
+            if (i < runs.size() && tier(runs.get(i)) == tier(runs.get(start))) continue;
+            if (i - start >= compactionThreshold) return new int[] {start, i};
+            start = i;
+        }
+        return null;
+    }
+
+    private int tier(Run run) {
+        double ratio = (double) run.bytes() / Math.max(1, flushBytes);
+        return (int) Math.max(0, Math.round(Math.log(ratio) / Math.log(compactionThreshold)));
+    }
+
+    /**
+     * Writes the entries of {@code source} as one run, starting a new file past {@code maxSegmentBytes} at
+     * the next user. Null when nothing was left to write.
+     */
+    private Run writeRun(long seq, LsmSegment.Scan source, long expectedRecords, boolean dropDeletes) throws IOException {
+        // Sized for what fits in one file, not for the whole run
+        long expectedPerFile = Math.min(expectedRecords, maxSegmentBytes / 32) + 1;
+        List<LsmSegment> segments = new ArrayList<>();
+        LsmSegment.Writer writer = null;
+        Path path = null;
+        byte[] lastKey = null;
+        try {
+            for (; source.valid(); source.next()) {
+                byte[] key = source.key();
+                byte[] value = source.value();
+                if (dropDeletes && value.length == 0) continue;
+                if (writer != null && writer.bytes() >= maxSegmentBytes && !sameUser(lastKey, key)) {
+                    writer.finish();
+                    segments.add(LsmSegment.open(path));
+                    writer = null;
+                }
+                if (writer == null) {
+                    path = dir.resolve("seg-" + nextSegmentId++ + ".dat");
+                    writer = new LsmSegment.Writer(path, expectedPerFile);
+                }
+                writer.add(key, value);
+                lastKey = key;
+            }
+            if (writer != null) {
+                writer.finish();
+                segments.add(LsmSegment.open(path));
+            }
+        } catch (IOException | RuntimeException e) {
+            if (writer != null) writer.abort();
+            for (LsmSegment segment : segments) Files.deleteIfExists(segment.path);
+            throw e;
+        }
+        return segments.isEmpty() ? null : new Run(seq, List.copyOf(segments));
+    }
+
+    // ---------------------------------------------------------------- manifest and recovery
+
+    /** One line per run, newest first: {@code seq file file ...}. */
+    private void writeManifest(List<Run> runs) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (Run run : runs) {
+            text.append(run.seq());
+            for (LsmSegment segment : run.segments()) text.append(' ').append(segment.path.getFileName());
+            text.append('\n');
+        }
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, java.nio.file.StandardOpenOption.CREATE,
+                java.nio.file.StandardOpenOption.WRITE, java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) channel.write(bytes);
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Opens the runs the manifest lists and deletes segment files it doesn't. */
+    private List<Run> readManifest() throws IOException {
+        List<Run> runs = new ArrayList<>();
+        List<String> listed = new ArrayList<>();
+        Path manifest = dir.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) continue;
+                String[] parts = line.trim().split(" ");
+                List<LsmSegment> segments = new ArrayList<>();
+                for (int i = 1; i < parts.length; i++) {
+                    segments.add(LsmSegment.open(dir.resolve(parts[i])));
+                    listed.add(parts[i]);
+                }
+                long seq = Long.parseLong(parts[0]);
+                nextSeq = Math.max(nextSeq, seq + 1);
+                runs.add(new Run(seq, List.copyOf(segments)));
+            }
+        }
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                Matcher segment = SEGMENT_FILE.matcher(name);
+                if (segment.matches()) {
+                    nextSegmentId = Math.max(nextSegmentId, Long.parseLong(segment.group(1)) + 1);
+                    if (!listed.contains(name)) Files.delete(file);
+                } else if (name.endsWith(".ids") || name.equals(MANIFEST + ".tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return runs;
+    }
+
+    /** Rebuilds a frozen memtable from every log left on disk; newest first. */
+    private List<Memtable> replayLogs() throws IOException {
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Matcher matcher = WAL_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) logs.put(Long.parseLong(matcher.group(1)), file);
+            }
+        }
+        List<Memtable> memtables = new ArrayList<>();
+        for (Map.Entry<Long, Path> entry : logs.descendingMap().entrySet()) {
+            Memtable memtable = new Memtable(entry.getValue());
+            replay(memtable);
+            memtables.add(memtable);
+            nextLogId = Math.max(nextLogId, entry.getKey() + 1);
+        }
+        return memtables;
+    }
+
+    private static void replay(Memtable memtable) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(memtable.logPath), 1 << 16))) {
+            while (true) {
+                byte[] body;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    // A zero-filled or garbled tail: nothing after it was acknowledged
+                    if (length < 4 || length > MAX_RECORD_BYTES) break;
+                    body = new byte[length];
+                    in.readFully(body);
+                } catch (EOFException eof) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Corrupt record in {}; ignoring the rest of it", memtable.logPath.getFileName());
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+                int keyLength = buffer.getInt();
+                if (keyLength < 0 || keyLength > body.length - 4) {
+                    log.warn("Corrupt record in {}; ignoring the rest of it", memtable.logPath.getFileName());
+                    break;
+                }
+                byte[] key = new byte[keyLength];
+                buffer.get(key);
+                byte[] value = new byte[buffer.remaining()];
+                buffer.get(value);
+                apply(memtable, key, value);
+            }
+        }
+    }
+
+    /** {@code [int length][int crc32c][int keyLength][key][value]}, length and checksum covering the rest. */
+    private static byte[] frame(byte[] key, byte[] value) {
+        int length = 4 + key.length + value.length;
+        if (length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Liked track of " + length + " bytes is over the " + MAX_RECORD_BYTES + " byte limit");
+        }
+        ByteBuffer frame = ByteBuffer.allocate(8 + length);
+        frame.putInt(length).putInt(0).putInt(key.length).put(key).put(value);
+        CRC32C crc = new CRC32C();
+        crc.update(frame.array(), 8, length);
+        frame.putInt(4, (int) crc.getValue());
+        return frame.array();
+    }
+
+    // ---------------------------------------------------------------- encoding
+
+    /**
+     * {@code [short userIdLength][userId][likedAt][id]}, compared as unsigned bytes. likedAt is stored
+     * inverted, newest first, with a missing one sorting last.
+     */
+    private static byte[] key(String userId, Instant likedAt, String id) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        if (user.length > 0xffff) throw new IllegalArgumentException("user id too long");
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer key = ByteBuffer.allocate(2 + user.length + TIMESTAMP_BYTES + idBytes.length);
+        key.putShort((short) user.length).put(user);
+        if (likedAt == null) key.putLong(-1L).putInt(-1);
+        else key.putLong(~(likedAt.getEpochSecond() ^ Long.MIN_VALUE)).putInt(~likedAt.getNano());
+        return key.put(idBytes).array();
+    }
+
+    private static byte[] userPrefix(String userId) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(2 + user.length).putShort((short) user.length).put(user).array();
+    }
+
+    private static byte[] idKey(String userId, String id) {
+        byte[] prefix = userPrefix(userId);
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] idKey = Arrays.copyOf(prefix, prefix.length + idBytes.length);
+        System.arraycopy(idBytes, 0, idKey, prefix.length, idBytes.length);
+        return idKey;
+    }
+
+    private static String id(byte[] key) {
+        int start = LsmSegment.userPrefixLength(key) + TIMESTAMP_BYTES;
+        return new String(key, start, key.length - start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        return key.length >= prefix.length && Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static boolean sameUser(byte[] a, byte[] b) {
+        int prefix = LsmSegment.userPrefixLength(a);
+        return b.length >= prefix && Arrays.equals(a, 0, prefix, b, 0, prefix);
+    }
+
+    private static byte[] encode(LikedTrack track) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(track.getProvider() != null ? track.getProvider().ordinal() : -1);
+            DurableJournal.writeString(out, track.getTrackId());
+            DurableJournal.writeString(out, track.getTitle());
+            DurableJournal.writeString(out, track.getArtist());
+            DurableJournal.writeString(out, track.getAlbum());
+            DurableJournal.writeString(out, track.getImageUrl());
+            DurableJournal.writeString(out, track.getExternalUrl());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static LikedTrack decode(byte[] key, byte[] value) {
+        int prefix = LsmSegment.userPrefixLength(key);
+        ByteBuffer timestamp = ByteBuffer.wrap(key, prefix, TIMESTAMP_BYTES);
+        long seconds = timestamp.getLong();
+        int nanos = timestamp.getInt();
+        LikedTrack track = new LikedTrack();
+        track.setUserId(new String(key, 2, prefix - 2, StandardCharsets.UTF_8));
+        track.setId(id(key));
+        track.setLikedAt(seconds == -1L && nanos == -1 ? null : Instant.ofEpochSecond(~seconds ^ Long.MIN_VALUE, ~nanos));
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            byte provider = in.readByte();
+            track.setProvider(provider < 0 ? null : PROVIDERS[provider]);
+            track.setTrackId(DurableJournal.readString(in));
+            track.setTitle(DurableJournal.readString(in));
+            track.setArtist(DurableJournal.readString(in));
+            track.setAlbum(DurableJournal.readString(in));
+            track.setImageUrl(DurableJournal.readString(in));
+            track.setExternalUrl(DurableJournal.readString(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return track;
+    }
+
+    private static String owner(LikedTrack track) {
+        return Objects.requireNonNullElse(track.getUserId(), "");
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,380 @@
+package com.audiora.store;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One immutable, sorted segment file of the {@link LsmLikedTrackStore}, read through a memory mapping.
+ * <p>
+ * Layout, in order: the data records {@code [int keyLength][key][int valueLength][value]} in key order,
+ * an empty value marking a delete; the id records {@code [int idKeyLength][idKey][int dataOffset]} in
+ * id-key order, pointing at each id's live record (or at its delete when it has none here); the offset of
+ * every {@value #INDEX_INTERVAL}th data and id record, for binary search; a bloom filter over the id keys;
+ * and a fixed-size footer locating all of it. Files stay well under 2 GiB, so offsets are ints.
+ */
+final class LsmSegment {
+    static final int INDEX_INTERVAL = 16;
+    private static final int MAGIC = 0x414C534D;
+    private static final int FOOTER_BYTES = 8 + 9 * 4;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    /** A forward cursor over sorted key/value pairs. */
+    interface Scan {
+        boolean valid();
+
+        byte[] key();
+
+        byte[] value();
+
+        void next();
+    }
+
+    final Path path;
+    final long size;
+    final long records;
+    private final MappedByteBuffer map;
+    private final int idStart;
+    private final int dataIndex;
+    private final int dataIndexCount;
+    private final int idIndex;
+    private final int idIndexCount;
+    private final int bloom;
+    private final long bloomBits;
+
+    private LsmSegment(Path path, long size, MappedByteBuffer map) {
+        this.path = path;
+        this.size = size;
+        this.map = map;
+        int footer = (int) size - FOOTER_BYTES;
+        this.records = map.getLong(footer);
+        this.idStart = map.getInt(footer + 8);
+        this.dataIndex = map.getInt(footer + 12);
+        this.dataIndexCount = map.getInt(footer + 16);
+        this.idIndex = map.getInt(footer + 20);
+        this.idIndexCount = map.getInt(footer + 24);
+        this.bloom = map.getInt(footer + 28);
+        this.bloomBits = (long) map.getInt(footer + 32) * 64;
+    }
+
+    static LsmSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FOOTER_BYTES) throw new IOException(path + " is truncated");
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt((int) size - 4) != MAGIC) throw new IOException(path + " is not a segment file");
+            return new LsmSegment(path, size, map);
+        }
+    }
+
+    /** Records from the first key at or after {@code from} (the start when null) to the end of the file. */
+    Scan scan(byte[] from) {
+        int position = 0;
+        if (from != null && dataIndexCount > 0) {
+            int low = 0;
+            int high = dataIndexCount - 1;
+            int start = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int offset = map.getInt(dataIndex + mid * 4);
+                if (Arrays.compareUnsigned(bytes(offset + 4, map.getInt(offset)), from) <= 0) {
+                    start = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (start >= 0) position = map.getInt(dataIndex + start * 4);
+        }
+        Cursor cursor = new Cursor(position);
+        if (from != null) {
+            while (cursor.valid() && Arrays.compareUnsigned(cursor.key(), from) < 0) cursor.next();
+        }
+        return cursor;
+    }
+
+    /** Offset of the data record this id key points at, or -1 when the segment holds nothing for it. */
+    int findId(byte[] idKey) {
+        if (!mightContain(idKey) || idIndexCount == 0) return -1;
+        int low = 0;
+        int high = idIndexCount - 1;
+        int start = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = map.getInt(idIndex + mid * 4);
+            int compared = Arrays.compareUnsigned(bytes(offset + 4, map.getInt(offset)), idKey);
+            if (compared == 0) return map.getInt(offset + 4 + map.getInt(offset));
+            if (compared < 0) {
+                start = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (start < 0) return -1;
+        int offset = map.getInt(idIndex + start * 4);
+        for (int i = 0; i < INDEX_INTERVAL && offset < dataIndex; i++) {
+            int length = map.getInt(offset);
+            int compared = Arrays.compareUnsigned(bytes(offset + 4, length), idKey);
+            if (compared == 0) return map.getInt(offset + 4 + length);
+            if (compared > 0) return -1;
+            offset += 8 + length;
+        }
+        return -1;
+    }
+
+    /** Whether the bloom filter lets {@code idKey} through. */
+    boolean mightContain(byte[] idKey) {
+        long hash = hash(idKey);
+        long h1 = (int) hash;
+        long h2 = (int) (hash >>> 32);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bloomBits);
+            if ((map.getLong(bloom + (int) (bit >>> 6) * 8) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    byte[] keyAt(int offset) {
+        return bytes(offset + 4, map.getInt(offset));
+    }
+
+    byte[] valueAt(int offset) {
+        int valueAt = offset + 4 + map.getInt(offset);
+        return bytes(valueAt + 4, map.getInt(valueAt));
+    }
+
+    private byte[] bytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        map.get(offset, bytes);
+        return bytes;
+    }
+
+    private final class Cursor implements Scan {
+        private int position;
+        private byte[] key;
+        private int valueAt;
+
+        Cursor(int position) {
+            this.position = position;
+            read();
+        }
+
+        private void read() {
+            if (position >= idStart) {
+                key = null;
+                return;
+            }
+            key = keyAt(position);
+            valueAt = position + 4 + key.length;
+        }
+
+        @Override
+        public boolean valid() {
+            return key != null;
+        }
+
+        @Override
+        public byte[] key() {
+            return key;
+        }
+
+        @Override
+        public byte[] value() {
+            return bytes(valueAt + 4, map.getInt(valueAt));
+        }
+
+        @Override
+        public void next() {
+            position = valueAt + 4 + map.getInt(valueAt);
+            read();
+        }
+    }
+
+    static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Writes a segment from records added in key order. Records of one user must not be split across
+     * writers; {@link #userPrefixLength} tells where a key's user part ends.
+     */
+    static final class Writer implements Closeable {
+        private record IdRef(byte[] idKey, int offset, boolean live) {}
+
+        private static final Comparator<IdRef> ID_ORDER = (a, b) -> {
+            int compared = Arrays.compareUnsigned(a.idKey(), b.idKey());
+            return compared != 0 ? compared : Boolean.compare(b.live(), a.live());
+        };
+
+        private final Path path;
+        private final Path idsPath;
+        private final FileOutputStream file;
+        private final DataOutputStream data;
+        private final DataOutputStream ids;
+        private final long[] bloomWords;
+        private final List<IdRef> userIds = new ArrayList<>();
+        private int[] dataOffsets = new int[64];
+        private int dataOffsetCount;
+        private int[] idOffsets = new int[64];
+        private int idOffsetCount;
+        private byte[] userPrefix;
+        private int position;
+        private int idPosition;
+        private long records;
+        private long idRecords;
+
+        Writer(Path path, long expectedIds) throws IOException {
+            this.path = path;
+            this.idsPath = path.resolveSibling(path.getFileName() + ".ids");
+            this.file = new FileOutputStream(path.toFile());
+            this.data = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+            this.ids = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(idsPath), 1 << 16));
+            long bits = Math.max(64, expectedIds * BLOOM_BITS_PER_KEY);
+            this.bloomWords = new long[(int) Math.min(Integer.MAX_VALUE / 64, (bits + 63) / 64)];
+        }
+
+        /** Bytes written so far. */
+        long bytes() {
+            return position;
+        }
+
+        long records() {
+            return records;
+        }
+
+        void add(byte[] key, byte[] value) throws IOException {
+            int prefix = userPrefixLength(key);
+            if (userPrefix == null || !Arrays.equals(userPrefix, 0, userPrefix.length, key, 0, prefix)) {
+                flushUserIds();
+                userPrefix = Arrays.copyOf(key, prefix);
+            }
+            if (records % INDEX_INTERVAL == 0) dataOffsets = append(dataOffsets, dataOffsetCount++, position);
+            userIds.add(new IdRef(idKey(key), position, value.length > 0));
+            data.writeInt(key.length);
+            data.write(key);
+            data.writeInt(value.length);
+            data.write(value);
+            position += 8 + key.length + value.length;
+            records++;
+        }
+
+        /** Completes the file and syncs it to disk. */
+        void finish() throws IOException {
+            flushUserIds();
+            ids.close();
+            int idStart = position;
+            Files.copy(idsPath, data);
+            position += idPosition;
+            int dataIndex = position;
+            for (int i = 0; i < dataOffsetCount; i++) data.writeInt(dataOffsets[i]);
+            int idIndex = dataIndex + dataOffsetCount * 4;
+            for (int i = 0; i < idOffsetCount; i++) data.writeInt(idStart + idOffsets[i]);
+            int bloom = idIndex + idOffsetCount * 4;
+            for (long word : bloomWords) data.writeLong(word);
+            data.writeLong(records);
+            data.writeInt(idStart);
+            data.writeInt(dataIndex);
+            data.writeInt(dataOffsetCount);
+            data.writeInt(idIndex);
+            data.writeInt(idOffsetCount);
+            data.writeInt(bloom);
+            data.writeInt(bloomWords.length);
+            data.writeInt(BLOOM_HASHES);
+            data.writeInt(MAGIC);
+            data.flush();
+            file.getChannel().force(true);
+            close();
+        }
+
+        /** Writes the finished user's id records: sorted, one per id, the live record preferred. */
+        private void flushUserIds() throws IOException {
+            userIds.sort(ID_ORDER);
+            byte[] previous = null;
+            for (IdRef ref : userIds) {
+                if (previous != null && Arrays.equals(previous, ref.idKey())) continue;
+                previous = ref.idKey();
+                if (idRecords % INDEX_INTERVAL == 0) idOffsets = append(idOffsets, idOffsetCount++, idPosition);
+                ids.writeInt(ref.idKey().length);
+                ids.write(ref.idKey());
+                ids.writeInt(ref.offset());
+                idPosition += 8 + ref.idKey().length;
+                idRecords++;
+                addToBloom(ref.idKey());
+            }
+            userIds.clear();
+        }
+
+        private void addToBloom(byte[] idKey) {
+            long bits = (long) bloomWords.length * 64;
+            long hash = hash(idKey);
+            long h1 = (int) hash;
+            long h2 = (int) (hash >>> 32);
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                bloomWords[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        private static int[] append(int[] array, int index, int value) {
+            if (index == array.length) array = Arrays.copyOf(array, array.length * 2);
+            array[index] = value;
+            return array;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                ids.close();
+                data.close();
+            } finally {
+                Files.deleteIfExists(idsPath);
+            }
+        }
+
+        /** Drops the unfinished file. */
+        void abort() {
+            try {
+                close();
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // best effort: the manifest never listed it, so startup removes it anyway
+            }
+        }
+    }
+
+    /** Length of the {@code [short length][userId]} part that starts every key and id key. */
+    static int userPrefixLength(byte[] key) {
+        return 2 + (((key[0] & 0xff) << 8) | (key[1] & 0xff));
+    }
+
+    /** The id key of a data key: its user part followed by its id, without the timestamp. */
+    static byte[] idKey(byte[] key) {
+        int prefix = userPrefixLength(key);
+        byte[] idKey = new byte[key.length - LsmLikedTrackStore.TIMESTAMP_BYTES];
+        System.arraycopy(key, 0, idKey, 0, prefix);
+        System.arraycopy(key, prefix + LsmLikedTrackStore.TIMESTAMP_BYTES, idKey, prefix, key.length - prefix - LsmLikedTrackStore.TIMESTAMP_BYTES);
+        return idKey;
+    }
+}